@@ -1,264 +1,7334 @@
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.FocusAdapter;
 import java.awt.event.FocusEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.sql.*;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.core.Codes;
 
 // Class representing an inventory item
 class InventoryItem {
+    // Reorder threshold for items that don't set their own; quantity <= threshold is low stock
+    static final int DEFAULT_REORDER_THRESHOLD = 5;
+
     String id, name, category;
     int quantity;
     double price;
+    int reorderThreshold;
 
     public InventoryItem(String id, String name, int quantity, double price, String category) {
+        this(id, name, quantity, price, category, DEFAULT_REORDER_THRESHOLD);
+    }
+
+    public InventoryItem(String id, String name, int quantity, double price, String category, int reorderThreshold) {
         this.id = id;
         this.name = name;
         this.quantity = quantity;
         this.price = price;
         this.category = category;
+        this.reorderThreshold = reorderThreshold;
+    }
+
+    // Returns a copy of this item with a different quantity
+    InventoryItem withQuantity(int newQuantity) {
+        return new InventoryItem(id, name, newQuantity, price, category, reorderThreshold);
+    }
+
+    InventoryItem withPrice(double newPrice) {
+        return new InventoryItem(id, name, quantity, newPrice, category, reorderThreshold);
+    }
+
+    InventoryItem withCategory(String newCategory) {
+        return new InventoryItem(id, name, quantity, price, newCategory, reorderThreshold);
+    }
+
+    // Price changed by a percentage, e.g. -10 for 10% off, rounded to the cent from its exact binary value
+    // as SQLite's ROUND does, so both stores agree
+    static double repriced(double price, double percent) {
+        return new BigDecimal(price * (1 + percent / 100)).setScale(2, RoundingMode.HALF_UP).doubleValue();
+    }
+
+    boolean isLowStock() {
+        return quantity <= reorderThreshold;
+    }
+
+    // True if both describe the same item with the same fields
+    boolean sameAs(InventoryItem other) {
+        return id.equals(other.id) && Objects.equals(name, other.name) && quantity == other.quantity
+                && price == other.price && Objects.equals(category, other.category)
+                && reorderThreshold == other.reorderThreshold;
     }
 }
 
-// Manages all database interactions
-class DatabaseManager {
-    private Connection conn;
+// Exponentially weighted moving average of an item's daily unit sales. Each sale advances it in
+// O(1): days without sales are folded in as zeros in closed form instead of being replayed.
+class SalesVelocity {
+    static final double ALPHA = 2.0 / (14 + 1); // Smoothing factor of a 14-day EWMA
 
-    public DatabaseManager() {
-        try {
-            // Establish connection to SQLite database
-            conn = DriverManager.getConnection("jdbc:sqlite:RevUp.db");
-            Statement stmt = conn.createStatement();
-            // Create items table if it doesn't exist
-            stmt.execute(
-                    "CREATE TABLE IF NOT EXISTS items (id TEXT PRIMARY KEY, name TEXT, quantity INTEGER, price REAL, category TEXT)");
-            // Create sales table if it doesn't exist
-            stmt.execute(
-                    "CREATE TABLE IF NOT EXISTS sales (sale_id INTEGER PRIMARY KEY AUTOINCREMENT, item_id TEXT, quantity_sold INTEGER, price_sold REAL, date TEXT)");
-            // Create users table if it doesn't exist
-            stmt.execute("CREATE TABLE IF NOT EXISTS users (username TEXT PRIMARY KEY, password TEXT, role TEXT)");
-            // Insert default users if they don't already exist
-            stmt.execute("INSERT OR IGNORE INTO users VALUES ('admin', 'admin123', 'admin')");
-            stmt.execute("INSERT OR IGNORE INTO users VALUES ('staff', 'staff123', 'staff')");
-            stmt.execute("INSERT OR IGNORE INTO users VALUES ('viewer', 'viewer123', 'viewer')");
-        } catch (SQLException e) {
-            e.printStackTrace();
+    final long day; // Latest day with sales (epoch day); its units are not yet in the average
+    final int dayUnits; // Units sold on that day
+    final double average; // Average daily units up to the day before, or NaN before a full day is seen
+
+    SalesVelocity(long day, int dayUnits, double average) {
+        this.day = day;
+        this.dayUnits = dayUnits;
+        this.average = average;
+    }
+
+    boolean hasHistory() {
+        return !Double.isNaN(average);
+    }
+
+    /**
+     * Returns the state after selling units of an item on a given day.
+     * 
+     * @param current  Current state, or null if the item has never sold.
+     * @param saleDay  Epoch day of the sale.
+     * @param quantity Units sold; negative to take a deleted sale back out.
+     * @return The new state.
+     */
+    static SalesVelocity record(SalesVelocity current, long saleDay, int quantity) {
+        if (current == null)
+            return new SalesVelocity(saleDay, Math.max(0, quantity), Double.NaN);
+        if (saleDay == current.day)
+            return new SalesVelocity(current.day, Math.max(0, current.dayUnits + quantity), current.average);
+        if (saleDay > current.day)
+            return new SalesVelocity(saleDay, Math.max(0, quantity), current.averageBefore(saleDay));
+        // A back-dated sale: add it with the weight its day already has in the average
+        double weight = ALPHA * Math.pow(1 - ALPHA, current.day - saleDay - 1);
+        double base = current.hasHistory() ? current.average : 0;
+        return new SalesVelocity(current.day, current.dayUnits, Math.max(0, base + weight * quantity));
+    }
+
+    // Average daily units over the days before the given day
+    double averageBefore(long today) {
+        if (today <= day)
+            return hasHistory() ? average : dayUnits;
+        double folded = hasHistory() ? ALPHA * dayUnits + (1 - ALPHA) * average : dayUnits;
+        return folded * Math.pow(1 - ALPHA, today - day - 1);
+    }
+}
+
+// Projected stock-out date and reorder suggestion for one item
+class StockForecast {
+    static final int LEAD_TIME_DAYS = 7; // Days between placing and receiving an order
+    static final int COVER_DAYS = 14; // Days of demand an order should cover
+    static final int HORIZON_DAYS = 3650; // Stock-outs further out than this are not projected
+
+    final InventoryItem item;
+    final double dailyUnits;
+    final double daysLeft; // Infinity when the item isn't selling
+    final LocalDate stockOutDate; // Null when the item isn't selling
+    final int suggestedReorder;
+
+    StockForecast(InventoryItem item, SalesVelocity velocity, long today) {
+        this.item = item;
+        this.dailyUnits = velocity == null ? 0 : velocity.averageBefore(today);
+        double projectedDays = dailyUnits > 0 ? Math.max(0, item.quantity) / dailyUnits : Double.POSITIVE_INFINITY;
+        if (projectedDays <= HORIZON_DAYS) {
+            daysLeft = projectedDays;
+            stockOutDate = LocalDate.ofEpochDay(today + (long) Math.floor(daysLeft));
+        } else { // Sales have all but stopped
+            daysLeft = Double.POSITIVE_INFINITY;
+            stockOutDate = null;
         }
+        // Enough for the lead time plus the cover period, keeping the reorder threshold as safety stock
+        int target = (int) Math.ceil(dailyUnits * (LEAD_TIME_DAYS + COVER_DAYS)) + item.reorderThreshold;
+        this.suggestedReorder = Math.max(0, target - Math.max(0, item.quantity));
     }
+}
 
-    // Adds a new item to the database
-    public void addItem(InventoryItem item) {
-        try {
-            PreparedStatement stmt = conn.prepareStatement("INSERT INTO items VALUES (?, ?, ?, ?, ?)");
-            stmt.setString(1, item.id);
-            stmt.setString(2, item.name);
-            stmt.setInt(3, item.quantity);
-            stmt.setDouble(4, item.price);
-            stmt.setString(5, item.category);
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            // Show error if ID already exists (primary key constraint violation)
-            JOptionPane.showMessageDialog(null, "ID already exists.");
+// Streaming quantile sketch with a bounded relative error (a DDSketch). Values fall into logarithmically
+// sized buckets, so adding one is O(1), the size grows only with the log of the value range, and two
+// sketches merge exactly by adding their bucket counts, e.g. to combine months.
+class QuantileSketch {
+    static final double RELATIVE_ACCURACY = 0.01; // Any quantile is within 1% of a value actually seen
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final double MIN_VALUE = 1e-6; // Smaller values, including 0 and negatives, count as 0
+    private static final byte FORMAT = 1;
+
+    private long[] counts = new long[0]; // counts[i] holds the values in bucket offset + i
+    private int offset;
+    private long zeroCount;
+    private long count;
+
+    long count() {
+        return count;
+    }
+
+    void add(double value) {
+        if (value < MIN_VALUE) {
+            zeroCount++;
+        } else {
+            int i = slot(bucket(value)); // May replace counts, so not inlined into the subscript
+            counts[i]++;
         }
+        count++;
     }
 
-    // Updates an existing item in the database
-    public void updateItem(InventoryItem item) {
-        try {
-            PreparedStatement stmt = conn
-                    .prepareStatement("UPDATE items SET name=?, quantity=?, price=?, category=? WHERE id=?");
-            stmt.setString(1, item.name);
-            stmt.setInt(2, item.quantity);
-            stmt.setDouble(3, item.price);
-            stmt.setString(4, item.category);
-            stmt.setString(5, item.id);
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
+    // Takes a value back out, e.g. of a deleted sale; ignored if its bucket is already empty
+    void remove(double value) {
+        if (value < MIN_VALUE) {
+            if (zeroCount == 0)
+                return;
+            zeroCount--;
+        } else {
+            int i = bucket(value) - offset;
+            if (i < 0 || i >= counts.length || counts[i] == 0)
+                return;
+            counts[i]--;
         }
+        count--;
     }
 
-    // Deletes an item from the database by ID
-    public void deleteItem(String id) {
-        try {
-            PreparedStatement stmt = conn.prepareStatement("DELETE FROM items WHERE id=?");
-            stmt.setString(1, id);
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
+    void merge(QuantileSketch other) {
+        if (other.count == 0)
+            return;
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] != 0) {
+                int j = slot(other.offset + i);
+                counts[j] += other.counts[i];
+            }
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+    }
+
+    QuantileSketch copy() {
+        QuantileSketch copy = new QuantileSketch();
+        copy.counts = counts.clone();
+        copy.offset = offset;
+        copy.zeroCount = zeroCount;
+        copy.count = count;
+        return copy;
+    }
+
+    /**
+     * Estimates a quantile of the values added so far.
+     * 
+     * @param q Quantile between 0 and 1, e.g. 0.5 for the median.
+     * @return A value within the relative accuracy of the true quantile, or NaN if the sketch is empty.
+     */
+    double quantile(double q) {
+        if (count == 0)
+            return Double.NaN;
+        long rank = (long) (q * (count - 1));
+        if (rank < zeroCount)
+            return 0;
+        long seen = zeroCount;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank)
+                return 2 * Math.pow(GAMMA, offset + i) / (GAMMA + 1);
+        }
+        return 2 * Math.pow(GAMMA, offset + counts.length - 1) / (GAMMA + 1);
+    }
+
+    // Compact form for storage: a format byte, the counts as varints and the first bucket zigzag-encoded,
+    // with empty buckets at either end trimmed
+    byte[] encode() {
+        int first = 0;
+        int last = counts.length - 1;
+        while (first <= last && counts[first] == 0)
+            first++;
+        while (last >= first && counts[last] == 0)
+            last--;
+        ByteBuffer out = ByteBuffer.allocate(1 + 10 * (3 + Math.max(0, last - first + 1)));
+        out.put(FORMAT);
+        putVarLong(out, zeroCount);
+        putVarLong(out, Math.max(0, last - first + 1));
+        if (first <= last) {
+            int start = offset + first;
+            putVarLong(out, ((start << 1) ^ (start >> 31)) & 0xFFFFFFFFL);
+            for (int i = first; i <= last; i++) {
+                putVarLong(out, counts[i]);
+            }
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    static QuantileSketch decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.get() != FORMAT)
+            throw new IllegalArgumentException("Unknown sketch format " + bytes[0]);
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.zeroCount = getVarLong(in);
+        sketch.count = sketch.zeroCount;
+        int buckets = (int) getVarLong(in);
+        if (buckets > 0) {
+            int start = (int) getVarLong(in);
+            sketch.offset = (start >>> 1) ^ -(start & 1);
+            sketch.counts = new long[buckets];
+            for (int i = 0; i < buckets; i++) {
+                sketch.counts[i] = getVarLong(in);
+                sketch.count += sketch.counts[i];
+            }
+        }
+        return sketch;
+    }
+
+    private static int bucket(double value) {
+        return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    }
+
+    // Index of a bucket in counts, growing the array to cover it
+    private int slot(int bucket) {
+        if (counts.length == 0) {
+            counts = new long[8];
+            offset = bucket - 4;
+        } else if (bucket < offset) {
+            int grow = Math.max(offset - bucket, counts.length / 2);
+            long[] grown = new long[counts.length + grow];
+            System.arraycopy(counts, 0, grown, grow, counts.length);
+            counts = grown;
+            offset -= grow;
+        } else if (bucket >= offset + counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(bucket - offset + 1, counts.length + counts.length / 2));
+        }
+        return bucket - offset;
+    }
+
+    private static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+}
+
+// Distributions of units per sale and unit price over some set of sales, kept as quantile sketches
+class SaleDistribution {
+    final QuantileSketch quantities;
+    final QuantileSketch prices;
+
+    SaleDistribution() {
+        this(new QuantileSketch(), new QuantileSketch());
+    }
+
+    SaleDistribution(QuantileSketch quantities, QuantileSketch prices) {
+        this.quantities = quantities;
+        this.prices = prices;
+    }
+
+    long count() {
+        return quantities.count();
+    }
+
+    void add(int quantity, double price) {
+        quantities.add(quantity);
+        prices.add(price);
+    }
+
+    void remove(int quantity, double price) {
+        quantities.remove(quantity);
+        prices.remove(price);
+    }
+
+    void merge(SaleDistribution other) {
+        quantities.merge(other.quantities);
+        prices.merge(other.prices);
+    }
+
+    SaleDistribution copy() {
+        return new SaleDistribution(quantities.copy(), prices.copy());
+    }
+}
+
+// A time-bound discount: percent off every item in a category, buy N get M free of one item, or a fixed
+// price for a bundle of one unit each of several items
+class Promotion {
+    static final String PERCENT_OFF = "PERCENT_OFF";
+    static final String BUY_GET = "BUY_GET";
+    static final String BUNDLE = "BUNDLE";
+
+    final int promotionId; // 0 until stored
+    final String kind;
+    final String category; // PERCENT_OFF only
+    final List<String> itemIds; // The item for BUY_GET, the bundle's items for BUNDLE
+    final double amount; // Percent off, or the bundle's price
+    final int buy, free; // BUY_GET only
+    final LocalDate starts, ends; // Active on both days and every day between
+
+    Promotion(int promotionId, String kind, String category, List<String> itemIds, double amount, int buy, int free,
+            LocalDate starts, LocalDate ends) {
+        this.promotionId = promotionId;
+        this.kind = kind;
+        this.category = category;
+        this.itemIds = List.copyOf(itemIds);
+        this.amount = amount;
+        this.buy = buy;
+        this.free = free;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    static Promotion percentOff(String category, double percent, LocalDate starts, LocalDate ends) {
+        return new Promotion(0, PERCENT_OFF, category, List.of(), percent, 0, 0, starts, ends);
+    }
+
+    static Promotion buyGet(String itemId, int buy, int free, LocalDate starts, LocalDate ends) {
+        return new Promotion(0, BUY_GET, null, List.of(itemId), 0, buy, free, starts, ends);
+    }
+
+    static Promotion bundle(List<String> itemIds, double price, LocalDate starts, LocalDate ends) {
+        return new Promotion(0, BUNDLE, null, itemIds, price, 0, 0, starts, ends);
+    }
+
+    Promotion withId(int newId) {
+        return new Promotion(newId, kind, category, itemIds, amount, buy, free, starts, ends);
+    }
+
+    Promotion withCategory(String newCategory) {
+        return new Promotion(promotionId, kind, newCategory, itemIds, amount, buy, free, starts, ends);
+    }
+
+    boolean isActiveOn(LocalDate day) {
+        return !day.isBefore(starts) && !day.isAfter(ends);
+    }
+
+    @Override
+    public String toString() {
+        String rule = switch (kind) {
+            case PERCENT_OFF -> String.format("%s%% off %s", BigDecimal.valueOf(amount).stripTrailingZeros()
+                    .toPlainString(), category);
+            case BUY_GET -> "Buy " + buy + " get " + free + " free: " + itemIds.get(0);
+            default -> String.join(" + ", itemIds) + " for PHP " + String.format("%.2f", amount);
+        };
+        return "#" + promotionId + "  " + rule + "  (" + starts + " to " + ends + ")";
+    }
+}
+
+// The promotions active on one day, compiled into lookups by category and by item so that pricing a
+// basket costs O(basket) however many promotions there are. Immutable; recompiled when they change.
+class PricingRules {
+    final LocalDate day;
+    private final Map<String, Double> percentOffByCategory = new HashMap<>(); // The best one per category
+    private final Map<String, Promotion> buyGetByItem = new HashMap<>(); // The one freeing the most units
+    private final Map<String, List<Promotion>> bundlesByItem = new HashMap<>(); // Every bundle an item is in
+
+    private PricingRules(LocalDate day) {
+        this.day = day;
+    }
+
+    static PricingRules compile(List<Promotion> promotions, LocalDate day) {
+        PricingRules rules = new PricingRules(day);
+        for (Promotion promotion : promotions) {
+            if (!promotion.isActiveOn(day))
+                continue;
+            switch (promotion.kind) {
+                case Promotion.PERCENT_OFF -> {
+                    if (promotion.category != null)
+                        rules.percentOffByCategory.merge(promotion.category, promotion.amount, Math::max);
+                }
+                case Promotion.BUY_GET -> rules.buyGetByItem.merge(promotion.itemIds.get(0), promotion,
+                        (a, b) -> (double) a.free / (a.buy + a.free) >= (double) b.free / (b.buy + b.free) ? a : b);
+                default -> {
+                    for (String itemId : promotion.itemIds) {
+                        rules.bundlesByItem.computeIfAbsent(itemId, id -> new ArrayList<>()).add(promotion);
+                    }
+                }
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Prices a basket. Each unit gets at most one promotion: complete bundles are
+     * taken first, then buy-N-get-M, then the category's percent off; the rest
+     * sell at the listed price.
+     * 
+     * @param items      The basket's items, as currently listed.
+     * @param quantities Units of each item, in the same order.
+     * @param date       Sale date for the lines.
+     * @return One line per item and unit price paid, so a sale's price_sold is what
+     *         was actually charged for each unit.
+     */
+    List<SaleLine> price(List<InventoryItem> items, List<Integer> quantities, String date) {
+        Map<String, InventoryItem> byId = new LinkedHashMap<>();
+        Map<String, Integer> left = new HashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            byId.putIfAbsent(items.get(i).id, items.get(i));
+            left.merge(items.get(i).id, quantities.get(i), Integer::sum);
+        }
+        List<SaleLine> lines = new ArrayList<>();
+        Set<Promotion> tried = new HashSet<>();
+        for (String itemId : byId.keySet()) {
+            for (Promotion bundle : bundlesByItem.getOrDefault(itemId, List.of())) {
+                if (tried.add(bundle))
+                    takeBundles(bundle, byId, left, date, lines);
+            }
+        }
+        for (InventoryItem item : byId.values()) {
+            int units = left.get(item.id);
+            Promotion buyGet = buyGetByItem.get(item.id);
+            if (buyGet != null && units >= buyGet.buy + buyGet.free) {
+                int free = units / (buyGet.buy + buyGet.free) * buyGet.free;
+                lines.add(new SaleLine(item.id, free, 0.0, date));
+                units -= free; // The rest, including the units bought to earn them, pay the listed price
+                addLine(lines, item.id, units, item.price, date);
+                continue;
+            }
+            Double percent = item.category == null ? null : percentOffByCategory.get(item.category);
+            addLine(lines, item.id, units, percent == null ? item.price : InventoryItem.repriced(item.price, -percent),
+                    date);
+        }
+        return lines;
+    }
+
+    // Sells as many complete bundles as the basket holds, splitting the bundle price over its items in
+    // proportion to their listed prices, to the cent; skipped if it is no cheaper than the items alone
+    private static void takeBundles(Promotion bundle, Map<String, InventoryItem> byId, Map<String, Integer> left,
+            String date, List<SaleLine> lines) {
+        int sets = Integer.MAX_VALUE;
+        double listed = 0;
+        for (String itemId : bundle.itemIds) {
+            InventoryItem item = byId.get(itemId);
+            if (item == null)
+                return;
+            sets = Math.min(sets, left.get(itemId));
+            listed += item.price;
+        }
+        if (sets == 0 || bundle.amount >= listed)
+            return;
+        double allocated = 0;
+        for (int i = 0; i < bundle.itemIds.size(); i++) {
+            InventoryItem item = byId.get(bundle.itemIds.get(i));
+            double share = i == bundle.itemIds.size() - 1 ? Math.round((bundle.amount - allocated) * 100) / 100.0
+                    : Math.round(bundle.amount * item.price / listed * 100) / 100.0;
+            allocated += share;
+            lines.add(new SaleLine(item.id, sets, share, date));
+            left.merge(item.id, -sets, Integer::sum);
+        }
+    }
+
+    // What the priced lines charge altogether
+    static double total(List<SaleLine> lines) {
+        double total = 0.0;
+        for (SaleLine line : lines) {
+            total += line.quantity * line.price;
+        }
+        return total;
+    }
+
+    private static void addLine(List<SaleLine> lines, String itemId, int quantity, double price, String date) {
+        if (quantity > 0)
+            lines.add(new SaleLine(itemId, quantity, price, date));
+    }
+}
+
+// Maps the current row of a result set to an object
+@FunctionalInterface
+interface RowMapper<T> {
+    T map(ResultSet rs) throws SQLException;
+}
+
+// Binds the parameters of a prepared statement
+@FunctionalInterface
+interface StatementBinder {
+    void bind(PreparedStatement stmt) throws SQLException;
+}
+
+// Database work to run inside a transaction
+@FunctionalInterface
+interface SqlWork {
+    void run() throws SQLException;
+}
+
+// Revenue for one month of the monthly summary
+class MonthlyRevenue {
+    final String monthYear; // YYYY-MM
+    final double totalRevenue;
+
+    MonthlyRevenue(String monthYear, double totalRevenue) {
+        this.monthYear = monthYear;
+        this.totalRevenue = totalRevenue;
+    }
+}
+
+// A sale to be recorded: item, quantity, unit price and date
+class SaleLine {
+    final String itemId;
+    final int quantity;
+    final double price;
+    final String date; // YYYY-MM-DD
+
+    SaleLine(String itemId, int quantity, double price, String date) {
+        this.itemId = itemId;
+        this.quantity = quantity;
+        this.price = price;
+        this.date = date;
+    }
+}
+
+// Revenue for one day, for the revenue chart
+class DailyRevenue {
+    final long epochDay;
+    final double revenue;
+
+    DailyRevenue(long epochDay, double revenue) {
+        this.epochDay = epochDay;
+        this.revenue = revenue;
+    }
+}
+
+// A single recorded sale, as listed in the individual sales dialog
+class SaleRecord {
+    final int saleId;
+    final String itemId, itemName;
+    final int quantitySold;
+    final double priceSold;
+    final String date;
+
+    SaleRecord(int saleId, String itemId, String itemName, int quantitySold, double priceSold, String date) {
+        this.saleId = saleId;
+        this.itemId = itemId;
+        this.itemName = itemName;
+        this.quantitySold = quantitySold;
+        this.priceSold = priceSold;
+        this.date = date;
+    }
+}
+
+// An item's stock and unit price at some point in time, as rebuilt from the movement ledger
+class StockPosition {
+    final String itemId;
+    final String name; // Current name, or null if the item has since been deleted
+    final int quantity;
+    final double price;
+
+    StockPosition(String itemId, String name, int quantity, double price) {
+        this.itemId = itemId;
+        this.name = name;
+        this.quantity = quantity;
+        this.price = price;
+    }
+
+    double value() {
+        return quantity * price;
+    }
+}
+
+// An item whose quantity in the items table disagrees with the movement ledger
+class StockDrift {
+    final String itemId;
+    final int ledgerQuantity; // 0 if the ledger has no such item
+    final int itemQuantity; // 0 if the items table has no such item
+
+    StockDrift(String itemId, int ledgerQuantity, int itemQuantity) {
+        this.itemId = itemId;
+        this.ledgerQuantity = ledgerQuantity;
+        this.itemQuantity = itemQuantity;
+    }
+
+    @Override
+    public String toString() {
+        return itemId + ": ledger " + ledgerQuantity + ", items " + itemQuantity;
+    }
+}
+
+// Notified of item changes made through DatabaseManager, on the thread that made them
+interface ItemChangeListener {
+    /**
+     * Called after an item is added, updated, sold or deleted.
+     * 
+     * @param before The item before the change, or null if it was added.
+     * @param after  The item after the change, or null if it was deleted.
+     */
+    void itemChanged(InventoryItem before, InventoryItem after);
+
+    // Called once for changes made together, e.g. by a bulk action, with before and after lined up by
+    // index as in itemChanged; by default they are handled one at a time
+    default void itemsChanged(List<InventoryItem> before, List<InventoryItem> after) {
+        for (int i = 0; i < before.size(); i++) {
+            itemChanged(before.get(i), after.get(i));
+        }
+    }
+
+    // Called when the whole item table was replaced, e.g. by a restore
+    default void itemsReset(List<InventoryItem> items) {
+    }
+}
+
+// Notified of the database work the app does on its own threads, e.g. draining the sale journal or
+// ingesting a till log, which no store proxy sees
+@FunctionalInterface
+interface BackgroundWorkListener {
+    /**
+     * Called on the thread that did the work, once it has finished.
+     * 
+     * @param operation Name of the work, e.g. the store method it ran.
+     * @param start     When it started, as System.nanoTime().
+     * @param duration  How long it took in nanoseconds.
+     * @param failed    Whether it threw.
+     * @param args      What it was given, for a workload trace.
+     */
+    void workDone(String operation, long start, long duration, boolean failed, Object[] args);
+}
+
+// Items ordered by how much stock they have left above their reorder threshold, and by ID for lookups
+// such as the scan checkout path. Updates are O(log n); listing the low-stock items is O(k) for k
+// low-stock items, and looking one up by ID is O(1).
+class LowStockIndex implements ItemChangeListener {
+    private final TreeSet<InventoryItem> byRemaining = new TreeSet<>(
+            Comparator.<InventoryItem>comparingInt(item -> item.quantity - item.reorderThreshold)
+                    .thenComparing(item -> item.id));
+    private final Map<String, InventoryItem> byId = new HashMap<>();
+    private final List<Consumer<InventoryItem>> lowStockListeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void itemChanged(InventoryItem before, InventoryItem after) {
+        boolean wasLow;
+        synchronized (this) {
+            InventoryItem previous = before == null ? null : byId.remove(before.id);
+            if (previous != null)
+                byRemaining.remove(previous);
+            wasLow = previous != null && previous.isLowStock();
+            if (after != null) {
+                byId.put(after.id, after);
+                byRemaining.add(after);
+            }
+        }
+        if (after != null && after.isLowStock() && !wasLow) {
+            for (Consumer<InventoryItem> listener : lowStockListeners) {
+                listener.accept(after);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void itemsReset(List<InventoryItem> items) {
+        byId.clear();
+        byRemaining.clear();
+        for (InventoryItem item : items) {
+            byId.put(item.id, item);
+            byRemaining.add(item);
+        }
+    }
+
+    // The current state of an item, or null if there is none
+    public synchronized InventoryItem get(String id) {
+        return byId.get(id);
+    }
+
+    // Low-stock items, most urgent first
+    public synchronized List<InventoryItem> getLowStockItems() {
+        List<InventoryItem> low = new ArrayList<>();
+        for (InventoryItem item : byRemaining) {
+            if (!item.isLowStock())
+                break;
+            low.add(item);
+        }
+        return low;
+    }
+
+    // Registers a listener called when an item drops to or below its reorder threshold
+    public void addLowStockListener(Consumer<InventoryItem> listener) {
+        lowStockListeners.add(listener);
+    }
+}
+
+// Value of the stock on hand, quantity times price, per category and overall. Kept in centavos so
+// that applying each change as a delta is exact and can be checked against a full recount; every
+// item change costs O(1) instead of a SUM over all items.
+class StockValuation implements ItemChangeListener {
+    private final Map<String, long[]> byCategory = new HashMap<>(); // { centavos, items }; null key for none
+    private long totalCents;
+
+    // An item's stock value in centavos
+    static long cents(InventoryItem item) {
+        return item.quantity * Math.round(item.price * 100);
+    }
+
+    @Override
+    public synchronized void itemChanged(InventoryItem before, InventoryItem after) {
+        if (before != null)
+            add(before, -1);
+        if (after != null)
+            add(after, 1);
+    }
+
+    @Override
+    public synchronized void itemsReset(List<InventoryItem> items) {
+        byCategory.clear();
+        totalCents = 0;
+        for (InventoryItem item : items) {
+            add(item, 1);
         }
     }
 
-    // Retrieves all items from the database
-    public ResultSet getAllItems() {
-        try {
-            Statement stmt = conn.createStatement();
-            return stmt.executeQuery("SELECT * FROM items");
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return null;
-        }
+    private void add(InventoryItem item, int sign) {
+        long value = sign * cents(item);
+        totalCents += value;
+        long[] category = byCategory.computeIfAbsent(item.category, c -> new long[2]);
+        category[0] += value;
+        category[1] += sign;
+        if (category[1] == 0)
+            byCategory.remove(item.category);
+    }
+
+    public synchronized long getTotalCents() {
+        return totalCents;
+    }
+
+    // Centavos of stock in each category that has items, by name; items with no category are under null
+    public synchronized Map<String, Long> getCategoryCents() {
+        Map<String, Long> cents = new HashMap<>();
+        for (Map.Entry<String, long[]> category : byCategory.entrySet()) {
+            cents.put(category.getKey(), category.getValue()[0]);
+        }
+        return cents;
+    }
+}
+
+// Storage operations used by the UI, so the SQLite database can be swapped for another engine
+interface InventoryStore {
+    // Looks up a single item by ID, or returns null if there is none
+    InventoryItem getItem(String id);
+
+    void addItem(InventoryItem item);
+
+    void updateItem(InventoryItem item);
+
+    void deleteItem(String id);
+
+    // Bulk actions on the items with the given IDs, each applied in one transaction; they return how
+    // many items changed, and listeners get the changes as one batch
+    int repriceItems(Collection<String> ids, double percent);
+
+    int setItemsCategory(Collection<String> ids, String category);
+
+    // Stock never goes below zero: a removal larger than an item's stock empties it
+    int restockItems(Collection<String> ids, int delta);
+
+    int deleteItems(Collection<String> ids);
+
+    // Adds each item's delta to its quantity, e.g. the corrections from a stock count, read from a file of
+    // "itemId<TAB>delta" lines as CycleCount writes them, so they need not fit in memory; 0 if it failed
+    int adjustStock(Path deltas);
+
+    // Streams all items to the consumer
+    void getAllItems(Consumer<? super InventoryItem> consumer);
+
+    // Returns up to limit items whose IDs come after afterId ("" for the first page), in CycleCount.ID_ORDER
+    List<InventoryItem> getItemsPage(String afterId, int limit);
+
+    // Streams the items whose ID or name contains the keyword to the consumer; a null category means any
+    void searchItems(String keyword, String category, Consumer<? super InventoryItem> consumer);
+
+    // Streams the items in one category to the consumer
+    void getItemsInCategory(String category, Consumer<? super InventoryItem> consumer);
+
+    // Category names in the order they were added
+    List<String> getCategories();
+
+    // Adds a category; returns false if one with that name already exists
+    boolean addCategory(String name);
+
+    // Renames a category, moving its items with it; returns false if the new name is taken
+    boolean renameCategory(String name, String newName);
+
+    // Deletes a category; returns false if items still use it
+    boolean deleteCategory(String name);
+
+    // Promotions in the order they were added, whether active today or not
+    List<Promotion> getPromotions();
+
+    // Stores a promotion and returns it with its ID, which is assigned unless the promotion already has one
+    Promotion addPromotion(Promotion promotion);
+
+    // Deletes a promotion; returns false if there is none with that ID
+    boolean deletePromotion(int promotionId);
+
+    // Prices a basket under today's promotions, giving the lines to record; see PricingRules.price
+    List<SaleLine> priceBasket(List<InventoryItem> items, List<Integer> quantities);
+
+    // Records a sale and decrements the item's quantity
+    void recordSale(String itemId, int quantitySold, double priceSold, String date);
+
+    // Records several sales, e.g. a checkout basket, as one batch
+    void recordSales(List<SaleLine> sales);
+
+    // Records the sales only if every item has the stock for them, counting sales not yet applied; the check
+    // and the write are atomic against other checked sales. Returns the ID of the first item that falls
+    // short, or null once the sales are recorded.
+    String recordSalesIfInStock(List<SaleLine> sales);
+
+    // Quantity of an item sold but not yet applied to its stock
+    int getPendingSaleQuantity(String itemId);
+
+    // Stock-out forecasts for all items, soonest first
+    List<StockForecast> getStockForecasts();
+
+    // Registers a listener for item changes; listeners must be quick, as they run inside the store's lock
+    void addItemChangeListener(ItemChangeListener listener);
+
+    // Registers a listener run after sales are applied, possibly on a background thread
+    void addSalesListener(Runnable listener);
+
+    LowStockIndex getLowStockIndex();
+
+    StockValuation getStockValuation();
+
+    double getTotalRevenue();
+
+    // Streams monthly revenue for a year (0 for all years), most recent month first; false if the query failed
+    boolean getMonthlyRevenueSummary(int year, Consumer<? super MonthlyRevenue> consumer);
+
+    double getTotalAnnualRevenue(int year);
+
+    // Streams the revenue of every day with sales, oldest first; false if the query failed
+    boolean getDailyRevenue(Consumer<? super DailyRevenue> consumer);
+
+    // Streams a YYYY-MM month's sales in (date, sale ID) order; false if the query failed
+    boolean getIndividualSalesForMonth(String yearMonth, Consumer<? super SaleRecord> consumer);
+
+    // Returns up to limit sales of a month that come after (afterDate, afterSaleId), or null if the query failed
+    List<SaleRecord> getIndividualSalesPage(String yearMonth, String afterDate, int afterSaleId, int limit);
+
+    // Returns { sale count, revenue } for a YYYY-MM month
+    double[] getMonthSalesTotals(String yearMonth);
+
+    // Units per sale and unit price of an item's sales in the YYYY-MM months from..to, merged from monthly sketches
+    SaleDistribution getItemSaleDistribution(String itemId, String fromMonth, String toMonth);
+
+    // The same for the sales made while items were in a category, or for all sales when category is null
+    SaleDistribution getCategorySaleDistribution(String category, String fromMonth, String toMonth);
+
+    void resetRevenue();
+
+    // Deletes a sale and puts its quantity back in stock
+    void deleteSale(int saleId);
+
+    // Stock and unit price of every item at the end of a day, from the movement ledger, by item ID
+    List<StockPosition> getStockAsOf(LocalDate day);
+
+    // Checkpoints the movement ledger if enough movements were recorded since the last snapshot
+    void takeStockSnapshot();
+
+    // Items whose quantity disagrees with the movement ledger
+    List<StockDrift> checkStockConsistency();
+
+    // Registers a listener for drift found by the background ledger check, called on its thread
+    void addStockDriftListener(Consumer<List<StockDrift>> listener);
+
+    // Returns the user's role, or null if the credentials are wrong
+    String authenticate(String username, String password);
+}
+
+// Listener bookkeeping, the low-stock index and sales velocities shared by every store
+abstract class AbstractInventoryStore implements InventoryStore {
+    final List<Runnable> salesListeners = new CopyOnWriteArrayList<>();
+    final List<ItemChangeListener> itemListeners = new CopyOnWriteArrayList<>();
+    final LowStockIndex lowStockIndex = new LowStockIndex();
+    final StockValuation stockValuation = new StockValuation();
+    final Map<String, SalesVelocity> velocities = new HashMap<>(); // Committed velocity of each item
+    private volatile AuditLog auditLog; // When attached, every mutation is recorded to it
+    final List<Consumer<List<StockDrift>>> driftListeners = new CopyOnWriteArrayList<>();
+    final List<BackgroundWorkListener> backgroundListeners = new CopyOnWriteArrayList<>();
+    // Committed sale sketches by (kind, key), each by YYYY-MM month
+    final Map<List<String>, TreeMap<String, SaleDistribution>> saleSketches = new HashMap<>();
+    private volatile PricingRules pricingRules; // Today's promotions compiled, or null once they change
+
+    // Kinds of stock movement in the ledger
+    static final String OPENING = "OPENING"; // Item added with its initial stock
+    static final String RESTOCK = "RESTOCK"; // Quantity raised by an edit
+    static final String ADJUSTMENT = "ADJUSTMENT"; // Quantity lowered by an edit
+    static final String REPRICE = "REPRICE"; // Price changed, quantity unchanged
+    static final String SALE = "SALE";
+    static final String SALE_DELETE = "SALE_DELETE"; // Sale deleted, its quantity returned to stock
+    static final String REMOVAL = "REMOVAL"; // Item deleted with whatever stock it had
+
+    // Snapshot the ledger once this many movements accumulate, bounding point-in-time replays
+    static final int SNAPSHOT_INTERVAL = 1000;
+
+    // Kinds of sale sketch, each kept per key and month
+    static final String ITEM_SKETCH = "item"; // Keyed by item ID
+    static final String CATEGORY_SKETCH = "category"; // Keyed by the item's category when it sold
+    static final String ALL_SKETCH = "all"; // Every sale, under the empty key
+
+    AbstractInventoryStore() {
+        itemListeners.add(lowStockIndex);
+        itemListeners.add(stockValuation);
+    }
+
+    @Override
+    public void addItemChangeListener(ItemChangeListener listener) {
+        itemListeners.add(listener);
+    }
+
+    @Override
+    public void addSalesListener(Runnable listener) {
+        salesListeners.add(listener);
+    }
+
+    @Override
+    public LowStockIndex getLowStockIndex() {
+        return lowStockIndex;
+    }
+
+    @Override
+    public StockValuation getStockValuation() {
+        return stockValuation;
+    }
+
+    @Override
+    public void addStockDriftListener(Consumer<List<StockDrift>> listener) {
+        driftListeners.add(listener);
+    }
+
+    public void addBackgroundWorkListener(BackgroundWorkListener listener) {
+        backgroundListeners.add(listener);
+    }
+
+    // Runs database work on one of the app's own threads, in a store call event, and tells the background
+    // work listeners about it
+    void background(String operation, SqlWork work, Object... args) throws SQLException {
+        StoreCallEvent event = new StoreCallEvent();
+        event.begin();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            work.run();
+            failed = false;
+        } finally {
+            long duration = System.nanoTime() - start;
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.failed = failed;
+                event.commit();
+            }
+            for (BackgroundWorkListener listener : backgroundListeners) {
+                listener.workDone(operation, start, duration, failed, args);
+            }
+        }
+    }
+
+    // Every intervalMinutes, snapshots the ledger if due and checks it and the stock valuation against the
+    // items, on a daemon thread
+    public void startLedgerChecks(long intervalMinutes) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "RevUp-StockLedger");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                background("takeStockSnapshot", this::takeStockSnapshot);
+                List<StockDrift> drift = new ArrayList<>();
+                background("checkStockConsistency", () -> drift.addAll(checkStockConsistency()));
+                if (!drift.isEmpty()) {
+                    System.err.println("Stock ledger drift: " + drift);
+                    for (Consumer<List<StockDrift>> listener : driftListeners) {
+                        listener.accept(drift);
+                    }
+                }
+                background("verifyStockValuation", this::verifyStockValuation);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Recounts the stock value from every item and compares it with the
+     * incrementally kept valuation, which is reset from the items if they
+     * disagree. Item changes notify listeners with the store's lock held, so
+     * holding it for the recount means none can fall in between.
+     * 
+     * @return True if the kept valuation was exact.
+     */
+    public synchronized boolean verifyStockValuation() {
+        StockValuation recount = new StockValuation();
+        getAllItems(item -> recount.itemChanged(null, item));
+        if (recount.getTotalCents() == stockValuation.getTotalCents()
+                && recount.getCategoryCents().equals(stockValuation.getCategoryCents()))
+            return true;
+        System.err.println("Stock valuation drift: kept " + stockValuation.getCategoryCents() + ", recounted "
+                + recount.getCategoryCents() + " (centavos); reset from the items");
+        List<InventoryItem> items = new ArrayList<>();
+        getAllItems(items::add);
+        stockValuation.itemsReset(items);
+        return false;
+    }
+
+    // Records every further mutation to the given change log
+    public void attachAuditLog(AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    boolean isAudited() {
+        return auditLog != null;
+    }
+
+    void audit(String op, Object... fields) {
+        AuditLog log = auditLog;
+        if (log != null)
+            log.record(op, fields);
+    }
+
+    // Records an item mutation with the item's fields, followed by its previous fields if given
+    void auditItem(String op, InventoryItem item, InventoryItem before) {
+        AuditLog log = auditLog;
+        if (log == null)
+            return;
+        if (before == null) {
+            log.record(op, item.id, item.name, item.quantity, item.price, item.category, item.reorderThreshold);
+        } else {
+            log.record(op, item.id, item.name, item.quantity, item.price, item.category, item.reorderThreshold,
+                    before.id, before.name, before.quantity, before.price, before.category, before.reorderThreshold);
+        }
+    }
+
+    @Override
+    public List<SaleLine> priceBasket(List<InventoryItem> items, List<Integer> quantities) {
+        LocalDate today = LocalDate.now();
+        PricingRules rules = pricingRules;
+        if (rules == null || !rules.day.equals(today)) {
+            // Compiled under the store's lock, so a promotion change can't slip in between reading and caching
+            synchronized (this) {
+                rules = PricingRules.compile(getPromotions(), today);
+                pricingRules = rules;
+            }
+        }
+        return rules.price(items, quantities, today.toString());
+    }
+
+    // Drops the compiled promotions; called with the store's lock held after any change to them
+    void promotionsChanged() {
+        pricingRules = null;
+    }
+
+    // Records a stored promotion with its ID, so a replay gives it the same one
+    void auditPromotion(Promotion promotion) {
+        if (!isAudited())
+            return;
+        List<Object> fields = new ArrayList<>(List.of(promotion.promotionId, promotion.kind, promotion.amount,
+                promotion.buy, promotion.free, promotion.starts, promotion.ends));
+        fields.add(2, promotion.category); // May be null, which List.of refuses
+        fields.addAll(promotion.itemIds);
+        audit("PROMOTION_ADD", fields.toArray());
+    }
+
+    void fireItemChanged(InventoryItem before, InventoryItem after) {
+        for (ItemChangeListener listener : itemListeners) {
+            listener.itemChanged(before, after);
+        }
+    }
+
+    void fireItemsChanged(List<InventoryItem> before, List<InventoryItem> after) {
+        if (before.isEmpty())
+            return;
+        for (ItemChangeListener listener : itemListeners) {
+            listener.itemsChanged(before, after);
+        }
+    }
+
+    // Audits a batch of changes as the single-item updates and deletes they amount to, so replay needs nothing new
+    void auditItems(List<InventoryItem> before, List<InventoryItem> after) {
+        for (int i = 0; i < before.size() && isAudited(); i++) {
+            if (after.get(i) == null)
+                auditItem("ITEM_DELETE", before.get(i), null);
+            else
+                auditItem("ITEM_UPDATE", after.get(i), before.get(i));
+        }
+    }
+
+    void fireItemsReset(List<InventoryItem> items) {
+        for (ItemChangeListener listener : itemListeners) {
+            listener.itemsReset(items);
+        }
+    }
+
+    void fireSalesApplied() {
+        for (Runnable listener : salesListeners) {
+            listener.run();
+        }
+    }
+
+    // Folds a sale into the pending velocity updates, starting from the committed state; O(1)
+    void advanceVelocity(Map<String, SalesVelocity> updates, String itemId, String date, int quantity) {
+        long day;
+        try {
+            day = LocalDate.parse(date).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return; // Not a calendar date, so it can't be placed on the daily series
+        }
+        SalesVelocity current = updates.containsKey(itemId) ? updates.get(itemId) : velocities.get(itemId);
+        updates.put(itemId, SalesVelocity.record(current, day, quantity));
+    }
+
+    /**
+     * Folds a sale into the pending sketch updates of its item, its category and
+     * all sales for the sale's month, copying each committed sketch on first touch
+     * so nothing changes until the caller commits. O(1) per sale.
+     * 
+     * @param updates  Pending sketches by (kind, key, month).
+     * @param category The item's current category, or null for none.
+     * @param remove   True to take a deleted sale back out.
+     */
+    void advanceSketches(Map<List<String>, SaleDistribution> updates, String itemId, String category, String date,
+            int quantity, double price, boolean remove) {
+        String month;
+        try {
+            month = YearMonth.from(LocalDate.parse(date)).toString();
+        } catch (DateTimeParseException e) {
+            return; // Not a calendar date, so it has no month
+        }
+        List<List<String>> keys = new ArrayList<>(3);
+        keys.add(List.of(ITEM_SKETCH, itemId, month));
+        if (category != null)
+            keys.add(List.of(CATEGORY_SKETCH, category, month));
+        keys.add(List.of(ALL_SKETCH, "", month));
+        for (List<String> key : keys) {
+            SaleDistribution sketch = updates.get(key);
+            if (sketch == null) {
+                TreeMap<String, SaleDistribution> months = saleSketches.get(key.subList(0, 2));
+                SaleDistribution committed = months == null ? null : months.get(month);
+                sketch = committed == null ? new SaleDistribution() : committed.copy();
+                updates.put(key, sketch);
+            }
+            if (remove)
+                sketch.remove(quantity, price);
+            else
+                sketch.add(quantity, price);
+        }
+    }
+
+    // Makes the pending sketch updates the committed ones
+    void commitSketches(Map<List<String>, SaleDistribution> updates) {
+        for (Map.Entry<List<String>, SaleDistribution> update : updates.entrySet()) {
+            List<String> key = update.getKey();
+            saleSketches.computeIfAbsent(key.subList(0, 2), k -> new TreeMap<>()).put(key.get(2), update.getValue());
+        }
+    }
+
+    // Moves a category's sketches to its new name
+    void renameCategorySketches(String name, String newName) {
+        TreeMap<String, SaleDistribution> months = saleSketches.remove(List.of(CATEGORY_SKETCH, name));
+        if (months != null)
+            saleSketches.put(List.of(CATEGORY_SKETCH, newName), months);
+    }
+
+    @Override
+    public synchronized SaleDistribution getItemSaleDistribution(String itemId, String fromMonth, String toMonth) {
+        return mergeSketches(List.of(ITEM_SKETCH, itemId), fromMonth, toMonth);
+    }
+
+    @Override
+    public synchronized SaleDistribution getCategorySaleDistribution(String category, String fromMonth,
+            String toMonth) {
+        return mergeSketches(category == null ? List.of(ALL_SKETCH, "") : List.of(CATEGORY_SKETCH, category),
+                fromMonth, toMonth);
+    }
+
+    // Merges the monthly sketches of one key over an inclusive range of YYYY-MM months
+    private SaleDistribution mergeSketches(List<String> key, String fromMonth, String toMonth) {
+        SaleDistribution merged = new SaleDistribution();
+        TreeMap<String, SaleDistribution> months = saleSketches.get(key);
+        if (months != null) {
+            for (SaleDistribution month : months.subMap(fromMonth, true, toMonth, true).values()) {
+                merged.merge(month);
+            }
+        }
+        return merged;
+    }
+
+    // The first item the sales need more of than is available, or null if there is enough of every one.
+    // Pending sales are read before the stock: a journaled sale is committed to stock before it stops
+    // being pending, so one applied in between is counted twice rather than missed.
+    String firstShortItem(List<SaleLine> sales) {
+        Map<String, Integer> needed = new LinkedHashMap<>();
+        for (SaleLine sale : sales) {
+            needed.merge(sale.itemId, sale.quantity, Integer::sum);
+        }
+        for (Map.Entry<String, Integer> line : needed.entrySet()) {
+            int pending = getPendingSaleQuantity(line.getKey());
+            InventoryItem item = getItem(line.getKey());
+            if (item == null || line.getValue() > item.quantity - pending)
+                return line.getKey();
+        }
+        return null;
+    }
+
+    // Forecasts the given items from the in-memory velocities, soonest stock-out first
+    List<StockForecast> forecast(List<InventoryItem> items) {
+        List<StockForecast> forecasts = new ArrayList<>();
+        long today = LocalDate.now().toEpochDay();
+        for (InventoryItem item : items) {
+            forecasts.add(new StockForecast(item, velocities.get(item.id), today));
+        }
+        forecasts.sort(Comparator.comparingDouble(f -> f.daysLeft));
+        return forecasts;
+    }
+
+    // Running stock of one item while replaying the movement ledger
+    static final class StockLevel {
+        int quantity;
+        double price;
+
+        StockLevel(int quantity, double price) {
+            this.quantity = quantity;
+            this.price = price;
+        }
+    }
+
+    // The ledger movement for an edit, or null if neither quantity nor price changed
+    static String editKind(InventoryItem before, InventoryItem after) {
+        if (after.quantity > before.quantity)
+            return RESTOCK;
+        if (after.quantity < before.quantity)
+            return ADJUSTMENT;
+        return after.price != before.price ? REPRICE : null;
+    }
+
+    // Applies one movement to the running stock levels; a removal drops the item
+    static void applyMovement(Map<String, StockLevel> levels, String itemId, String kind, int delta, double price) {
+        if (kind.equals(REMOVAL)) {
+            levels.remove(itemId);
+            return;
+        }
+        StockLevel level = levels.computeIfAbsent(itemId, id -> new StockLevel(0, price));
+        level.quantity += delta;
+        level.price = price;
+    }
+
+    // The stock levels as positions named after the current items, by item ID
+    List<StockPosition> toPositions(Map<String, StockLevel> levels) {
+        List<StockPosition> positions = new ArrayList<>(levels.size());
+        for (Map.Entry<String, StockLevel> level : new TreeMap<>(levels).entrySet()) {
+            InventoryItem current = lowStockIndex.get(level.getKey());
+            positions.add(new StockPosition(level.getKey(), current == null ? null : current.name,
+                    level.getValue().quantity, level.getValue().price));
+        }
+        return positions;
+    }
+
+    // Items whose quantity differs between the replayed ledger and the items themselves
+    static List<StockDrift> findDrift(Map<String, StockLevel> ledger, List<InventoryItem> items) {
+        List<StockDrift> drift = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (InventoryItem item : items) {
+            seen.add(item.id);
+            StockLevel level = ledger.get(item.id);
+            if (level == null || level.quantity != item.quantity)
+                drift.add(new StockDrift(item.id, level == null ? 0 : level.quantity, item.quantity));
+        }
+        for (Map.Entry<String, StockLevel> level : ledger.entrySet()) {
+            if (!seen.contains(level.getKey()))
+                drift.add(new StockDrift(level.getKey(), level.getValue().quantity, 0));
+        }
+        return drift;
+    }
+
+    // Exclusive upper bound of a YYYY-MM month for range comparisons on ISO dates
+    static String nextMonth(String yearMonth) {
+        return YearMonth.parse(yearMonth).plusMonths(1).toString();
+    }
+}
+
+// Manages all database interactions
+class DatabaseManager extends AbstractInventoryStore {
+    static final String DB_PATH = "RevUp.db";
+    private static final int FETCH_SIZE = 256; // Rows per fetch for streaming queries
+    // Items with their category name decoded from the categories dictionary
+    private static final String ITEM_SELECT = "SELECT items.*, categories.name AS category FROM items "
+            + "LEFT JOIN categories USING (category_id)";
+    // Bytes of the database file a viewer connection reads through memory mapping
+    static final long VIEWER_MMAP_BYTES = 256L << 20;
+    private static final String ALL_DAYS = "9999-12-31"; // Later than any movement's day
+
+    private Connection conn;
+    private SaleJournal journal; // When attached, sales are acknowledged from the journal and applied later
+    private volatile boolean sketchesStale; // Set on a viewer when the primary store commits sales
+    private volatile boolean velocitiesStale; // Likewise; the viewer reloads them on its own next read
+    // Serializes checked sales. Separate from the store lock, since a journal append may wait for the
+    // writer thread, which needs the store lock to drain.
+    private final Object saleAdmission = new Object();
+    private final String path; // Database file
+
+    public DatabaseManager() {
+        this(DB_PATH);
+    }
+
+    // Opens or creates the database at another path, e.g. a copy for replaying a workload trace
+    public DatabaseManager(String path) {
+        this.path = path;
+        try {
+            // Establish connection to SQLite database
+            conn = DriverManager.getConnection("jdbc:sqlite:" + path);
+            createSchema();
+
+            // Build the in-memory indexes once; they are kept current from item change events afterwards
+            fireItemsReset(loadAllItems());
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Opens the existing database with the given connection settings, leaving the schema alone
+    private DatabaseManager(String path, SQLiteConfig config, boolean queryOnly) throws SQLException {
+        this.path = path;
+        conn = config.createConnection("jdbc:sqlite:" + path);
+        if (queryOnly) {
+            try (Statement stmt = createStatement()) {
+                stmt.execute("PRAGMA query_only = ON");
+            }
+        }
+        loadVelocities();
+        loadSketches();
+        fireItemsReset(loadAllItems());
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * Opens a read-only store for a viewer session on its own connection and lock,
+     * so browsing never waits on the primary store's writes. The connection is
+     * opened read-only and query-only, so any write fails in SQLite itself, and it
+     * reads through memory-mapped I/O. Item, sales and drift notifications from the
+     * primary store are passed on to the viewer's own listeners and indexes.
+     * 
+     * @param primary The read-write store that cashiers and admins use.
+     * @return A store whose mutations all fail.
+     * @throws SQLException If the database cannot be opened.
+     */
+    static DatabaseManager openViewer(DatabaseManager primary) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(VIEWER_MMAP_BYTES));
+        DatabaseManager viewer = new DatabaseManager(primary.path, config, true);
+        primary.addItemChangeListener(new ItemChangeListener() {
+            @Override
+            public void itemChanged(InventoryItem before, InventoryItem after) {
+                viewer.fireItemChanged(before, after);
+            }
+
+            @Override
+            public void itemsChanged(List<InventoryItem> before, List<InventoryItem> after) {
+                viewer.fireItemsChanged(before, after);
+            }
+
+            @Override
+            public void itemsReset(List<InventoryItem> items) {
+                // Runs under the primary's lock, so nothing here may wait for the viewer's
+                viewer.velocitiesStale = true;
+                viewer.sketchesStale = true;
+                viewer.fireItemsReset(items);
+            }
+        });
+        primary.addSalesListener(() -> {
+            // Reloaded when next asked for, as that is rarer than sales, and without the primary waiting
+            // on a viewer query
+            viewer.velocitiesStale = true;
+            viewer.sketchesStale = true;
+            viewer.fireSalesApplied();
+        });
+        primary.addStockDriftListener(drift -> {
+            for (Consumer<List<StockDrift>> listener : viewer.driftListeners) {
+                listener.accept(drift);
+            }
+        });
+        return viewer;
+    }
+
+    // Creates missing tables and columns, so databases and backups from older versions keep working
+    private void createSchema() throws SQLException {
+        try (Statement stmt = createStatement()) {
+            // Incremental auto-vacuum lets idle maintenance hand freed pages back in small steps. A new
+            // file takes the setting directly; an existing one needs a one-time VACUUM to convert.
+            if (queryLong(stmt, "PRAGMA auto_vacuum") != 2) {
+                stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                if (queryLong(stmt, "SELECT COUNT(*) FROM sqlite_master") > 0)
+                    stmt.execute("VACUUM");
+            }
+            // Write-ahead logging lets background readers (e.g. backups) run without blocking sales
+            stmt.execute("PRAGMA journal_mode=WAL");
+            // Cut the WAL file back to 4 MB whenever it restarts, so one large batch doesn't leave it big
+            stmt.execute("PRAGMA journal_size_limit = " + (4 << 20));
+            // Category names, stored once and referenced from items by key
+            boolean categoriesExist;
+            try (ResultSet rs = stmt
+                    .executeQuery("SELECT 1 FROM sqlite_master WHERE type='table' AND name='categories'")) {
+                categoriesExist = rs.next();
+            }
+            stmt.execute("CREATE TABLE IF NOT EXISTS categories (category_id INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE)");
+            if (!categoriesExist) {
+                stmt.execute("INSERT INTO categories (name) VALUES ('Electronics'), ('Clothing'), ('Furniture'), ('Other')");
+            }
+            // Create items table if it doesn't exist
+            stmt.execute("CREATE TABLE IF NOT EXISTS items (id TEXT PRIMARY KEY, name TEXT, quantity INTEGER, price REAL, "
+                    + "category_id INTEGER REFERENCES categories (category_id))");
+            if (hasColumn(stmt, "items", "category")) {
+                // Databases from before the dictionary repeat the category name in every row
+                inTransaction(() -> {
+                    stmt.execute("INSERT OR IGNORE INTO categories (name) "
+                            + "SELECT DISTINCT category FROM items WHERE category IS NOT NULL ORDER BY category");
+                    addColumnIfMissing(stmt, "items", "category_id", "INTEGER REFERENCES categories (category_id)");
+                    stmt.execute("UPDATE items SET category_id = "
+                            + "(SELECT category_id FROM categories WHERE categories.name = items.category)");
+                    stmt.execute("ALTER TABLE items DROP COLUMN category");
+                });
+            }
+            // Category filters become index lookups
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_items_category ON items (category_id)");
+            // Per-item reorder threshold, added to databases created before it existed
+            addColumnIfMissing(stmt, "items", "reorder_threshold",
+                    "INTEGER NOT NULL DEFAULT " + InventoryItem.DEFAULT_REORDER_THRESHOLD);
+            // Create sales table if it doesn't exist
+            stmt.execute(
+                    "CREATE TABLE IF NOT EXISTS sales (sale_id INTEGER PRIMARY KEY AUTOINCREMENT, item_id TEXT, quantity_sold INTEGER, price_sold REAL, date TEXT)");
+            // Create users table if it doesn't exist
+            stmt.execute("CREATE TABLE IF NOT EXISTS users (username TEXT PRIMARY KEY, password TEXT, role TEXT)");
+            // Lets month ranges and keyset pages over (date, sale_id) be answered from the index
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_sales_date_id ON sales (date, sale_id)");
+            // Sequence number of the last journaled sale applied to the tables, for exactly-once replay
+            stmt.execute("CREATE TABLE IF NOT EXISTS journal_state (id INTEGER PRIMARY KEY CHECK (id = 0), applied_seq INTEGER)");
+            stmt.execute("INSERT OR IGNORE INTO journal_state VALUES (0, 0)");
+            // Byte offset each external sale log has been applied up to, for exactly-once ingestion, and the CRC-32
+            // of the log's first bytes up to there, which tells a log that grew from a new one of the same name
+            stmt.execute("CREATE TABLE IF NOT EXISTS ingest_offsets (file TEXT PRIMARY KEY, byte_offset INTEGER NOT NULL)");
+            addColumnIfMissing(stmt, "ingest_offsets", "head_crc", "INTEGER");
+            // Per-item sales velocity, maintained incrementally by every sale
+            boolean velocityExists;
+            try (ResultSet rs = stmt
+                    .executeQuery("SELECT 1 FROM sqlite_master WHERE type='table' AND name='item_velocity'")) {
+                velocityExists = rs.next();
+            }
+            stmt.execute(
+                    "CREATE TABLE IF NOT EXISTS item_velocity (item_id TEXT PRIMARY KEY, day INTEGER, day_units INTEGER, average REAL)");
+            if (!velocityExists) {
+                backfillVelocities();
+            }
+            loadVelocities();
+            // Quantile sketches of units per sale and unit price, per item, category and month
+            boolean sketchesExist;
+            try (ResultSet rs = stmt
+                    .executeQuery("SELECT 1 FROM sqlite_master WHERE type='table' AND name='sale_sketches'")) {
+                sketchesExist = rs.next();
+            }
+            stmt.execute("CREATE TABLE IF NOT EXISTS sale_sketches (kind TEXT NOT NULL, key TEXT NOT NULL, "
+                    + "month TEXT NOT NULL, quantities BLOB NOT NULL, prices BLOB NOT NULL, "
+                    + "PRIMARY KEY (kind, key, month)) WITHOUT ROWID");
+            saleSketches.clear();
+            if (!sketchesExist) {
+                backfillSketches();
+            }
+            loadSketches();
+            // Every change to an item's stock, in the order it was recorded; day is the local date it counts on,
+            // which for a sale is the sale's own date, so back-dated sales put days out of order
+            boolean ledgerExists;
+            try (ResultSet rs = stmt
+                    .executeQuery("SELECT 1 FROM sqlite_master WHERE type='table' AND name='stock_movements'")) {
+                ledgerExists = rs.next();
+            }
+            stmt.execute("CREATE TABLE IF NOT EXISTS stock_movements (movement_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "item_id TEXT NOT NULL, kind TEXT NOT NULL, delta INTEGER NOT NULL, price REAL, day TEXT NOT NULL, sale_id INTEGER)");
+            // Finds the movements dated up to a past day without reading the ones recorded since
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_movements_day ON stock_movements (day)");
+            // Ledger checkpoints: the stock of every item after movement last_movement_id, and the latest day of
+            // the movements up to it
+            stmt.execute("CREATE TABLE IF NOT EXISTS stock_snapshots (snapshot_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "taken_at TEXT NOT NULL, last_movement_id INTEGER NOT NULL UNIQUE, last_day TEXT)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS stock_snapshot_items (snapshot_id INTEGER NOT NULL, "
+                    + "item_id TEXT NOT NULL, quantity INTEGER NOT NULL, price REAL, PRIMARY KEY (snapshot_id, item_id))");
+            if (!hasColumn(stmt, "stock_snapshots", "last_day")) {
+                // Snapshots from before last_day filed most of their items under the wrong snapshot ID. They are
+                // only checkpoints of the ledger, so they are dropped and taken again.
+                stmt.execute("DELETE FROM stock_snapshot_items");
+                stmt.execute("DELETE FROM stock_snapshots");
+                stmt.execute("ALTER TABLE stock_snapshots ADD COLUMN last_day TEXT");
+            }
+            if (!ledgerExists) {
+                // Existing stock becomes the opening balance; earlier history was never recorded
+                try (PreparedStatement open = prepareStatement("INSERT INTO stock_movements "
+                        + "(item_id, kind, delta, price, day) SELECT id, ?, quantity, price, ? FROM items")) {
+                    open.setString(1, OPENING);
+                    open.setString(2, LocalDate.now().toString());
+                    open.executeUpdate();
+                }
+            }
+            // Checkout promotions; a percent off refers to its category by key, so it follows renames
+            stmt.execute("CREATE TABLE IF NOT EXISTS promotions (promotion_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "kind TEXT NOT NULL, category_id INTEGER REFERENCES categories (category_id), amount REAL NOT NULL, "
+                    + "buy INTEGER NOT NULL, free INTEGER NOT NULL, starts TEXT NOT NULL, ends TEXT NOT NULL)");
+            // The item of a buy-N-get-M, or the items of a bundle in the order they were given
+            stmt.execute("CREATE TABLE IF NOT EXISTS promotion_items (promotion_id INTEGER NOT NULL, "
+                    + "position INTEGER NOT NULL, item_id TEXT NOT NULL, PRIMARY KEY (promotion_id, position)) WITHOUT ROWID");
+            // Insert default users if they don't already exist
+            stmt.execute("INSERT OR IGNORE INTO users VALUES ('admin', 'admin123', 'admin')");
+            stmt.execute("INSERT OR IGNORE INTO users VALUES ('staff', 'staff123', 'staff')");
+            stmt.execute("INSERT OR IGNORE INTO users VALUES ('viewer', 'viewer123', 'viewer')");
+        }
+    }
+
+    private static long queryLong(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static boolean hasColumn(Statement stmt, String table, String column) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (rs.getString("name").equalsIgnoreCase(column))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    // Adds a column to an existing table unless it is already there
+    private static void addColumnIfMissing(Statement stmt, String table, String column, String definition)
+            throws SQLException {
+        if (!hasColumn(stmt, table, column))
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+    }
+
+    // Key of a category name, adding it to the dictionary if it is new; null for no category
+    private Integer categoryId(String name) throws SQLException {
+        if (name == null)
+            return null;
+        try (PreparedStatement insert = prepareStatement("INSERT OR IGNORE INTO categories (name) VALUES (?)");
+                PreparedStatement select = prepareStatement("SELECT category_id FROM categories WHERE name = ?")) {
+            insert.setString(1, name);
+            insert.executeUpdate();
+            select.setString(1, name);
+            try (ResultSet rs = select.executeQuery()) {
+                rs.next();
+                return rs.getInt("category_id");
+            }
+        }
+    }
+
+    private static void setCategoryId(PreparedStatement stmt, int index, Integer categoryId) throws SQLException {
+        if (categoryId == null)
+            stmt.setNull(index, Types.INTEGER);
+        else
+            stmt.setInt(index, categoryId);
+    }
+
+    private static InventoryItem readItem(ResultSet rs) throws SQLException {
+        return new InventoryItem(rs.getString("id"), rs.getString("name"), rs.getInt("quantity"),
+                rs.getDouble("price"), rs.getString("category"), rs.getInt("reorder_threshold"));
+    }
+
+    private List<InventoryItem> loadAllItems() throws SQLException {
+        List<InventoryItem> items = new ArrayList<>();
+        query(ITEM_SELECT, stmt -> {
+        }, DatabaseManager::readItem, items::add);
+        return items;
+    }
+
+    // Looks up a single item by ID, or returns null if there is none
+    @Override
+    public synchronized InventoryItem getItem(String id) {
+        try (PreparedStatement stmt = prepareStatement(ITEM_SELECT + " WHERE id=?")) {
+            stmt.setString(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? readItem(rs) : null;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Adds a new item to the database
+    @Override
+    public synchronized void addItem(InventoryItem item) {
+        try (PreparedStatement stmt = prepareStatement(
+                "INSERT INTO items (id, name, quantity, price, category_id, reorder_threshold) VALUES (?, ?, ?, ?, ?, ?)")) {
+            stmt.setString(1, item.id);
+            stmt.setString(2, item.name);
+            stmt.setInt(3, item.quantity);
+            stmt.setDouble(4, item.price);
+            stmt.setInt(6, item.reorderThreshold);
+            inTransaction(() -> {
+                setCategoryId(stmt, 5, categoryId(item.category));
+                stmt.executeUpdate();
+                insertMovement(item.id, OPENING, item.quantity, item.price, LocalDate.now().toString(), 0);
+            });
+            fireItemChanged(null, item);
+            auditItem("ITEM_ADD", item, null);
+        } catch (SQLException e) {
+            // Show error if ID already exists (primary key constraint violation)
+            JOptionPane.showMessageDialog(null, "ID already exists.");
+        }
+    }
+
+    // The store's statements, traced while a flight recording enables SqlStatementEvent
+    private Statement createStatement() throws SQLException {
+        return SqlStatementTracing.createStatement(conn);
+    }
+
+    private PreparedStatement prepareStatement(String sql) throws SQLException {
+        return SqlStatementTracing.prepareStatement(conn, sql);
+    }
+
+    // Runs the work in one transaction, rolling it back if it fails
+    private void inTransaction(SqlWork work) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            work.run();
+            SqlStatementTracing.commit(conn);
+        } catch (SQLException e) {
+            SqlStatementTracing.rollback(conn);
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    // Appends a movement to the stock ledger, counted on the given YYYY-MM-DD day; saleId 0 means it has no sale
+    private void insertMovement(String itemId, String kind, int delta, double price, String day, long saleId)
+            throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(
+                "INSERT INTO stock_movements (item_id, kind, delta, price, day, sale_id) VALUES (?, ?, ?, ?, ?, ?)")) {
+            stmt.setString(1, itemId);
+            stmt.setString(2, kind);
+            stmt.setInt(3, delta);
+            stmt.setDouble(4, price);
+            stmt.setString(5, day);
+            if (saleId > 0)
+                stmt.setLong(6, saleId);
+            else
+                stmt.setNull(6, Types.INTEGER);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Updates an existing item in the database
+    @Override
+    public synchronized void updateItem(InventoryItem item) {
+        InventoryItem before = getItem(item.id);
+        try (PreparedStatement stmt = prepareStatement(
+                "UPDATE items SET name=?, quantity=?, price=?, category_id=?, reorder_threshold=? WHERE id=?")) {
+            stmt.setString(1, item.name);
+            stmt.setInt(2, item.quantity);
+            stmt.setDouble(3, item.price);
+            stmt.setInt(5, item.reorderThreshold);
+            stmt.setString(6, item.id);
+            boolean[] updated = { false };
+            inTransaction(() -> {
+                setCategoryId(stmt, 4, categoryId(item.category));
+                updated[0] = stmt.executeUpdate() > 0;
+                String kind = updated[0] ? editKind(before, item) : null;
+                if (kind != null)
+                    insertMovement(item.id, kind, item.quantity - before.quantity, item.price,
+                            LocalDate.now().toString(), 0);
+            });
+            if (updated[0]) {
+                fireItemChanged(before, item);
+                auditItem("ITEM_UPDATE", item, before);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Deletes an item from the database by ID
+    @Override
+    public synchronized void deleteItem(String id) {
+        InventoryItem before = getItem(id);
+        try (PreparedStatement stmt = prepareStatement("DELETE FROM items WHERE id=?");
+                PreparedStatement velocity = prepareStatement("DELETE FROM item_velocity WHERE item_id=?")) {
+            stmt.setString(1, id);
+            boolean[] deleted = { false };
+            inTransaction(() -> {
+                deleted[0] = stmt.executeUpdate() > 0;
+                if (deleted[0])
+                    insertMovement(id, REMOVAL, -before.quantity, before.price, LocalDate.now().toString(), 0);
+                velocity.setString(1, id);
+                velocity.executeUpdate();
+            });
+            velocities.remove(id);
+            if (deleted[0]) {
+                fireItemChanged(before, null);
+                auditItem("ITEM_DELETE", before, null);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized int repriceItems(Collection<String> ids, double percent) {
+        return bulkChange(ids, () -> {
+            try (PreparedStatement stmt = prepareStatement(
+                    "UPDATE items SET price = ROUND(price * ?, 2) WHERE id IN (SELECT id FROM bulk_ids)")) {
+                stmt.setDouble(1, 1 + percent / 100);
+                stmt.executeUpdate();
+            }
+        });
+    }
+
+    @Override
+    public synchronized int setItemsCategory(Collection<String> ids, String category) {
+        return bulkChange(ids, () -> {
+            try (PreparedStatement stmt = prepareStatement(
+                    "UPDATE items SET category_id = ? WHERE id IN (SELECT id FROM bulk_ids)")) {
+                setCategoryId(stmt, 1, categoryId(category));
+                stmt.executeUpdate();
+            }
+        });
+    }
+
+    @Override
+    public synchronized int restockItems(Collection<String> ids, int delta) {
+        return bulkChange(ids, () -> {
+            try (PreparedStatement stmt = prepareStatement(
+                    "UPDATE items SET quantity = MAX(0, quantity + ?) WHERE id IN (SELECT id FROM bulk_ids)")) {
+                stmt.setInt(1, delta);
+                stmt.executeUpdate();
+            }
+        });
+    }
+
+    @Override
+    public synchronized int deleteItems(Collection<String> ids) {
+        int deleted = bulkChange(ids, () -> {
+            try (Statement stmt = createStatement()) {
+                stmt.executeUpdate("DELETE FROM items WHERE id IN (SELECT id FROM bulk_ids)");
+                stmt.executeUpdate("DELETE FROM item_velocity WHERE item_id IN (SELECT id FROM bulk_ids)");
+            }
+        });
+        velocities.keySet().removeAll(ids);
+        return deleted;
+    }
+
+    /**
+     * Streams the deltas into the temporary table stock_deltas and applies them
+     * with one set-based update, together with their ledger movements, in one
+     * transaction. The changed items are then reported from that table a page at
+     * a time, so memory stays bounded however many items the count corrects.
+     * 
+     * @param deltas File of "itemId<TAB>delta" lines; unknown IDs are skipped.
+     * @return How many items changed; 0 if the file could not be read or the
+     *         change failed and was rolled back.
+     */
+    @Override
+    public synchronized int adjustStock(Path deltas) {
+        try (Statement stmt = createStatement()) {
+            stmt.execute("CREATE TEMP TABLE IF NOT EXISTS stock_deltas (id TEXT PRIMARY KEY, delta INTEGER NOT NULL)");
+            try (CycleCount.EntryReader in = new CycleCount.EntryReader(deltas);
+                    PreparedStatement insert = prepareStatement("INSERT INTO stock_deltas (id, delta) VALUES (?, ?) "
+                            + "ON CONFLICT (id) DO UPDATE SET delta = delta + excluded.delta");
+                    PreparedStatement movements = prepareStatement("INSERT INTO stock_movements "
+                            + "(item_id, kind, delta, price, day, sale_id) SELECT id, CASE WHEN delta > 0 THEN ? ELSE ? END, "
+                            + "delta, price, ?, NULL FROM stock_deltas JOIN items USING (id) ORDER BY id")) {
+                inTransaction(() -> {
+                    stmt.execute("DELETE FROM stock_deltas");
+                    try {
+                        for (int batched = 1; in.advance(); batched++) {
+                            insert.setString(1, in.id);
+                            insert.setInt(2, in.quantity);
+                            insert.addBatch();
+                            if (batched % CycleCount.PAGE_SIZE == 0)
+                                insert.executeBatch();
+                        }
+                    } catch (IOException e) {
+                        throw new SQLException("Could not read the stock corrections in " + deltas, e);
+                    }
+                    insert.executeBatch();
+                    // Left in the table only what changes an item, so it lists what was adjusted
+                    stmt.executeUpdate("DELETE FROM stock_deltas WHERE delta = 0 OR id NOT IN (SELECT id FROM items)");
+                    movements.setString(1, RESTOCK);
+                    movements.setString(2, ADJUSTMENT);
+                    movements.setString(3, LocalDate.now().toString());
+                    movements.executeUpdate();
+                    stmt.executeUpdate("UPDATE items SET quantity = quantity + "
+                            + "(SELECT delta FROM stock_deltas WHERE stock_deltas.id = items.id) "
+                            + "WHERE id IN (SELECT id FROM stock_deltas)");
+                });
+            }
+            int adjusted = reportAdjusted();
+            stmt.execute("DELETE FROM stock_deltas");
+            return adjusted;
+        } catch (IOException | SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    // Reports the items listed in stock_deltas as changed by their deltas, one page per batch of events
+    private int reportAdjusted() throws SQLException {
+        String select = "SELECT items.*, categories.name AS category, stock_deltas.delta FROM stock_deltas "
+                + "JOIN items USING (id) LEFT JOIN categories USING (category_id) WHERE id > ? ORDER BY id LIMIT ?";
+        int reported = 0;
+        String afterId = "";
+        List<InventoryItem> before = new ArrayList<>(CycleCount.PAGE_SIZE);
+        List<InventoryItem> after = new ArrayList<>(CycleCount.PAGE_SIZE);
+        do {
+            before.clear();
+            after.clear();
+            String cursor = afterId;
+            query(select, s -> {
+                s.setString(1, cursor);
+                s.setInt(2, CycleCount.PAGE_SIZE);
+            }, rs -> Map.entry(readItem(rs), rs.getInt("delta")), adjusted -> {
+                InventoryItem item = adjusted.getKey();
+                before.add(item.withQuantity(item.quantity - adjusted.getValue()));
+                after.add(item);
+            });
+            if (after.isEmpty())
+                break;
+            fireItemsChanged(before, after);
+            auditItems(before, after);
+            reported += after.size();
+            afterId = after.get(after.size() - 1).id;
+        } while (after.size() == CycleCount.PAGE_SIZE);
+        return reported;
+    }
+
+    /**
+     * Applies a set-based change to the items whose IDs are loaded into the
+     * temporary table bulk_ids, in one transaction together with the ledger
+     * movements it amounts to, then reports the items that changed as one batch.
+     * 
+     * @param ids    Items to change; unknown IDs are skipped.
+     * @param change Statements that change the items listed in bulk_ids.
+     * @return How many items changed; 0 if the change failed and was rolled back.
+     */
+    private int bulkChange(Collection<String> ids, SqlWork change) {
+        String select = ITEM_SELECT + " WHERE id IN (SELECT id FROM bulk_ids)";
+        List<InventoryItem> before = new ArrayList<>();
+        List<InventoryItem> after = new ArrayList<>();
+        try (Statement stmt = createStatement()) {
+            stmt.execute("CREATE TEMP TABLE IF NOT EXISTS bulk_ids (id TEXT PRIMARY KEY)");
+            try (PreparedStatement insert = prepareStatement("INSERT OR IGNORE INTO bulk_ids (id) VALUES (?)")) {
+                inTransaction(() -> {
+                    stmt.execute("DELETE FROM bulk_ids");
+                    for (String id : ids) {
+                        insert.setString(1, id);
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                    List<InventoryItem> current = new ArrayList<>();
+                    query(select, s -> {
+                    }, DatabaseManager::readItem, current::add);
+                    change.run();
+                    Map<String, InventoryItem> changed = new HashMap<>();
+                    query(select, s -> {
+                    }, DatabaseManager::readItem, item -> changed.put(item.id, item));
+                    for (InventoryItem item : current) {
+                        InventoryItem updated = changed.get(item.id);
+                        if (updated == null || !updated.sameAs(item)) {
+                            before.add(item);
+                            after.add(updated);
+                        }
+                    }
+                    insertMovements(before, after);
+                    stmt.execute("DELETE FROM bulk_ids");
+                });
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        fireItemsChanged(before, after);
+        auditItems(before, after);
+        return before.size();
+    }
+
+    // Appends the ledger movements of a batch of edits and deletes in one JDBC batch
+    private void insertMovements(List<InventoryItem> before, List<InventoryItem> after) throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(
+                "INSERT INTO stock_movements (item_id, kind, delta, price, day, sale_id) VALUES (?, ?, ?, ?, ?, NULL)")) {
+            String today = LocalDate.now().toString();
+            for (int i = 0; i < before.size(); i++) {
+                InventoryItem from = before.get(i);
+                InventoryItem to = after.get(i);
+                String kind = to == null ? REMOVAL : editKind(from, to);
+                if (kind == null)
+                    continue;
+                stmt.setString(1, from.id);
+                stmt.setString(2, kind);
+                stmt.setInt(3, to == null ? -from.quantity : to.quantity - from.quantity);
+                stmt.setDouble(4, to == null ? from.price : to.price);
+                stmt.setString(5, today);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * Runs a query and hands each mapped row to the consumer. The statement and
+     * result set are always closed before this returns, so no cursor outlives the
+     * call. The consumer runs while the database lock is held and should be quick.
+     */
+    private <T> void query(String sql, StatementBinder binder, RowMapper<T> mapper, Consumer<? super T> consumer)
+            throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(sql)) {
+            stmt.setFetchSize(FETCH_SIZE);
+            binder.bind(stmt);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(mapper.map(rs));
+                }
+            }
+        }
+    }
+
+    // Streams all items to the consumer
+    @Override
+    public synchronized void getAllItems(Consumer<? super InventoryItem> consumer) {
+        try {
+            query(ITEM_SELECT, stmt -> {
+            }, DatabaseManager::readItem, consumer);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Keyset paging on the primary key, so each page is an index range scan and the lock is held per page only
+    @Override
+    public synchronized List<InventoryItem> getItemsPage(String afterId, int limit) {
+        List<InventoryItem> page = new ArrayList<>(limit);
+        try {
+            query(ITEM_SELECT + " WHERE items.id > ? ORDER BY items.id LIMIT ?", stmt -> {
+                stmt.setString(1, afterId);
+                stmt.setInt(2, limit);
+            }, DatabaseManager::readItem, page::add);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return page;
+    }
+
+    // Streams the items whose ID or name contains the keyword, optionally only in one category, to the consumer
+    @Override
+    public synchronized void searchItems(String keyword, String category, Consumer<? super InventoryItem> consumer) {
+        try {
+            query(ITEM_SELECT + " WHERE (items.id LIKE ? OR items.name LIKE ?)"
+                    + (category == null ? "" : " AND category_id = (SELECT category_id FROM categories WHERE name = ?)"),
+                    stmt -> {
+                        stmt.setString(1, "%" + keyword + "%");
+                        stmt.setString(2, "%" + keyword + "%");
+                        if (category != null)
+                            stmt.setString(3, category);
+                    }, DatabaseManager::readItem, consumer);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Streams the items in one category to the consumer
+    @Override
+    public synchronized void getItemsInCategory(String category, Consumer<? super InventoryItem> consumer) {
+        try {
+            query(ITEM_SELECT + " WHERE category_id = (SELECT category_id FROM categories WHERE name = ?)",
+                    stmt -> stmt.setString(1, category), DatabaseManager::readItem, consumer);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized List<String> getCategories() {
+        List<String> categories = new ArrayList<>();
+        try {
+            query("SELECT name FROM categories ORDER BY category_id", stmt -> {
+            }, rs -> rs.getString("name"), categories::add);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return categories;
+    }
+
+    @Override
+    public synchronized boolean addCategory(String name) {
+        try (PreparedStatement stmt = prepareStatement("INSERT OR IGNORE INTO categories (name) VALUES (?)")) {
+            stmt.setString(1, name);
+            if (stmt.executeUpdate() == 0)
+                return false;
+            audit("CATEGORY_ADD", name);
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Items refer to the category by key, so only the dictionary row and the category's sketches change
+    @Override
+    public synchronized boolean renameCategory(String name, String newName) {
+        try (PreparedStatement stmt = prepareStatement(
+                "UPDATE OR IGNORE categories SET name = ? WHERE name = ?");
+                PreparedStatement sketches = prepareStatement(
+                        "UPDATE sale_sketches SET key = ? WHERE kind = ? AND key = ?")) {
+            stmt.setString(1, newName);
+            stmt.setString(2, name);
+            boolean[] renamed = { false };
+            inTransaction(() -> {
+                if (stmt.executeUpdate() == 0)
+                    return;
+                sketches.setString(1, newName);
+                sketches.setString(2, CATEGORY_SKETCH);
+                sketches.setString(3, name);
+                sketches.executeUpdate();
+                renamed[0] = true;
+            });
+            if (!renamed[0])
+                return false;
+            renameCategorySketches(name, newName);
+            promotionsChanged();
+            fireItemsReset(loadAllItems());
+            audit("CATEGORY_RENAME", name, newName);
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // The category's percent-off promotions go with it
+    @Override
+    public synchronized boolean deleteCategory(String name) {
+        String unused = "SELECT category_id FROM categories WHERE name = ? AND NOT EXISTS "
+                + "(SELECT 1 FROM items WHERE items.category_id = categories.category_id)";
+        try (PreparedStatement promotions = prepareStatement(
+                "DELETE FROM promotions WHERE category_id = (" + unused + ")");
+                PreparedStatement stmt = prepareStatement(
+                        "DELETE FROM categories WHERE category_id = (" + unused + ")")) {
+            promotions.setString(1, name);
+            stmt.setString(1, name);
+            boolean[] deleted = { false };
+            inTransaction(() -> {
+                promotions.executeUpdate();
+                deleted[0] = stmt.executeUpdate() > 0;
+            });
+            if (!deleted[0])
+                return false;
+            promotionsChanged();
+            audit("CATEGORY_DELETE", name);
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized List<Promotion> getPromotions() {
+        Map<Integer, List<String>> itemIds = new HashMap<>();
+        List<Promotion> promotions = new ArrayList<>();
+        try {
+            try (Statement stmt = createStatement(); ResultSet rs = stmt
+                    .executeQuery("SELECT promotion_id, item_id FROM promotion_items ORDER BY promotion_id, position")) {
+                while (rs.next()) {
+                    itemIds.computeIfAbsent(rs.getInt(1), id -> new ArrayList<>()).add(rs.getString(2));
+                }
+            }
+            query("SELECT promotions.*, categories.name AS category FROM promotions "
+                    + "LEFT JOIN categories USING (category_id) ORDER BY promotion_id", stmt -> {
+                    }, rs -> new Promotion(rs.getInt("promotion_id"), rs.getString("kind"), rs.getString("category"),
+                            itemIds.getOrDefault(rs.getInt("promotion_id"), List.of()), rs.getDouble("amount"),
+                            rs.getInt("buy"), rs.getInt("free"), LocalDate.parse(rs.getString("starts")),
+                            LocalDate.parse(rs.getString("ends"))), promotions::add);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return promotions;
+    }
+
+    @Override
+    public synchronized Promotion addPromotion(Promotion promotion) {
+        try (PreparedStatement stmt = prepareStatement("INSERT INTO promotions (promotion_id, kind, category_id, "
+                + "amount, buy, free, starts, ends) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+                PreparedStatement items = prepareStatement(
+                        "INSERT INTO promotion_items (promotion_id, position, item_id) VALUES (?, ?, ?)")) {
+            Promotion[] added = { null };
+            inTransaction(() -> {
+                if (promotion.promotionId > 0)
+                    stmt.setInt(1, promotion.promotionId); // Replayed with the ID it had
+                else
+                    stmt.setNull(1, Types.INTEGER);
+                stmt.setString(2, promotion.kind);
+                setCategoryId(stmt, 3, categoryId(promotion.category));
+                stmt.setDouble(4, promotion.amount);
+                stmt.setInt(5, promotion.buy);
+                stmt.setInt(6, promotion.free);
+                stmt.setString(7, promotion.starts.toString());
+                stmt.setString(8, promotion.ends.toString());
+                stmt.executeUpdate();
+                int id;
+                try (Statement last = createStatement();
+                        ResultSet rs = last.executeQuery("SELECT last_insert_rowid()")) {
+                    rs.next();
+                    id = rs.getInt(1);
+                }
+                for (int i = 0; i < promotion.itemIds.size(); i++) {
+                    items.setInt(1, id);
+                    items.setInt(2, i);
+                    items.setString(3, promotion.itemIds.get(i));
+                    items.addBatch();
+                }
+                items.executeBatch();
+                added[0] = promotion.withId(id);
+            });
+            promotionsChanged();
+            auditPromotion(added[0]);
+            return added[0];
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized boolean deletePromotion(int promotionId) {
+        try (PreparedStatement stmt = prepareStatement("DELETE FROM promotions WHERE promotion_id = ?");
+                PreparedStatement items = prepareStatement("DELETE FROM promotion_items WHERE promotion_id = ?")) {
+            stmt.setInt(1, promotionId);
+            items.setInt(1, promotionId);
+            boolean[] deleted = { false };
+            inTransaction(() -> {
+                deleted[0] = stmt.executeUpdate() > 0;
+                items.executeUpdate();
+            });
+            if (!deleted[0])
+                return false;
+            promotionsChanged();
+            audit("PROMOTION_DELETE", promotionId);
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Records a sale and updates item quantity. With a journal attached this returns as soon as
+    // the sale is appended to the journal; listeners are notified once it reaches the tables.
+    @Override
+    public void recordSale(String itemId, int quantitySold, double priceSold, String date) {
+        recordSales(List.of(new SaleLine(itemId, quantitySold, priceSold, date)));
+    }
+
+    // Records a batch of sales in one transaction, or as consecutive journal entries when a journal is attached
+    @Override
+    public void recordSales(List<SaleLine> sales) {
+        SaleJournal attached = journal;
+        if (attached != null) {
+            attached.appendAll(sales);
+            return;
+        }
+        recordSalesNow(sales);
+        fireSalesApplied();
+    }
+
+    @Override
+    public String recordSalesIfInStock(List<SaleLine> sales) {
+        synchronized (saleAdmission) {
+            String shortItem = firstShortItem(sales);
+            if (shortItem == null)
+                recordSales(sales);
+            return shortItem;
+        }
+    }
+
+    private synchronized void recordSalesNow(List<SaleLine> sales) {
+        List<SaleJournal.Entry> batch = new ArrayList<>(sales.size());
+        for (SaleLine sale : sales) {
+            batch.add(new SaleJournal.Entry(0, sale.itemId, sale.quantity, sale.price, sale.date));
+        }
+        try {
+            writeSales(batch, null);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Applies a batch of journaled sales in a single transaction, together with the
+     * journal sequence number they reach, so a replay never applies a sale twice.
+     * 
+     * @param batch Journal entries in sequence order.
+     * @throws SQLException If the batch could not be committed; nothing is applied.
+     */
+    synchronized void applyJournaledSales(List<SaleJournal.Entry> batch) throws SQLException {
+        writeSales(batch, () -> {
+            try (PreparedStatement state = prepareStatement("UPDATE journal_state SET applied_seq = ? WHERE id = 0")) {
+                state.setLong(1, batch.get(batch.size() - 1).seq);
+                state.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Applies sales parsed from an external sale log in a single transaction,
+     * together with the byte offset the log has been read to, so a restart resumes
+     * exactly after the last applied line. Listeners are notified once committed.
+     * 
+     * @param file     Name of the log file.
+     * @param progress Offset just past the last line in this batch, with the
+     *                 checksum of the file's head up to it.
+     * @param sales    Sales parsed from the lines; may be empty if none were valid.
+     * @throws SQLException If the batch could not be committed; nothing is applied.
+     */
+    void applyIngestedSales(String file, SaleLogIngestor.Progress progress, List<SaleLine> sales)
+            throws SQLException {
+        synchronized (this) {
+            List<SaleJournal.Entry> batch = new ArrayList<>(sales.size());
+            for (SaleLine sale : sales) {
+                batch.add(new SaleJournal.Entry(0, sale.itemId, sale.quantity, sale.price, sale.date));
+            }
+            SqlWork saveOffset = () -> {
+                try (PreparedStatement stmt = prepareStatement(
+                        "INSERT OR REPLACE INTO ingest_offsets (file, byte_offset, head_crc) VALUES (?, ?, ?)")) {
+                    stmt.setString(1, file);
+                    stmt.setLong(2, progress.offset);
+                    stmt.setLong(3, progress.headCrc);
+                    stmt.executeUpdate();
+                }
+            };
+            if (batch.isEmpty())
+                saveOffset.run(); // Nothing to apply, but the lines are still consumed
+            else
+                writeSales(batch, saveOffset);
+        }
+        if (!sales.isEmpty())
+            fireSalesApplied();
+    }
+
+    // How far each ingested sale log has been applied, by file name
+    synchronized Map<String, SaleLogIngestor.Progress> getIngestOffsets() throws SQLException {
+        Map<String, SaleLogIngestor.Progress> offsets = new HashMap<>();
+        query("SELECT file, byte_offset, head_crc FROM ingest_offsets", stmt -> {
+        }, rs -> {
+            long offset = rs.getLong("byte_offset");
+            long headCrc = rs.getLong("head_crc");
+            if (rs.wasNull()) // Saved before head checksums were kept
+                headCrc = SaleLogIngestor.UNKNOWN_CRC;
+            return Map.entry(rs.getString("file"), new SaleLogIngestor.Progress(offset, headCrc));
+        }, offset -> offsets.put(offset.getKey(), offset.getValue()));
+        return offsets;
+    }
+
+    // Inserts the sales, decrements stock and advances sales velocity, all in one transaction
+    // together with any extra work, e.g. recording how far a journal or log has been applied
+    private void writeSales(List<SaleJournal.Entry> batch, SqlWork alsoInTransaction) throws SQLException {
+        if (batch.isEmpty())
+            return;
+        Map<String, SalesVelocity> velocityUpdates = new HashMap<>();
+        Map<List<String>, SaleDistribution> sketchUpdates = new HashMap<>();
+        long lastSaleId = 0;
+        conn.setAutoCommit(false);
+        try (PreparedStatement insert = prepareStatement(
+                "INSERT INTO sales (item_id, quantity_sold, price_sold, date) VALUES (?, ?, ?, ?)");
+                PreparedStatement update = prepareStatement("UPDATE items SET quantity = quantity - ? WHERE id = ?");
+                // Valued at the item's own price; sales of unknown items move no stock, as with the update
+                PreparedStatement movement = prepareStatement("INSERT INTO stock_movements "
+                        + "(item_id, kind, delta, price, day, sale_id) SELECT id, ?, ?, price, ?, ? FROM items WHERE id = ?")) {
+            for (SaleJournal.Entry entry : batch) {
+                insert.setString(1, entry.itemId);
+                insert.setInt(2, entry.quantity);
+                insert.setDouble(3, entry.price);
+                insert.setString(4, entry.date);
+                insert.addBatch();
+                update.setInt(1, entry.quantity);
+                update.setString(2, entry.itemId);
+                update.addBatch();
+                advanceVelocity(velocityUpdates, entry.itemId, entry.date, entry.quantity);
+                InventoryItem item = lowStockIndex.get(entry.itemId);
+                advanceSketches(sketchUpdates, entry.itemId, item == null ? null : item.category, entry.date,
+                        entry.quantity, entry.price, false);
+            }
+            insert.executeBatch();
+            // One connection inserting in one transaction, so the batch's IDs are consecutive
+            try (Statement stmt = createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+                rs.next();
+                lastSaleId = rs.getLong(1);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                SaleJournal.Entry entry = batch.get(i);
+                movement.setString(1, SALE);
+                movement.setInt(2, -entry.quantity);
+                movement.setString(3, entry.date); // The sale's day, even when it is replayed or ingested later
+                movement.setLong(4, lastSaleId - batch.size() + 1 + i);
+                movement.setString(5, entry.itemId);
+                movement.addBatch();
+            }
+            movement.executeBatch();
+            update.executeBatch();
+            saveVelocities(velocityUpdates);
+            saveSketches(sketchUpdates);
+            if (alsoInTransaction != null)
+                alsoInTransaction.run();
+            SqlStatementTracing.commit(conn);
+        } catch (SQLException e) {
+            SqlStatementTracing.rollback(conn);
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        velocities.putAll(velocityUpdates); // Only once committed
+        commitSketches(sketchUpdates);
+        for (int i = 0; i < batch.size() && isAudited(); i++) {
+            SaleJournal.Entry entry = batch.get(i);
+            audit("SALE", lastSaleId - batch.size() + 1 + i, entry.itemId, entry.quantity, entry.price, entry.date);
+        }
+
+        Map<String, Integer> soldByItem = new LinkedHashMap<>();
+        for (SaleJournal.Entry entry : batch) {
+            soldByItem.merge(entry.itemId, entry.quantity, Integer::sum);
+        }
+        fireQuantitiesSold(soldByItem);
+    }
+
+    private void saveVelocities(Map<String, SalesVelocity> updates) throws SQLException {
+        if (updates.isEmpty())
+            return;
+        try (PreparedStatement upsert = prepareStatement(
+                "INSERT OR REPLACE INTO item_velocity (item_id, day, day_units, average) VALUES (?, ?, ?, ?)")) {
+            for (Map.Entry<String, SalesVelocity> update : updates.entrySet()) {
+                SalesVelocity v = update.getValue();
+                upsert.setString(1, update.getKey());
+                upsert.setLong(2, v.day);
+                upsert.setInt(3, v.dayUnits);
+                if (v.hasHistory())
+                    upsert.setDouble(4, v.average);
+                else
+                    upsert.setNull(4, Types.REAL);
+                upsert.addBatch();
+            }
+            upsert.executeBatch();
+        }
+    }
+
+    private void saveSketches(Map<List<String>, SaleDistribution> updates) throws SQLException {
+        if (updates.isEmpty())
+            return;
+        try (PreparedStatement upsert = prepareStatement(
+                "INSERT OR REPLACE INTO sale_sketches (kind, key, month, quantities, prices) VALUES (?, ?, ?, ?, ?)")) {
+            for (Map.Entry<List<String>, SaleDistribution> update : updates.entrySet()) {
+                List<String> key = update.getKey();
+                upsert.setString(1, key.get(0));
+                upsert.setString(2, key.get(1));
+                upsert.setString(3, key.get(2));
+                upsert.setBytes(4, update.getValue().quantities.encode());
+                upsert.setBytes(5, update.getValue().prices.encode());
+                upsert.addBatch();
+            }
+            upsert.executeBatch();
+        }
+    }
+
+    // Loads every persisted sale sketch into memory
+    private void loadSketches() throws SQLException {
+        saleSketches.clear();
+        Map<List<String>, SaleDistribution> loaded = new HashMap<>();
+        query("SELECT kind, key, month, quantities, prices FROM sale_sketches", stmt -> {
+        }, rs -> Map.entry(List.of(rs.getString("kind"), rs.getString("key"), rs.getString("month")),
+                new SaleDistribution(QuantileSketch.decode(rs.getBytes("quantities")),
+                        QuantileSketch.decode(rs.getBytes("prices")))),
+                sketch -> loaded.put(sketch.getKey(), sketch.getValue()));
+        commitSketches(loaded);
+    }
+
+    // One-time backfill of sale_sketches from the existing sales history, filed under each item's current category
+    private void backfillSketches() throws SQLException {
+        Map<List<String>, SaleDistribution> updates = new HashMap<>();
+        try (Statement stmt = createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT s.item_id, s.quantity_sold, s.price_sold, s.date, "
+                        + "c.name AS category FROM sales s LEFT JOIN items i ON i.id = s.item_id "
+                        + "LEFT JOIN categories c ON c.category_id = i.category_id")) {
+            while (rs.next()) {
+                advanceSketches(updates, rs.getString("item_id"), rs.getString("category"), rs.getString("date"),
+                        rs.getInt("quantity_sold"), rs.getDouble("price_sold"), false);
+            }
+        }
+        saveSketches(updates);
+    }
+
+    @Override
+    public synchronized SaleDistribution getItemSaleDistribution(String itemId, String fromMonth, String toMonth) {
+        reloadSketchesIfStale();
+        return super.getItemSaleDistribution(itemId, fromMonth, toMonth);
+    }
+
+    @Override
+    public synchronized SaleDistribution getCategorySaleDistribution(String category, String fromMonth,
+            String toMonth) {
+        reloadSketchesIfStale();
+        return super.getCategorySaleDistribution(category, fromMonth, toMonth);
+    }
+
+    // Picks up sketches committed through another connection
+    private void reloadSketchesIfStale() {
+        if (!sketchesStale)
+            return;
+        sketchesStale = false;
+        try {
+            loadSketches();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Picks up velocities committed through another connection
+    private void reloadVelocitiesIfStale() {
+        if (!velocitiesStale)
+            return;
+        velocitiesStale = false;
+        try {
+            loadVelocities();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Loads the persisted velocity of every item into memory
+    private void loadVelocities() throws SQLException {
+        velocities.clear();
+        try (Statement stmt = createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT item_id, day, day_units, average FROM item_velocity")) {
+            while (rs.next()) {
+                double average = rs.getDouble("average");
+                if (rs.wasNull()) // Checked straight after the read; it reports on the last column read
+                    average = Double.NaN;
+                velocities.put(rs.getString("item_id"),
+                        new SalesVelocity(rs.getLong("day"), rs.getInt("day_units"), average));
+            }
+        }
+    }
+
+    // One-time backfill of item_velocity from the existing sales history, replayed day by day
+    private void backfillVelocities() throws SQLException {
+        Map<String, SalesVelocity> updates = new HashMap<>();
+        try (Statement stmt = createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT item_id, date, SUM(quantity_sold) AS units FROM sales "
+                        + "GROUP BY item_id, date ORDER BY date")) {
+            while (rs.next()) {
+                advanceVelocity(updates, rs.getString("item_id"), rs.getString("date"), rs.getInt("units"));
+            }
+        }
+        saveVelocities(updates);
+    }
+
+    /**
+     * Projects when each item will run out at its current sales velocity and how
+     * much to reorder. Uses the in-memory velocities, not the sales history.
+     * 
+     * @return Forecasts for all items, soonest stock-out first.
+     */
+    @Override
+    public synchronized List<StockForecast> getStockForecasts() {
+        reloadVelocitiesIfStale();
+        try {
+            return forecast(loadAllItems());
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    // Reports the new quantity of each sold item, reading back one row per distinct item
+    private void fireQuantitiesSold(Map<String, Integer> soldByItem) {
+        for (Map.Entry<String, Integer> sold : soldByItem.entrySet()) {
+            InventoryItem after = getItem(sold.getKey());
+            if (after != null)
+                fireItemChanged(after.withQuantity(after.quantity + sold.getValue()), after);
+        }
+    }
+
+    // Returns the sequence number of the last journaled sale already in the tables
+    synchronized long getJournalAppliedSeq() throws SQLException {
+        try (Statement stmt = createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT applied_seq FROM journal_state WHERE id = 0")) {
+            return rs.next() ? rs.getLong("applied_seq") : 0;
+        }
+    }
+
+    // Routes all further sales through the given journal
+    public void attachJournal(SaleJournal journal) {
+        this.journal = journal;
+    }
+
+    // Quantity of an item sold but not yet applied to the items table
+    @Override
+    public int getPendingSaleQuantity(String itemId) {
+        SaleJournal attached = journal;
+        return attached == null ? 0 : attached.pendingQuantity(itemId);
+    }
+
+    // Calculates and returns the total revenue from sales
+    @Override
+    public synchronized double getTotalRevenue() {
+        try (Statement stmt = createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT SUM(quantity_sold * price_sold) AS total FROM sales")) {
+            return rs.next() ? rs.getDouble("total") : 0.0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0.0;
+        }
+    }
+
+    /**
+     * Streams the aggregated monthly revenue summary for a specific year, most
+     * recent month first.
+     * 
+     * @param year     The year to filter by. If 0, returns all years.
+     * @param consumer Receives each month's revenue.
+     * @return False if the query failed, so the months streamed may be incomplete.
+     */
+    @Override
+    public synchronized boolean getMonthlyRevenueSummary(int year, Consumer<? super MonthlyRevenue> consumer) {
+        String select = "SELECT strftime('%Y-%m', date) AS month_year, SUM(quantity_sold * price_sold) AS total_revenue ";
+        try {
+            if (year > 0) {
+                query(select + "FROM sales WHERE strftime('%Y', date) = ? GROUP BY month_year ORDER BY month_year DESC",
+                        stmt -> stmt.setString(1, String.valueOf(year)), DatabaseManager::readMonthlyRevenue,
+                        consumer);
+            } else {
+                query(select + "FROM sales GROUP BY month_year ORDER BY month_year DESC", stmt -> {
+                }, DatabaseManager::readMonthlyRevenue, consumer);
+            }
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Calculates the total annual revenue for a specific year.
+     * 
+     * @param year The year to calculate revenue for.
+     * @return Total annual revenue.
+     */
+    @Override
+    public synchronized double getTotalAnnualRevenue(int year) {
+        String query = "SELECT SUM(quantity_sold * price_sold) AS total FROM sales WHERE strftime('%Y', date) = ?";
+        try (PreparedStatement stmt = prepareStatement(query)) {
+            stmt.setString(1, String.valueOf(year));
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getDouble("total") : 0.0;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0.0;
+        }
+    }
+
+    // Streams the revenue of every calendar day with sales, oldest first; the date index supplies the order
+    @Override
+    public synchronized boolean getDailyRevenue(Consumer<? super DailyRevenue> consumer) {
+        try {
+            query("SELECT date, SUM(quantity_sold * price_sold) AS revenue FROM sales GROUP BY date ORDER BY date",
+                    stmt -> {
+                    }, rs -> {
+                        try {
+                            return new DailyRevenue(LocalDate.parse(rs.getString("date")).toEpochDay(),
+                                    rs.getDouble("revenue"));
+                        } catch (DateTimeParseException | NullPointerException e) {
+                            return null; // Not a calendar date, so it can't be placed on the time axis
+                        }
+                    }, revenue -> {
+                        if (revenue != null)
+                            consumer.accept(revenue);
+                    });
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Streams the individual sales for a specific month and year, including item
+     * name, in date order.
+     * 
+     * @param yearMonth The month and year in YYYY-MM format.
+     * @param consumer  Receives each sale.
+     * @return False if the query failed, so the sales streamed may be incomplete.
+     */
+    @Override
+    public synchronized boolean getIndividualSalesForMonth(String yearMonth, Consumer<? super SaleRecord> consumer) {
+        String sql = "SELECT s.sale_id, s.item_id, i.name AS item_name, s.quantity_sold, s.price_sold, s.date " +
+                "FROM sales s JOIN items i ON s.item_id = i.id " +
+                "WHERE s.date >= ? AND s.date < ? ORDER BY s.date, s.sale_id";
+        try {
+            query(sql, stmt -> {
+                stmt.setString(1, yearMonth);
+                stmt.setString(2, nextMonth(yearMonth));
+            }, DatabaseManager::readSale, consumer);
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Retrieves one page of individual sales for a month, ordered by date and sale
+     * ID. Pages are found by keyset rather than offset, so later pages cost the
+     * same as the first.
+     * 
+     * @param yearMonth   The month and year in YYYY-MM format.
+     * @param afterDate   Date of the last sale on the previous page, or "" for the first page.
+     * @param afterSaleId Sale ID of the last sale on the previous page, or 0 for the first page.
+     * @param limit       Maximum number of sales to return.
+     * @return The sales on the page; fewer than limit on the last page, or null if the query failed.
+     */
+    @Override
+    public synchronized List<SaleRecord> getIndividualSalesPage(String yearMonth, String afterDate, int afterSaleId,
+            int limit) {
+        List<SaleRecord> page = new ArrayList<>();
+        // Plain range on date instead of strftime() so the (date, sale_id) index is used
+        String sql = "SELECT s.sale_id, s.item_id, i.name AS item_name, s.quantity_sold, s.price_sold, s.date " +
+                "FROM sales s JOIN items i ON s.item_id = i.id " +
+                "WHERE s.date >= ? AND s.date < ? AND (s.date, s.sale_id) > (?, ?) " +
+                "ORDER BY s.date, s.sale_id LIMIT ?";
+        try {
+            query(sql, stmt -> {
+                stmt.setString(1, yearMonth);
+                stmt.setString(2, nextMonth(yearMonth));
+                stmt.setString(3, afterDate);
+                stmt.setInt(4, afterSaleId);
+                stmt.setInt(5, limit);
+            }, DatabaseManager::readSale, page::add);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return page;
+    }
+
+    /**
+     * Counts and totals the individual sales of a month in one aggregate query.
+     * 
+     * @param yearMonth The month and year in YYYY-MM format.
+     * @return { number of sales, total revenue }.
+     */
+    @Override
+    public synchronized double[] getMonthSalesTotals(String yearMonth) {
+        String query = "SELECT COUNT(*) AS sale_count, SUM(s.quantity_sold * s.price_sold) AS total " +
+                "FROM sales s JOIN items i ON s.item_id = i.id WHERE s.date >= ? AND s.date < ?";
+        try (PreparedStatement stmt = prepareStatement(query)) {
+            stmt.setString(1, yearMonth);
+            stmt.setString(2, nextMonth(yearMonth));
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new double[] { rs.getInt("sale_count"), rs.getDouble("total") }
+                        : new double[] { 0, 0 };
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new double[] { 0, 0 };
+        }
+    }
+
+    private static SaleRecord readSale(ResultSet rs) throws SQLException {
+        return new SaleRecord(rs.getInt("sale_id"), rs.getString("item_id"), rs.getString("item_name"),
+                rs.getInt("quantity_sold"), rs.getDouble("price_sold"), rs.getString("date"));
+    }
+
+    private static MonthlyRevenue readMonthlyRevenue(ResultSet rs) throws SQLException {
+        return new MonthlyRevenue(rs.getString("month_year"), rs.getDouble("total_revenue"));
+    }
+
+    // Resets all sales data
+    @Override
+    public synchronized void resetRevenue() {
+        try (Statement stmt = createStatement()) {
+            stmt.execute("DELETE FROM sales");
+            stmt.execute("DELETE FROM item_velocity"); // No sales history left to average
+            stmt.execute("DELETE FROM sale_sketches");
+            velocities.clear();
+            saleSketches.clear();
+            audit("REVENUE_RESET");
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Authenticates a user and returns their role if successful
+    @Override
+    public synchronized String authenticate(String username, String password) {
+        try (PreparedStatement stmt = prepareStatement("SELECT role FROM users WHERE username=? AND password=?")) {
+            stmt.setString(1, username);
+            stmt.setString(2, password);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString("role") : null;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Deletes a sale from the sales table by sale ID and returns its quantity to stock
+    @Override
+    public synchronized void deleteSale(int saleId) {
+        try (PreparedStatement select = prepareStatement(
+                "SELECT item_id, quantity_sold, price_sold, date FROM sales WHERE sale_id=?");
+                PreparedStatement stmt = prepareStatement("DELETE FROM sales WHERE sale_id=?");
+                PreparedStatement restock = prepareStatement("UPDATE items SET quantity = quantity + ? WHERE id = ?")) {
+            // Take the sale back out of its item's velocity, as a sale of negative quantity
+            Map<String, SalesVelocity> velocityUpdates = new HashMap<>();
+            Map<List<String>, SaleDistribution> sketchUpdates = new HashMap<>();
+            select.setInt(1, saleId);
+            String itemId;
+            int quantity;
+            String date;
+            double price;
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next())
+                    return;
+                itemId = rs.getString("item_id");
+                quantity = rs.getInt("quantity_sold");
+                price = rs.getDouble("price_sold");
+                date = rs.getString("date");
+                advanceVelocity(velocityUpdates, itemId, date, -quantity);
+            }
+            InventoryItem before = getItem(itemId);
+            // Taken out of the item's current category, which is where the sale was filed unless the item has moved since
+            advanceSketches(sketchUpdates, itemId, before == null ? null : before.category, date, quantity, price, true);
+            inTransaction(() -> {
+                stmt.setInt(1, saleId);
+                stmt.executeUpdate();
+                if (before != null) {
+                    restock.setInt(1, quantity);
+                    restock.setString(2, itemId);
+                    restock.executeUpdate();
+                    // On the sale's day, so the stock history reads as if the sale never happened
+                    insertMovement(itemId, SALE_DELETE, quantity, before.price, date, saleId);
+                }
+                saveVelocities(velocityUpdates);
+                saveSketches(sketchUpdates);
+            });
+            velocities.putAll(velocityUpdates);
+            commitSketches(sketchUpdates);
+            if (before != null)
+                fireItemChanged(before, before.withQuantity(before.quantity + quantity));
+            audit("SALE_DELETE", saleId, itemId, quantity, date);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Rebuilds every item's stock and unit price at the end of a day from the
+     * latest ledger snapshot whose movements all fall on or before it, plus the
+     * movements recorded after that snapshot that are dated up to the day's end.
+     * Sales count on their own date, so a back-dated sale changes the history too.
+     * 
+     * @param day Local date whose closing stock is wanted.
+     * @return Positions of the items that existed then, by item ID.
+     */
+    @Override
+    public synchronized List<StockPosition> getStockAsOf(LocalDate day) {
+        try {
+            return toPositions(ledgerState(lastMovementId(), day.toString()));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    // Snapshots the ledger once SNAPSHOT_INTERVAL movements have accumulated since the last snapshot
+    @Override
+    public synchronized void takeStockSnapshot() {
+        try {
+            long last = lastMovementId();
+            long snapshotted = 0;
+            String snapshottedDay = null;
+            try (Statement stmt = createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT last_movement_id, last_day FROM stock_snapshots "
+                            + "ORDER BY last_movement_id DESC LIMIT 1")) {
+                if (rs.next()) {
+                    snapshotted = rs.getLong("last_movement_id");
+                    snapshottedDay = rs.getString("last_day");
+                }
+            }
+            if (last - snapshotted < SNAPSHOT_INTERVAL)
+                return;
+            // The latest day so far is the previous snapshot's, or one of the movements recorded since
+            String lastDay = snapshottedDay;
+            try (PreparedStatement stmt = prepareStatement(
+                    "SELECT MAX(day) FROM stock_movements WHERE movement_id > ? AND movement_id <= ?")) {
+                stmt.setLong(1, snapshotted);
+                stmt.setLong(2, last);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    String day = rs.next() ? rs.getString(1) : null;
+                    if (day != null && (lastDay == null || day.compareTo(lastDay) > 0))
+                        lastDay = day;
+                }
+            }
+            Map<String, StockLevel> levels = ledgerState(last, ALL_DAYS);
+            String snapshotDay = lastDay;
+            try (PreparedStatement snapshot = prepareStatement(
+                    "INSERT INTO stock_snapshots (taken_at, last_movement_id, last_day) VALUES (?, ?, ?)");
+                    PreparedStatement item = prepareStatement(
+                            "INSERT INTO stock_snapshot_items (snapshot_id, item_id, quantity, price) VALUES (?, ?, ?, ?)")) {
+                inTransaction(() -> {
+                    snapshot.setString(1, LocalDateTime.now().toString());
+                    snapshot.setLong(2, last);
+                    snapshot.setString(3, snapshotDay);
+                    snapshot.executeUpdate();
+                    // Read once: inside the batch, last_insert_rowid() would be the previous item row's
+                    long snapshotId;
+                    try (Statement stmt = createStatement();
+                            ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+                        rs.next();
+                        snapshotId = rs.getLong(1);
+                    }
+                    for (Map.Entry<String, StockLevel> level : levels.entrySet()) {
+                        item.setLong(1, snapshotId);
+                        item.setString(2, level.getKey());
+                        item.setInt(3, level.getValue().quantity);
+                        item.setDouble(4, level.getValue().price);
+                        item.addBatch();
+                    }
+                    item.executeBatch();
+                });
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Compares the current ledger balance of every item with the items table
+    @Override
+    public synchronized List<StockDrift> checkStockConsistency() {
+        try {
+            return findDrift(ledgerState(lastMovementId(), ALL_DAYS), loadAllItems());
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    private long lastMovementId() throws SQLException {
+        try (Statement stmt = createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT MAX(movement_id) FROM stock_movements")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // Stock levels after the movements up to upTo that are dated on or before lastDay: the latest snapshot at
+    // or before upTo whose movements are all dated by then, then the matching movements recorded after it
+    private Map<String, StockLevel> ledgerState(long upTo, String lastDay) throws SQLException {
+        Map<String, StockLevel> levels = new HashMap<>();
+        long snapshotId = 0;
+        long from = 0;
+        try (PreparedStatement stmt = prepareStatement("SELECT snapshot_id, last_movement_id FROM stock_snapshots "
+                + "WHERE last_movement_id <= ? AND last_day <= ? ORDER BY last_movement_id DESC LIMIT 1")) {
+            stmt.setLong(1, upTo);
+            stmt.setString(2, lastDay);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    snapshotId = rs.getLong("snapshot_id");
+                    from = rs.getLong("last_movement_id");
+                }
+            }
+        }
+        try (PreparedStatement stmt = prepareStatement(
+                "SELECT item_id, quantity, price FROM stock_snapshot_items WHERE snapshot_id = ?")) {
+            stmt.setLong(1, snapshotId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    levels.put(rs.getString("item_id"), new StockLevel(rs.getInt("quantity"), rs.getDouble("price")));
+                }
+            }
+        }
+        try (PreparedStatement stmt = prepareStatement("SELECT item_id, kind, delta, price FROM stock_movements "
+                + "WHERE movement_id > ? AND movement_id <= ? AND day <= ? ORDER BY movement_id")) {
+            stmt.setFetchSize(FETCH_SIZE);
+            stmt.setLong(1, from);
+            stmt.setLong(2, upTo);
+            stmt.setString(3, lastDay);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    applyMovement(levels, rs.getString("item_id"), rs.getString("kind"), rs.getInt("delta"),
+                            rs.getDouble("price"));
+                }
+            }
+        }
+        return levels;
+    }
+
+    // Pages on the freelist, i.e. space deleted rows left behind
+    synchronized long getFreePageCount() throws SQLException {
+        try (Statement stmt = createStatement()) {
+            return queryLong(stmt, "PRAGMA freelist_count");
+        }
+    }
+
+    // Moves up to maxPages free pages to the end of the file and truncates them
+    synchronized void incrementalVacuum(int maxPages) throws SQLException {
+        try (Statement stmt = createStatement()) {
+            stmt.executeUpdate("PRAGMA incremental_vacuum(" + maxPages + ")"); // Steps until done, unlike execute
+        }
+    }
+
+    // Refreshes planner statistics where they are stale, sampling a bounded number of rows per index
+    synchronized void optimize() throws SQLException {
+        try (Statement stmt = createStatement()) {
+            stmt.execute("PRAGMA analysis_limit = " + MaintenanceScheduler.ANALYSIS_LIMIT);
+            stmt.execute("PRAGMA optimize = 0x10002"); // 0x10000: consider every table, not just recently queried ones
+        }
+    }
+
+    // Copies WAL frames into the database without waiting on readers or writers; returns frames left.
+    // Runs on a connection of its own without this store's lock, so sales carry on meanwhile.
+    int checkpoint() throws SQLException {
+        try (Connection side = DriverManager.getConnection("jdbc:sqlite:" + path);
+                Statement stmt = SqlStatementTracing.createStatement(side);
+                ResultSet rs = stmt.executeQuery("PRAGMA wal_checkpoint(PASSIVE)")) {
+            return rs.next() ? rs.getInt(2) - rs.getInt(3) : 0;
+        }
+    }
+
+    /**
+     * Replaces the contents of the live database with a backup file, using
+     * SQLite's online backup API on this connection.
+     * 
+     * @param backupFile Path of an uncompressed backup database.
+     * @param origin     Name of the backup as the user chose it, for the audit log.
+     * @throws SQLException If the restore fails; the live database is left as it was.
+     */
+    public synchronized void restoreFrom(String backupFile, String origin) throws SQLException {
+        // Reopen first, so no statement still open on the old connection can hold a read lock during the copy
+        conn.close();
+        conn = DriverManager.getConnection("jdbc:sqlite:" + path);
+        SqlStatementEvent event = new SqlStatementEvent("restore from " + backupFile);
+        event.begin();
+        int rc = conn.unwrap(SQLiteConnection.class).getDatabase().restore("main", backupFile, null,
+                BackupScheduler.BUSY_SLEEP_MILLIS, BackupScheduler.BUSY_RETRIES, BackupScheduler.PAGES_PER_STEP);
+        event.commit();
+        if (rc != Codes.SQLITE_OK) {
+            throw new SQLException("Restore failed with SQLite code " + rc);
+        }
+        createSchema(); // Also reloads the velocities
+        fireItemsReset(loadAllItems());
+        audit("RESTORE", origin);
+    }
+}
+
+// Inventory and sales held entirely in memory, in primitive column arrays with indexes by ID
+// and by category. Nothing touches the disk, so it suits demo kiosks and benchmarks of the UI
+// and analytics code without database I/O. Select it with -Drevup.store=memory.
+class InMemoryStore extends AbstractInventoryStore {
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Items: one slot per item; deleting moves the last item into the freed slot
+    private int itemCount;
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private int[] quantities = new int[INITIAL_CAPACITY];
+    private double[] prices = new double[INITIAL_CAPACITY];
+    private int[] categoryIds = new int[INITIAL_CAPACITY]; // Key into categoryNames, -1 for none
+    private int[] thresholds = new int[INITIAL_CAPACITY];
+    private final Map<String, Integer> slotById = new HashMap<>();
+    private String[] sortedIds; // IDs in CycleCount.ID_ORDER for paging; null after an add or delete
+
+    // Category dictionary: key -> name (null once deleted) and the slots of its items
+    private final List<String> categoryNames = new ArrayList<>();
+    private final Map<String, Integer> categoryIdByName = new HashMap<>();
+    private final List<BitSet> slotsByCategory = new ArrayList<>();
+
+    // Sales: one slot per sale in recording order; sale IDs are never reused, as with AUTOINCREMENT
+    private int saleCount;
+    private int firstSaleId = 1; // Sale ID of slot 0
+    private String[] saleItemIds = new String[INITIAL_CAPACITY];
+    private int[] saleQuantities = new int[INITIAL_CAPACITY];
+    private double[] salePrices = new double[INITIAL_CAPACITY];
+    private String[] saleDates = new String[INITIAL_CAPACITY];
+    private final BitSet deletedSales = new BitSet();
+    // Every sale slot ordered by (date, sale ID), so a month is one range found by binary search
+    private int[] salesByDate = new int[INITIAL_CAPACITY];
+
+    // Stock ledger: one slot per movement in recording order, with the epoch day it counts on; a sale counts
+    // on its own date, so back-dated sales put days out of order
+    private int movementCount;
+    private String[] movementItemIds = new String[INITIAL_CAPACITY];
+    private String[] movementKinds = new String[INITIAL_CAPACITY];
+    private int[] movementDeltas = new int[INITIAL_CAPACITY];
+    private double[] movementPrices = new double[INITIAL_CAPACITY];
+    private long[] movementDays = new long[INITIAL_CAPACITY];
+    private long[] movementMaxDays = new long[INITIAL_CAPACITY]; // Latest day of the movements up to each slot
+    private final TreeMap<Integer, Map<String, StockLevel>> snapshots = new TreeMap<>(); // Movement count -> levels
+
+    // Promotions in ID order; IDs are never reused
+    private final List<Promotion> promotions = new ArrayList<>();
+    private int nextPromotionId = 1;
+
+    private final Map<String, String[]> users = new HashMap<>(); // username -> { password, role }
+
+    public InMemoryStore() {
+        for (String category : new String[] { "Electronics", "Clothing", "Furniture", "Other" }) {
+            defineCategory(category);
+        }
+        users.put("admin", new String[] { "admin123", "admin" });
+        users.put("staff", new String[] { "staff123", "staff" });
+        users.put("viewer", new String[] { "viewer123", "viewer" });
+    }
+
+    private InventoryItem itemAt(int slot) {
+        return new InventoryItem(ids[slot], names[slot], quantities[slot], prices[slot], categoryName(slot),
+                thresholds[slot]);
+    }
+
+    private String categoryName(int slot) {
+        return categoryIds[slot] < 0 ? null : categoryNames.get(categoryIds[slot]);
+    }
+
+    private void writeSlot(int slot, InventoryItem item) {
+        ids[slot] = item.id;
+        names[slot] = item.name;
+        quantities[slot] = item.quantity;
+        prices[slot] = item.price;
+        categoryIds[slot] = categoryId(item.category);
+        thresholds[slot] = item.reorderThreshold;
+    }
+
+    // Key of a category name, adding it to the dictionary if it is new; -1 for no category
+    private int categoryId(String name) {
+        if (name == null)
+            return -1;
+        defineCategory(name);
+        return categoryIdByName.get(name);
+    }
+
+    private boolean defineCategory(String name) {
+        if (categoryIdByName.containsKey(name))
+            return false;
+        categoryIdByName.put(name, categoryNames.size());
+        categoryNames.add(name);
+        slotsByCategory.add(new BitSet());
+        return true;
+    }
+
+    private void indexCategory(int slot, boolean present) {
+        if (categoryIds[slot] >= 0)
+            slotsByCategory.get(categoryIds[slot]).set(slot, present);
+    }
+
+    @Override
+    public synchronized InventoryItem getItem(String id) {
+        Integer slot = slotById.get(id);
+        return slot == null ? null : itemAt(slot);
+    }
+
+    @Override
+    public synchronized void addItem(InventoryItem item) {
+        if (slotById.containsKey(item.id)) {
+            JOptionPane.showMessageDialog(null, "ID already exists.");
+            return;
+        }
+        if (itemCount == ids.length) {
+            int capacity = itemCount * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            categoryIds = Arrays.copyOf(categoryIds, capacity);
+            thresholds = Arrays.copyOf(thresholds, capacity);
+        }
+        int slot = itemCount++;
+        writeSlot(slot, item);
+        slotById.put(item.id, slot);
+        sortedIds = null;
+        indexCategory(slot, true);
+        recordMovement(item.id, OPENING, item.quantity, item.price, LocalDate.now().toEpochDay());
+        fireItemChanged(null, item);
+        auditItem("ITEM_ADD", item, null);
+    }
+
+    @Override
+    public synchronized void updateItem(InventoryItem item) {
+        Integer slot = slotById.get(item.id);
+        if (slot == null)
+            return;
+        InventoryItem before = itemAt(slot);
+        replaceItem(slot, before, item);
+        fireItemChanged(before, item);
+        auditItem("ITEM_UPDATE", item, before);
+    }
+
+    private void replaceItem(int slot, InventoryItem before, InventoryItem item) {
+        indexCategory(slot, false);
+        writeSlot(slot, item);
+        indexCategory(slot, true);
+        String kind = editKind(before, item);
+        if (kind != null)
+            recordMovement(item.id, kind, item.quantity - before.quantity, item.price, LocalDate.now().toEpochDay());
+    }
+
+    @Override
+    public synchronized void deleteItem(String id) {
+        InventoryItem before = removeItem(id);
+        if (before == null)
+            return;
+        fireItemChanged(before, null);
+        auditItem("ITEM_DELETE", before, null);
+    }
+
+    @Override
+    public synchronized int repriceItems(Collection<String> ids, double percent) {
+        return bulkUpdate(ids, item -> item.withPrice(InventoryItem.repriced(item.price, percent)));
+    }
+
+    @Override
+    public synchronized int setItemsCategory(Collection<String> ids, String category) {
+        return bulkUpdate(ids, item -> item.withCategory(category));
+    }
+
+    @Override
+    public synchronized int restockItems(Collection<String> ids, int delta) {
+        return bulkUpdate(ids, item -> item.withQuantity(Math.max(0, item.quantity + delta)));
+    }
+
+    @Override
+    public synchronized int deleteItems(Collection<String> ids) {
+        List<InventoryItem> before = new ArrayList<>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            InventoryItem removed = removeItem(id);
+            if (removed != null)
+                before.add(removed);
+        }
+        List<InventoryItem> after = Collections.nCopies(before.size(), null);
+        fireItemsChanged(before, after);
+        auditItems(before, after);
+        return before.size();
+    }
+
+    // The whole catalog is in memory here anyway, so the file is read in full first, and a failed read
+    // applies none of it
+    @Override
+    public synchronized int adjustStock(Path deltas) {
+        Map<String, Integer> byId = new LinkedHashMap<>();
+        try (CycleCount.EntryReader in = new CycleCount.EntryReader(deltas)) {
+            while (in.advance()) {
+                byId.merge(in.id, in.quantity, Integer::sum);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        return bulkUpdate(byId.keySet(), item -> item.withQuantity(item.quantity + byId.get(item.id)));
+    }
+
+    // Applies an edit to each of the items, reporting the ones it changed as one batch
+    private int bulkUpdate(Collection<String> ids, UnaryOperator<InventoryItem> edit) {
+        List<InventoryItem> before = new ArrayList<>();
+        List<InventoryItem> after = new ArrayList<>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            Integer slot = slotById.get(id);
+            if (slot == null)
+                continue;
+            InventoryItem current = itemAt(slot);
+            InventoryItem updated = edit.apply(current);
+            if (updated.sameAs(current))
+                continue;
+            replaceItem(slot, current, updated);
+            before.add(current);
+            after.add(updated);
+        }
+        fireItemsChanged(before, after);
+        auditItems(before, after);
+        return before.size();
+    }
+
+    // Removes an item, moving the last item into its slot; returns it as it was, or null if there is none
+    private InventoryItem removeItem(String id) {
+        Integer slot = slotById.remove(id);
+        velocities.remove(id);
+        if (slot == null)
+            return null;
+        sortedIds = null;
+        InventoryItem before = itemAt(slot);
+        indexCategory(slot, false);
+        int last = --itemCount;
+        if (slot != last) {
+            InventoryItem moved = itemAt(last);
+            indexCategory(last, false);
+            writeSlot(slot, moved);
+            slotById.put(moved.id, slot);
+            indexCategory(slot, true);
+        }
+        ids[last] = names[last] = null;
+        recordMovement(id, REMOVAL, -before.quantity, before.price, LocalDate.now().toEpochDay());
+        return before;
+    }
+
+    @Override
+    public synchronized void getAllItems(Consumer<? super InventoryItem> consumer) {
+        for (int slot = 0; slot < itemCount; slot++) {
+            consumer.accept(itemAt(slot));
+        }
+    }
+
+    @Override
+    public synchronized List<InventoryItem> getItemsPage(String afterId, int limit) {
+        if (sortedIds == null) {
+            sortedIds = Arrays.copyOf(ids, itemCount);
+            Arrays.sort(sortedIds, CycleCount.ID_ORDER);
+        }
+        int from = Arrays.binarySearch(sortedIds, afterId, CycleCount.ID_ORDER);
+        from = from >= 0 ? from + 1 : -from - 1;
+        List<InventoryItem> page = new ArrayList<>(Math.min(limit, sortedIds.length - from));
+        for (int i = from; i < sortedIds.length && page.size() < limit; i++) {
+            page.add(itemAt(slotById.get(sortedIds[i])));
+        }
+        return page;
+    }
+
+    @Override
+    public synchronized void searchItems(String keyword, String category, Consumer<? super InventoryItem> consumer) {
+        String needle = keyword.toLowerCase(); // Case-insensitive, like SQLite's LIKE
+        Integer categoryId = category == null ? null : categoryIdByName.get(category);
+        if (category != null && categoryId == null)
+            return;
+        for (int slot = 0; slot < itemCount; slot++) {
+            if (categoryId != null && categoryIds[slot] != categoryId)
+                continue;
+            if (ids[slot].toLowerCase().contains(needle)
+                    || (names[slot] != null && names[slot].toLowerCase().contains(needle)))
+                consumer.accept(itemAt(slot));
+        }
+    }
+
+    @Override
+    public synchronized void getItemsInCategory(String category, Consumer<? super InventoryItem> consumer) {
+        Integer categoryId = categoryIdByName.get(category);
+        if (categoryId == null)
+            return;
+        BitSet slots = slotsByCategory.get(categoryId);
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            consumer.accept(itemAt(slot));
+        }
+    }
+
+    @Override
+    public synchronized List<String> getCategories() {
+        List<String> categories = new ArrayList<>();
+        for (String name : categoryNames) {
+            if (name != null)
+                categories.add(name);
+        }
+        return categories;
+    }
+
+    @Override
+    public synchronized boolean addCategory(String name) {
+        if (!defineCategory(name))
+            return false;
+        audit("CATEGORY_ADD", name);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean renameCategory(String name, String newName) {
+        Integer categoryId = categoryIdByName.get(name);
+        if (categoryId == null || categoryIdByName.containsKey(newName))
+            return false;
+        categoryIdByName.remove(name);
+        categoryIdByName.put(newName, categoryId);
+        categoryNames.set(categoryId, newName);
+        renameCategorySketches(name, newName);
+        promotions.replaceAll(promotion -> name.equals(promotion.category) ? promotion.withCategory(newName) : promotion);
+        promotionsChanged();
+        List<InventoryItem> items = new ArrayList<>(itemCount);
+        getAllItems(items::add);
+        fireItemsReset(items);
+        audit("CATEGORY_RENAME", name, newName);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean deleteCategory(String name) {
+        Integer categoryId = categoryIdByName.get(name);
+        if (categoryId == null || !slotsByCategory.get(categoryId).isEmpty())
+            return false;
+        categoryIdByName.remove(name);
+        categoryNames.set(categoryId, null);
+        promotions.removeIf(promotion -> name.equals(promotion.category));
+        promotionsChanged();
+        audit("CATEGORY_DELETE", name);
+        return true;
+    }
+
+    @Override
+    public synchronized List<Promotion> getPromotions() {
+        return new ArrayList<>(promotions);
+    }
+
+    @Override
+    public synchronized Promotion addPromotion(Promotion promotion) {
+        categoryId(promotion.category); // Defines a new category, as the database does
+        Promotion added = promotion.withId(promotion.promotionId > 0 ? promotion.promotionId : nextPromotionId);
+        nextPromotionId = Math.max(nextPromotionId, added.promotionId + 1);
+        int at = 0;
+        while (at < promotions.size() && promotions.get(at).promotionId < added.promotionId) {
+            at++;
+        }
+        promotions.add(at, added);
+        promotionsChanged();
+        auditPromotion(added);
+        return added;
+    }
+
+    @Override
+    public synchronized boolean deletePromotion(int promotionId) {
+        if (!promotions.removeIf(promotion -> promotion.promotionId == promotionId))
+            return false;
+        promotionsChanged();
+        audit("PROMOTION_DELETE", promotionId);
+        return true;
+    }
+
+    @Override
+    public void recordSale(String itemId, int quantitySold, double priceSold, String date) {
+        recordSales(List.of(new SaleLine(itemId, quantitySold, priceSold, date)));
+    }
+
+    @Override
+    public void recordSales(List<SaleLine> sales) {
+        synchronized (this) {
+            applySales(sales);
+        }
+        fireSalesApplied();
+    }
+
+    @Override
+    public String recordSalesIfInStock(List<SaleLine> sales) {
+        synchronized (this) {
+            String shortItem = firstShortItem(sales);
+            if (shortItem != null)
+                return shortItem;
+            applySales(sales);
+        }
+        fireSalesApplied();
+        return null;
+    }
+
+    private void applySales(List<SaleLine> sales) {
+        Map<String, SalesVelocity> velocityUpdates = new HashMap<>();
+        Map<List<String>, SaleDistribution> sketchUpdates = new HashMap<>();
+        for (SaleLine line : sales) {
+            if (saleCount == saleItemIds.length) {
+                int capacity = saleCount * 2;
+                saleItemIds = Arrays.copyOf(saleItemIds, capacity);
+                saleQuantities = Arrays.copyOf(saleQuantities, capacity);
+                salePrices = Arrays.copyOf(salePrices, capacity);
+                saleDates = Arrays.copyOf(saleDates, capacity);
+                salesByDate = Arrays.copyOf(salesByDate, capacity);
+            }
+            int sale = saleCount;
+            saleItemIds[sale] = line.itemId;
+            saleQuantities[sale] = line.quantity;
+            salePrices[sale] = line.price;
+            saleDates[sale] = line.date;
+            // Usually today's date, so this lands at the end; back-dated sales shift the later ones
+            int at = salesFrom(line.date, sale);
+            System.arraycopy(salesByDate, at, salesByDate, at + 1, saleCount - at);
+            salesByDate[at] = sale;
+            saleCount++;
+            advanceVelocity(velocityUpdates, line.itemId, line.date, line.quantity);
+            audit("SALE", firstSaleId + sale, line.itemId, line.quantity, line.price, line.date);
+
+            Integer slot = slotById.get(line.itemId);
+            advanceSketches(sketchUpdates, line.itemId, slot == null ? null : categoryName(slot), line.date,
+                    line.quantity, line.price, false);
+            if (slot != null) {
+                InventoryItem before = itemAt(slot);
+                quantities[slot] -= line.quantity;
+                recordMovement(line.itemId, SALE, -line.quantity, prices[slot],
+                        LocalDate.parse(line.date).toEpochDay());
+                fireItemChanged(before, itemAt(slot));
+            }
+        }
+        velocities.putAll(velocityUpdates);
+        commitSketches(sketchUpdates);
+    }
+
+    @Override
+    public int getPendingSaleQuantity(String itemId) {
+        return 0; // Sales are applied immediately
+    }
+
+    @Override
+    public synchronized List<StockForecast> getStockForecasts() {
+        List<InventoryItem> items = new ArrayList<>(itemCount);
+        getAllItems(items::add);
+        return forecast(items);
+    }
+
+    @Override
+    public synchronized double getTotalRevenue() {
+        double total = 0.0;
+        for (int sale = 0; sale < saleCount; sale++) {
+            if (!deletedSales.get(sale))
+                total += saleQuantities[sale] * salePrices[sale];
+        }
+        return total;
+    }
+
+    // Position in salesByDate of the first sale at or after (date, slot)
+    private int salesFrom(String date, int slot) {
+        int low = 0, high = saleCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int sale = salesByDate[mid];
+            int cmp = saleDates[sale].compareTo(date);
+            if (cmp < 0 || (cmp == 0 && sale < slot))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    @Override
+    public synchronized boolean getMonthlyRevenueSummary(int year, Consumer<? super MonthlyRevenue> consumer) {
+        String prefix = year > 0 ? String.valueOf(year) : "";
+        // Only the year's range of the date order; '.' sorts right after '-', so it ends the year
+        int from = year > 0 ? salesFrom(prefix + "-", 0) : 0;
+        int to = year > 0 ? salesFrom(prefix + ".", 0) : saleCount;
+        TreeMap<String, Double> byMonth = new TreeMap<>(Comparator.reverseOrder());
+        for (int i = from; i < to; i++) {
+            int sale = salesByDate[i];
+            String date = saleDates[sale];
+            if (!deletedSales.get(sale) && date.length() >= 7)
+                byMonth.merge(date.substring(0, 7), saleQuantities[sale] * salePrices[sale], Double::sum);
+        }
+        byMonth.forEach((month, revenue) -> consumer.accept(new MonthlyRevenue(month, revenue)));
+        return true;
+    }
+
+    @Override
+    public synchronized double getTotalAnnualRevenue(int year) {
+        double total = 0.0;
+        for (int i = salesFrom(year + "-", 0), to = salesFrom(year + ".", 0); i < to; i++) {
+            int sale = salesByDate[i];
+            if (!deletedSales.get(sale))
+                total += saleQuantities[sale] * salePrices[sale];
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized boolean getDailyRevenue(Consumer<? super DailyRevenue> consumer) {
+        TreeMap<Long, Double> byDay = new TreeMap<>();
+        for (int sale = 0; sale < saleCount; sale++) {
+            if (deletedSales.get(sale))
+                continue;
+            try {
+                byDay.merge(LocalDate.parse(saleDates[sale]).toEpochDay(), saleQuantities[sale] * salePrices[sale],
+                        Double::sum);
+            } catch (DateTimeParseException e) {
+                // Not a calendar date, so it can't be placed on the time axis
+            }
+        }
+        byDay.forEach((day, revenue) -> consumer.accept(new DailyRevenue(day, revenue)));
+        return true;
+    }
+
+    /**
+     * Streams a month's sales of items that still exist in (date, sale ID) order,
+     * starting after a keyset cursor, as the database's (date, sale_id) index does.
+     * 
+     * @param yearMonth   The month and year in YYYY-MM format.
+     * @param afterDate   Date of the last sale already seen, or "" to start at the month's first sale.
+     * @param afterSaleId Sale ID of the last sale already seen, or 0.
+     * @param limit       Maximum number of sales to stream.
+     * @param consumer    Receives each sale.
+     */
+    private void salesInMonth(String yearMonth, String afterDate, int afterSaleId, int limit,
+            Consumer<SaleRecord> consumer) {
+        int from = salesFrom(yearMonth, 0);
+        if (afterDate.compareTo(yearMonth) >= 0)
+            from = Math.max(from, salesFrom(afterDate, afterSaleId - firstSaleId + 1));
+        int to = salesFrom(nextMonth(yearMonth), 0);
+        for (int i = from, streamed = 0; i < to && streamed < limit; i++) {
+            int sale = salesByDate[i];
+            Integer slot = slotById.get(saleItemIds[sale]);
+            if (deletedSales.get(sale) || slot == null)
+                continue;
+            consumer.accept(new SaleRecord(firstSaleId + sale, saleItemIds[sale], names[slot], saleQuantities[sale],
+                    salePrices[sale], saleDates[sale]));
+            streamed++;
+        }
+    }
+
+    @Override
+    public synchronized boolean getIndividualSalesForMonth(String yearMonth, Consumer<? super SaleRecord> consumer) {
+        salesInMonth(yearMonth, "", 0, Integer.MAX_VALUE, consumer::accept);
+        return true;
+    }
+
+    @Override
+    public synchronized List<SaleRecord> getIndividualSalesPage(String yearMonth, String afterDate, int afterSaleId,
+            int limit) {
+        List<SaleRecord> page = new ArrayList<>(Math.min(limit, 1024));
+        salesInMonth(yearMonth, afterDate, afterSaleId, limit, page::add);
+        return page;
+    }
+
+    @Override
+    public synchronized double[] getMonthSalesTotals(String yearMonth) {
+        double[] totals = { 0, 0 };
+        salesInMonth(yearMonth, "", 0, Integer.MAX_VALUE, sale -> {
+            totals[0]++;
+            totals[1] += sale.quantitySold * sale.priceSold;
+        });
+        return totals;
+    }
+
+    @Override
+    public synchronized void resetRevenue() {
+        firstSaleId += saleCount;
+        Arrays.fill(saleItemIds, 0, saleCount, null);
+        Arrays.fill(saleDates, 0, saleCount, null);
+        saleCount = 0;
+        deletedSales.clear();
+        velocities.clear();
+        saleSketches.clear();
+        audit("REVENUE_RESET");
+    }
+
+    @Override
+    public synchronized void deleteSale(int saleId) {
+        int sale = saleId - firstSaleId;
+        if (sale < 0 || sale >= saleCount || deletedSales.get(sale))
+            return;
+        deletedSales.set(sale);
+        // Take the sale back out of its item's velocity, as a sale of negative quantity
+        Map<String, SalesVelocity> velocityUpdates = new HashMap<>();
+        advanceVelocity(velocityUpdates, saleItemIds[sale], saleDates[sale], -saleQuantities[sale]);
+        velocities.putAll(velocityUpdates);
+        Integer slot = slotById.get(saleItemIds[sale]);
+        // Taken out of the item's current category, which is where the sale was filed unless the item has moved since
+        Map<List<String>, SaleDistribution> sketchUpdates = new HashMap<>();
+        advanceSketches(sketchUpdates, saleItemIds[sale], slot == null ? null : categoryName(slot), saleDates[sale],
+                saleQuantities[sale], salePrices[sale], true);
+        commitSketches(sketchUpdates);
+        if (slot != null) {
+            InventoryItem before = itemAt(slot);
+            quantities[slot] += saleQuantities[sale];
+            // On the sale's day, so the stock history reads as if the sale never happened
+            recordMovement(before.id, SALE_DELETE, saleQuantities[sale], before.price,
+                    LocalDate.parse(saleDates[sale]).toEpochDay());
+            fireItemChanged(before, itemAt(slot));
+        }
+        audit("SALE_DELETE", saleId, saleItemIds[sale], saleQuantities[sale], saleDates[sale]);
+    }
+
+    private void recordMovement(String itemId, String kind, int delta, double price, long epochDay) {
+        if (movementCount == movementItemIds.length) {
+            int capacity = movementCount * 2;
+            movementItemIds = Arrays.copyOf(movementItemIds, capacity);
+            movementKinds = Arrays.copyOf(movementKinds, capacity);
+            movementDeltas = Arrays.copyOf(movementDeltas, capacity);
+            movementPrices = Arrays.copyOf(movementPrices, capacity);
+            movementDays = Arrays.copyOf(movementDays, capacity);
+            movementMaxDays = Arrays.copyOf(movementMaxDays, capacity);
+        }
+        int movement = movementCount++;
+        movementItemIds[movement] = itemId;
+        movementKinds[movement] = kind;
+        movementDeltas[movement] = delta;
+        movementPrices[movement] = price;
+        movementDays[movement] = epochDay;
+        movementMaxDays[movement] = movement == 0 ? epochDay : Math.max(movementMaxDays[movement - 1], epochDay);
+    }
+
+    // Stock levels after the first count movements: the latest snapshot at or before it, then the rest
+    private Map<String, StockLevel> ledgerState(int count) {
+        Map<String, StockLevel> levels = new HashMap<>();
+        Map.Entry<Integer, Map<String, StockLevel>> snapshot = snapshots.floorEntry(count);
+        int from = 0;
+        if (snapshot != null) {
+            from = snapshot.getKey();
+            snapshot.getValue().forEach((id, level) -> levels.put(id, new StockLevel(level.quantity, level.price)));
+        }
+        for (int movement = from; movement < count; movement++) {
+            applyMovement(levels, movementItemIds[movement], movementKinds[movement], movementDeltas[movement],
+                    movementPrices[movement]);
+        }
+        return levels;
+    }
+
+    @Override
+    public synchronized List<StockPosition> getStockAsOf(LocalDate day) {
+        // Every movement before the first one past the day's end, found by binary search on the running
+        // latest day, then the back-dated movements recorded after it that still fall on or before the day
+        long epochDay = day.toEpochDay();
+        int low = 0, high = movementCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (movementMaxDays[mid] <= epochDay)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        Map<String, StockLevel> levels = ledgerState(low);
+        for (int movement = low; movement < movementCount; movement++) {
+            if (movementDays[movement] <= epochDay)
+                applyMovement(levels, movementItemIds[movement], movementKinds[movement], movementDeltas[movement],
+                        movementPrices[movement]);
+        }
+        return toPositions(levels);
+    }
+
+    @Override
+    public synchronized void takeStockSnapshot() {
+        int snapshotted = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+        if (movementCount - snapshotted >= SNAPSHOT_INTERVAL)
+            snapshots.put(movementCount, ledgerState(movementCount));
+    }
+
+    @Override
+    public synchronized List<StockDrift> checkStockConsistency() {
+        List<InventoryItem> items = new ArrayList<>(itemCount);
+        getAllItems(items::add);
+        return findDrift(ledgerState(movementCount), items);
+    }
+
+    @Override
+    public synchronized String authenticate(String username, String password) {
+        String[] user = users.get(username);
+        return user != null && user[0].equals(password) ? user[1] : null;
+    }
+}
+
+// Write-ahead journal for sales. A sale is acknowledged after one append to a memory-mapped,
+// checksummed file; a background writer then drains entries into the sales/items tables in
+// group-committed batches. Entries still in the file after a crash are replayed on startup.
+//
+// The file is a ring: a header holds where the oldest uncommitted record starts, and once the
+// records before it are committed their space is reused from the start of the file. A record
+// that wraps is linked in by a WRAP marker where the previous one ended, so records always read
+// back in sequence order, and tills only wait when the uncommitted records fill the whole file.
+class SaleJournal {
+    private static final int CAPACITY = 4 * 1024 * 1024; // ~100k uncommitted sales before tills must wait
+    private static final int MAX_BATCH = 512; // Sales per transaction
+    private static final long RETRY_MILLIS = 1000;
+    // Header: [int MAGIC][int offset of the oldest uncommitted record]. Files from before the ring
+    // have no header and hold their records from offset 0.
+    private static final int MAGIC = 0x524A524E;
+    private static final int START_OFFSET = 4;
+    private static final int HEADER_BYTES = 8;
+    private static final int WRAP = -1; // In place of a record length: the next record is at HEADER_BYTES
+
+    // A journaled sale; record layout is [int bodyLength][body][int crc32(body)]
+    static class Entry {
+        final long seq;
+        final String itemId;
+        final int quantity;
+        final double price;
+        final String date;
+        int position; // Where the record starts in the file, while it is pending
+
+        Entry(long seq, String itemId, int quantity, double price, String date) {
+            this.seq = seq;
+            this.itemId = itemId;
+            this.quantity = quantity;
+            this.price = price;
+            this.date = date;
+        }
+    }
+
+    private final DatabaseManager db;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final boolean syncEachAppend;
+    private final CRC32 crc = new CRC32();
+    private final ArrayDeque<Entry> pending = new ArrayDeque<>(); // Appended but not yet committed
+    private final Map<String, Integer> pendingQuantities = new HashMap<>();
+    private final Thread writer;
+    private long nextSeq;
+    private int writePos;
+    private boolean running = true;
+
+    private SaleJournal(File file, DatabaseManager db, boolean syncEachAppend) throws IOException {
+        this.db = db;
+        this.syncEachAppend = syncEachAppend;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, CAPACITY);
+        this.writer = new Thread(this::drainLoop, "RevUp-SaleJournal");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Opens the journal, replays any sales that did not reach the database before
+     * the last shutdown or crash, and starts the background writer.
+     * 
+     * @param file           Journal file, created if missing.
+     * @param db             Database the journaled sales are applied to.
+     * @param syncEachAppend Whether each append is also forced to disk. Without it a
+     *                       sale survives an application crash but not a power cut.
+     * @return The open journal.
+     */
+    static SaleJournal open(File file, DatabaseManager db, boolean syncEachAppend) throws IOException, SQLException {
+        SaleJournal journal = new SaleJournal(file, db, syncEachAppend);
+        long applied = db.getJournalAppliedSeq();
+        List<Entry> entries = journal.scan();
+        List<Entry> unapplied = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.seq > applied)
+                unapplied.add(entry);
+        }
+        db.applyJournaledSales(unapplied);
+
+        long lastSeq = entries.isEmpty() ? applied : Math.max(applied, entries.get(entries.size() - 1).seq);
+        journal.nextSeq = lastSeq + 1;
+        journal.rewind();
+        journal.buffer.force();
+        journal.writer.start();
+        return journal;
+    }
+
+    // Reads back all intact records from the oldest uncommitted one, following a wrap, and stopping at the
+    // end marker, a torn record, or stale data
+    private List<Entry> scan() {
+        List<Entry> entries = new ArrayList<>();
+        boolean ring = buffer.getInt(0) == MAGIC;
+        int pos = ring ? buffer.getInt(START_OFFSET) : 0;
+        if (ring && (pos < HEADER_BYTES || pos > CAPACITY - 4))
+            return entries;
+        boolean wrapped = false;
+        long lastSeq = Long.MIN_VALUE;
+        while (pos + 4 <= CAPACITY) {
+            int bodyLength = buffer.getInt(pos);
+            if (bodyLength == WRAP && ring && !wrapped) {
+                wrapped = true; // The live records wrap around at most once
+                pos = HEADER_BYTES;
+                continue;
+            }
+            if (bodyLength <= 0 || pos + 8 + bodyLength > CAPACITY)
+                break;
+            ByteBuffer body = buffer.slice(pos + 4, bodyLength);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(pos + 4 + bodyLength))
+                break; // Torn write from a crash mid-append
+            body.rewind();
+            long seq = body.getLong();
+            if (seq <= lastSeq)
+                break; // Left over from before the file was last rewound
+            String itemId = readString(body);
+            int quantity = body.getInt();
+            double price = body.getDouble();
+            String date = readString(body);
+            entries.add(new Entry(seq, itemId, quantity, price, date));
+            lastSeq = seq;
+            pos += 8 + bodyLength;
+        }
+        return entries;
+    }
+
+    /**
+     * Appends a sale to the journal. Returns once the sale is in the mapped file;
+     * it reaches the database shortly afterwards on the writer thread.
+     */
+    public void append(String itemId, int quantity, double price, String date) {
+        appendAll(List.of(new SaleLine(itemId, quantity, price, date)));
+    }
+
+    // Appends sales back to back under one lock, so no other sale lands between them
+    public void appendAll(List<SaleLine> sales) {
+        byte[][] ids = new byte[sales.size()][];
+        byte[][] days = new byte[sales.size()][];
+        for (int i = 0; i < sales.size(); i++) {
+            ids[i] = sales.get(i).itemId.getBytes(StandardCharsets.UTF_8);
+            days[i] = sales.get(i).date.getBytes(StandardCharsets.UTF_8);
+            if (ids[i].length > Short.MAX_VALUE || days[i].length > Short.MAX_VALUE)
+                throw new IllegalArgumentException("Item ID or date too long for the sale journal");
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < sales.size(); i++) {
+                SaleLine sale = sales.get(i);
+                byte[] id = ids[i];
+                byte[] day = days[i];
+                int bodyLength = 8 + 2 + id.length + 4 + 8 + 2 + day.length;
+                int at = reserve(8 + bodyLength);
+
+                long seq = nextSeq++;
+                int bodyStart = at + 4;
+                buffer.position(bodyStart);
+                buffer.putLong(seq).putShort((short) id.length).put(id).putInt(sale.quantity).putDouble(sale.price)
+                        .putShort((short) day.length).put(day);
+                crc.reset();
+                crc.update(buffer.slice(bodyStart, bodyLength));
+                buffer.putInt((int) crc.getValue());
+                buffer.putInt(buffer.position(), 0); // End marker
+                buffer.putInt(at, bodyLength); // Length goes in last, so a half-written record is never read
+                if (syncEachAppend)
+                    buffer.force(at, 8 + bodyLength + 4);
+                if (at != writePos) {
+                    buffer.putInt(writePos, WRAP); // Links the wrapped record in, now that it is complete
+                    if (syncEachAppend)
+                        buffer.force(writePos, 4);
+                }
+                writePos = at + 8 + bodyLength;
+
+                Entry entry = new Entry(seq, sale.itemId, sale.quantity, sale.price, sale.date);
+                entry.position = at;
+                pending.addLast(entry);
+                pendingQuantities.merge(sale.itemId, sale.quantity, Integer::sum);
+            }
+            notifyAll();
+        }
+    }
+
+    // Where the next record of the given length goes, keeping room for the end marker after it: after the
+    // last record, or at the start once the committed records there are free. Waits for the writer if the
+    // uncommitted records leave no room. Caller holds the lock.
+    private int reserve(int length) {
+        while (true) {
+            if (!running)
+                throw new IllegalStateException("Sale journal is closed");
+            int oldest = pending.isEmpty() ? writePos : pending.peekFirst().position;
+            if (writePos >= oldest) { // Uncommitted records, if any, run from oldest up to writePos
+                if (writePos + length + 4 <= CAPACITY)
+                    return writePos;
+                if (HEADER_BYTES + length + 4 <= oldest)
+                    return HEADER_BYTES;
+            } else if (writePos + length + 4 <= oldest) { // Already wrapped; they run on from oldest to the end
+                return writePos;
+            }
+            notifyAll(); // Let the writer drain what this batch has appended so far
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for sale journal space", e);
+            }
+        }
+    }
+
+    // Quantity of an item appended but not yet committed to the database
+    public synchronized int pendingQuantity(String itemId) {
+        return pendingQuantities.getOrDefault(itemId, 0);
+    }
+
+    // Writer thread: commits whatever has accumulated since the previous commit as one batch
+    private void drainLoop() {
+        while (true) {
+            List<Entry> batch = new ArrayList<>();
+            synchronized (this) {
+                while (running && pending.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.isEmpty())
+                    return; // Closed and fully drained
+                for (Entry entry : pending) {
+                    if (batch.size() == MAX_BATCH)
+                        break;
+                    batch.add(entry);
+                }
+            }
+
+            try {
+                db.background("applyJournaledSales", () -> db.applyJournaledSales(batch), batch.size());
+            } catch (SQLException e) {
+                e.printStackTrace(); // Entries stay journaled and are retried
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+
+            synchronized (this) {
+                for (Entry entry : batch) {
+                    pending.removeFirst();
+                    pendingQuantities.computeIfPresent(entry.itemId,
+                            (k, qty) -> qty == entry.quantity ? null : qty - entry.quantity);
+                }
+                if (pending.isEmpty()) {
+                    rewind(); // Everything is in the database, so the file can be reused from the start
+                } else {
+                    buffer.putInt(START_OFFSET, pending.peekFirst().position); // Frees the committed records
+                    if (syncEachAppend)
+                        buffer.force(0, HEADER_BYTES); // Before appends reuse the space it frees
+                }
+                notifyAll();
+            }
+            db.fireSalesApplied();
+        }
+    }
+
+    private void rewind() {
+        writePos = HEADER_BYTES;
+        buffer.putInt(HEADER_BYTES, 0);
+        buffer.putInt(START_OFFSET, HEADER_BYTES);
+        buffer.putInt(0, MAGIC);
+        if (syncEachAppend)
+            buffer.force(0, HEADER_BYTES + 4);
+    }
+
+    // Stops accepting sales, waits for the writer to drain what is pending, and closes the file
+    public void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        try {
+            writer.join(5000);
+            buffer.force();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getShort()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// Tails the sale logs that older tills write into a shared folder and applies them as sales.
+// Each line is "itemId,quantity,price,date" with the date as YYYY-MM-DD; blank lines, lines
+// starting with # and a header line are skipped. Lines are applied in batched transactions
+// together with the file's byte offset, so after a restart every file resumes exactly after its
+// last applied line. A line is only read once its newline is there, so a till still writing it
+// is never cut short. The offset is kept with a checksum of the file's first bytes, so a log
+// replaced by another of the same name is read from the start instead of resumed part-way in.
+class SaleLogIngestor {
+    static final int BATCH_LINES = 5000; // Lines per transaction
+    static final int HEAD_BYTES = 4096; // Bytes at the start of a log whose checksum identifies it
+    static final long UNKNOWN_CRC = -1; // No CRC-32 is negative
+    private static final int READ_BUFFER_BYTES = 1 << 20;
+    private static final long RESCAN_MILLIS = 5000; // Network shares may never deliver watch events
+
+    // How far a log has been applied, and the CRC-32 of its first min(offset, HEAD_BYTES) bytes
+    static class Progress {
+        final long offset;
+        final long headCrc;
+
+        Progress(long offset, long headCrc) {
+            this.offset = offset;
+            this.headCrc = headCrc;
+        }
+    }
+
+    private final DatabaseManager db;
+    private final Path dir;
+    private final PathMatcher matcher;
+    private final Map<String, Progress> offsets; // By file name; only the worker touches it
+    private final ByteBuffer headBuffer = ByteBuffer.allocate(HEAD_BYTES);
+    private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+    private final WatchService watcher;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * Prepares to watch a directory; nothing is read until start is called.
+     * 
+     * @param db   The database the sales are applied to.
+     * @param dir  The folder the tills write their logs into.
+     * @param glob File names to ingest, e.g. "*.{csv,txt,log}".
+     * @throws IOException  If the directory cannot be watched.
+     * @throws SQLException If the applied offsets cannot be read.
+     */
+    public SaleLogIngestor(DatabaseManager db, Path dir, String glob) throws IOException, SQLException {
+        this.db = db;
+        this.dir = dir;
+        this.matcher = dir.getFileSystem().getPathMatcher("glob:" + glob);
+        this.offsets = db.getIngestOffsets();
+        this.watcher = dir.getFileSystem().newWatchService();
+        dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.worker = new Thread(this::run, "RevUp-SaleLogIngest");
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        worker.start();
+    }
+
+    // Stops watching; a batch already being applied is allowed to commit
+    public void stop() {
+        running = false;
+        try {
+            watcher.close(); // Wakes the worker from its poll
+            worker.join();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        ingestAll(); // Catch up on whatever was written while the app was down
+        long nextScan = System.currentTimeMillis() + RESCAN_MILLIS;
+        while (running) {
+            try {
+                WatchKey key = watcher.poll(RESCAN_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                            ingestAll();
+                        else
+                            ingest(dir.resolve((Path) event.context()));
+                    }
+                    key.reset();
+                }
+                if (System.currentTimeMillis() >= nextScan) {
+                    ingestAll();
+                    nextScan = System.currentTimeMillis() + RESCAN_MILLIS;
+                }
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void ingestAll() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (!running)
+                    return;
+                ingest(file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Applies the complete lines a file has gained since its last applied offset
+    private void ingest(Path file) {
+        String name = file.getFileName().toString();
+        if (!matcher.matches(file.getFileName()) || !Files.isRegularFile(file))
+            return;
+        Progress progress = offsets.get(name);
+        long applied = progress == null ? 0 : progress.offset;
+        int rejected = 0;
+        String firstRejection = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < applied) {
+                System.err.println("Sale log " + name + " is shorter than the " + applied
+                        + " bytes already applied; reading it again from the start");
+                applied = 0;
+            } else if (applied > 0 && progress.headCrc != UNKNOWN_CRC
+                    && headCrc(channel, applied) != progress.headCrc) {
+                // Checked before the size, as a new file may be as long as the old one was or longer
+                System.err.println("Sale log " + name + " starts differently from the one applied before; "
+                        + "reading it as a new log from the start");
+                applied = 0;
+            }
+            if (channel.size() == applied)
+                return;
+            channel.position(applied);
+            buffer.clear();
+            List<SaleLine> batch = new ArrayList<>();
+            long bufferStart = applied; // File offset of the first byte in the buffer
+            while (running && channel.read(buffer) > 0) {
+                buffer.flip();
+                byte[] bytes = buffer.array();
+                int lineStart = 0;
+                for (int i = 0; i < buffer.limit(); i++) {
+                    if (bytes[i] != '\n')
+                        continue;
+                    String line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8).trim();
+                    long lineOffset = bufferStart + lineStart;
+                    lineStart = i + 1;
+                    if (line.isEmpty() || line.startsWith("#"))
+                        continue;
+                    SaleLine sale = parse(line);
+                    if (sale == null) {
+                        if (lineOffset > 0) { // The first line of a file may be a header
+                            rejected++;
+                            if (firstRejection == null)
+                                firstRejection = "byte " + lineOffset + ": " + line;
+                        }
+                        continue;
+                    }
+                    batch.add(sale);
+                    if (batch.size() == BATCH_LINES) {
+                        applied = apply(name, channel, bufferStart + lineStart, batch);
+                        batch = new ArrayList<>();
+                    }
+                }
+                if (lineStart == 0 && buffer.limit() == buffer.capacity())
+                    throw new IOException("Line at byte " + bufferStart + " is longer than " + READ_BUFFER_BYTES + " bytes");
+                bufferStart += lineStart;
+                buffer.position(lineStart);
+                buffer.compact(); // Keep the incomplete last line for the next read
+            }
+            if (bufferStart > applied)
+                applied = apply(name, channel, bufferStart, batch);
+        } catch (IOException | SQLException e) {
+            System.err.println("Sale log " + name + " stopped at byte " + applied + ": " + e.getMessage());
+        }
+        if (rejected > 0)
+            System.err.println("Sale log " + name + ": skipped " + rejected + " invalid line(s), first at " + firstRejection);
+    }
+
+    private long apply(String name, FileChannel channel, long offset, List<SaleLine> batch)
+            throws IOException, SQLException {
+        Progress progress = new Progress(offset, headCrc(channel, offset));
+        db.background("applyIngestedSales", () -> db.applyIngestedSales(name, progress, batch), name, progress.offset,
+                progress.headCrc, batch);
+        offsets.put(name, progress); // Only once committed
+        return offset;
+    }
+
+    // CRC-32 of the file's first min(length, HEAD_BYTES) bytes, read without moving the channel's position
+    private long headCrc(FileChannel channel, long length) throws IOException {
+        headBuffer.clear().limit((int) Math.min(length, HEAD_BYTES));
+        while (headBuffer.hasRemaining()) {
+            if (channel.read(headBuffer, headBuffer.position()) < 0)
+                break;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(headBuffer.array(), 0, headBuffer.position());
+        return crc.getValue();
+    }
+
+    // Parses "itemId,quantity,price,date", or returns null if the line is not a valid sale of a known item
+    private SaleLine parse(String line) {
+        String[] fields = line.split(",");
+        if (fields.length != 4)
+            return null;
+        try {
+            String itemId = fields[0].trim();
+            int quantity = Integer.parseInt(fields[1].trim());
+            double price = Double.parseDouble(fields[2].trim());
+            String date = LocalDate.parse(fields[3].trim()).toString();
+            if (quantity <= 0 || price < 0 || db.getLowStockIndex().get(itemId) == null)
+                return null;
+            return new SaleLine(itemId, quantity, price, date);
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return null;
+        }
+    }
+}
+
+// Stock-take reconciliation. Counted quantities come from CSV exports ("itemId,quantity") or scanner
+// sessions (one scanned ID per line, each one unit), in any order and with repeats. They are sorted
+// on disk in bounded runs, merged by item ID, and walked in step with the store's items paged in the
+// same order, so memory stays constant however large the catalog and the count.
+class CycleCount {
+    static final int RUN_ENTRIES = 100_000; // Distinct IDs summed and sorted in memory per run
+    static final int PAGE_SIZE = 1000; // Items read from the store at a time
+
+    // The order SQLite's BINARY collation gives item IDs (UTF-8 bytes, i.e. code points), which the
+    // stores page in; String.compareTo differs for characters outside the BMP
+    static final Comparator<String> ID_ORDER = (a, b) -> {
+        int i = 0, j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i), cb = b.codePointAt(j);
+            if (ca != cb)
+                return Integer.compare(ca, cb);
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    };
+
+    // What a reconciliation found
+    static class Result {
+        int itemsCompared; // Items in the store
+        int itemsCounted; // Of those, the ones in the count
+        int variances; // Items whose count differs from their system quantity
+        int unknownIds; // Counted IDs with no item
+        long unitsOver, unitsShort; // Units counted above and below the system quantities
+        double valueOver, valueShort; // The same at the items' prices
+        // When asked for and there are variances, a temporary file of the corrections for
+        // InventoryStore.adjustStock: counted minus system quantity of each varying item, in ID order
+        Path adjustments;
+    }
+
+    /**
+     * Compares counted stock with the store's quantities and writes a variance
+     * report as CSV: one line per item whose count differs and per counted ID
+     * that is not an item. The system quantity leaves out sales still waiting in
+     * the journal, as those units have left the shelf.
+     * 
+     * @param store       The store whose quantities are checked.
+     * @param countFiles  CSV exports and scanner sessions, in any order.
+     * @param fullCount   True if every item was counted, so items missing from the
+     *                    count have none; false for a partial count, which only
+     *                    checks the items it contains.
+     * @param report      Where the variance report is written.
+     * @param adjustments True to also write the corrections to a temporary file
+     *                    for InventoryStore.adjustStock, as they are found.
+     * @return Totals of the comparison.
+     * @throws IOException If a count file is unreadable or has an invalid
+     *                     quantity, or the report cannot be written.
+     */
+    static Result reconcile(InventoryStore store, List<File> countFiles, boolean fullCount, File report,
+            boolean adjustments) throws IOException {
+        Result result = new Result();
+        Path tempDir = Files.createTempDirectory("revup-count");
+        Path adjustmentFile = null;
+        Writer corrections = null;
+        try (Writer out = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(report), StandardCharsets.UTF_8))) {
+            if (adjustments) {
+                // Outlives the reconciliation, until the user decides whether to apply it
+                adjustmentFile = Files.createTempFile("revup-adjustments", ".txt");
+                adjustmentFile.toFile().deleteOnExit();
+                corrections = Files.newBufferedWriter(adjustmentFile, StandardCharsets.UTF_8);
+            }
+            List<Path> runs = writeRuns(countFiles, tempDir);
+            out.write("item_id,name,system_quantity,counted_quantity,variance,variance_value\n");
+            try (MergedCounts counts = new MergedCounts(runs)) {
+                String afterId = "";
+                List<InventoryItem> page;
+                do {
+                    page = store.getItemsPage(afterId, PAGE_SIZE);
+                    for (InventoryItem item : page) {
+                        while (counts.id != null && ID_ORDER.compare(counts.id, item.id) < 0) {
+                            result.unknownIds++;
+                            writeLine(out, counts.id, "(unknown item)", null, counts.quantity, null);
+                            counts.next();
+                        }
+                        result.itemsCompared++;
+                        Integer counted = null;
+                        if (counts.id != null && counts.id.equals(item.id)) {
+                            counted = counts.quantity;
+                            result.itemsCounted++;
+                            counts.next();
+                        } else if (fullCount) {
+                            counted = 0;
+                        }
+                        int system = item.quantity - store.getPendingSaleQuantity(item.id);
+                        if (counted == null || counted == system)
+                            continue;
+                        int variance = counted - system;
+                        result.variances++;
+                        if (variance > 0) {
+                            result.unitsOver += variance;
+                            result.valueOver += variance * item.price;
+                        } else {
+                            result.unitsShort -= variance;
+                            result.valueShort -= variance * item.price;
+                        }
+                        if (corrections != null)
+                            writeEntry(corrections, item.id, variance);
+                        writeLine(out, item.id, item.name, system, counted, variance * item.price);
+                    }
+                    if (!page.isEmpty())
+                        afterId = page.get(page.size() - 1).id;
+                } while (page.size() == PAGE_SIZE);
+                for (; counts.id != null; counts.next()) {
+                    result.unknownIds++;
+                    writeLine(out, counts.id, "(unknown item)", null, counts.quantity, null);
+                }
+            }
+            if (corrections != null) {
+                corrections.close();
+                corrections = null;
+                if (result.variances > 0) {
+                    result.adjustments = adjustmentFile;
+                    adjustmentFile = null;
+                }
+            }
+        } finally {
+            if (corrections != null)
+                corrections.close();
+            if (adjustmentFile != null)
+                Files.deleteIfExists(adjustmentFile); // Failed, or nothing to correct
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(tempDir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(tempDir);
+        }
+        return result;
+    }
+
+    // Reads the count files into runs of at most RUN_ENTRIES IDs, each summed by ID and written sorted
+    // as "id<TAB>quantity" lines
+    private static List<Path> writeRuns(List<File> countFiles, Path tempDir) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        TreeMap<String, Integer> run = new TreeMap<>(ID_ORDER);
+        for (File file : countFiles) {
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                int lineNumber = 0;
+                while ((line = in.readLine()) != null) {
+                    lineNumber++;
+                    line = line.strip();
+                    if (line.isEmpty() || line.startsWith("#"))
+                        continue;
+                    int comma = line.lastIndexOf(',');
+                    String id = unquote(comma < 0 ? line : line.substring(0, comma));
+                    int quantity = 1; // A scanned ID is one unit
+                    if (comma >= 0) {
+                        try {
+                            quantity = Integer.parseInt(line.substring(comma + 1).strip());
+                        } catch (NumberFormatException e) {
+                            if (lineNumber == 1)
+                                continue; // Header
+                            quantity = -1;
+                        }
+                    }
+                    if (quantity < 0 || id.isEmpty())
+                        throw new IOException("Invalid count on line " + lineNumber + " of " + file.getName());
+                    run.merge(id, quantity, Integer::sum);
+                    if (run.size() == RUN_ENTRIES)
+                        runs.add(writeRun(run, tempDir));
+                }
+            }
+        }
+        if (!run.isEmpty())
+            runs.add(writeRun(run, tempDir));
+        return runs;
+    }
+
+    private static Path writeRun(TreeMap<String, Integer> run, Path tempDir) throws IOException {
+        Path file = Files.createTempFile(tempDir, "run", ".txt");
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Integer> entry : run.entrySet()) {
+                writeEntry(out, entry.getKey(), entry.getValue());
+            }
+        }
+        run.clear();
+        return file;
+    }
+
+    // One "id<TAB>quantity" line, the format of the runs and of the corrections file
+    static void writeEntry(Writer out, String id, int quantity) throws IOException {
+        out.write(id);
+        out.write('\t');
+        out.write(Integer.toString(quantity));
+        out.write('\n');
+    }
+
+    private static String unquote(String field) {
+        field = field.strip();
+        if (field.length() >= 2 && field.startsWith("\"") && field.endsWith("\""))
+            field = field.substring(1, field.length() - 1).replace("\"\"", "\"");
+        return field;
+    }
+
+    private static void writeLine(Writer out, String id, String name, Integer system, int counted, Double value)
+            throws IOException {
+        out.write(quote(id) + "," + quote(name) + "," + (system == null ? "" : system) + "," + counted + ","
+                + (system == null ? "" : counted - system) + "," + (value == null ? "" : String.format("%.2f", value))
+                + "\n");
+    }
+
+    private static String quote(String field) {
+        if (field == null)
+            return "";
+        if (field.contains(",") || field.contains("\"") || field.contains("\n"))
+            return "\"" + field.replace("\"", "\"\"") + "\"";
+        return field;
+    }
+
+    // Reads a file of "id<TAB>quantity" lines one entry at a time, e.g. a run or the corrections file
+    static class EntryReader implements AutoCloseable {
+        private final BufferedReader in;
+        String id;
+        int quantity;
+
+        EntryReader(Path file) throws IOException {
+            this.in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        }
+
+        boolean advance() throws IOException {
+            String line = in.readLine();
+            if (line == null)
+                return false;
+            int tab = line.lastIndexOf('\t');
+            try {
+                id = line.substring(0, tab);
+                quantity = Integer.parseInt(line.substring(tab + 1));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                throw new IOException("Invalid entry: " + line);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // K-way merge of sorted runs into one stream of (id, total quantity), smallest ID first;
+    // id is null once every run is used up
+    private static class MergedCounts implements AutoCloseable {
+        private final List<EntryReader> readers = new ArrayList<>();
+        private final PriorityQueue<EntryReader> heap = new PriorityQueue<>((a, b) -> ID_ORDER.compare(a.id, b.id));
+        String id;
+        int quantity;
+
+        MergedCounts(List<Path> runs) throws IOException {
+            try {
+                for (Path run : runs) {
+                    EntryReader reader = new EntryReader(run);
+                    readers.add(reader);
+                    if (reader.advance())
+                        heap.add(reader);
+                }
+                next();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        // Moves to the next ID, summing its quantity across the runs it appears in
+        void next() throws IOException {
+            EntryReader first = heap.poll();
+            if (first == null) {
+                id = null;
+                return;
+            }
+            id = first.id;
+            quantity = first.quantity;
+            if (first.advance())
+                heap.add(first);
+            while (!heap.isEmpty() && heap.peek().id.equals(id)) {
+                EntryReader same = heap.poll();
+                quantity += same.quantity;
+                if (same.advance())
+                    heap.add(same);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (EntryReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+}
+
+// Append-only, sequence-numbered change log of every store mutation. Callers only enqueue onto a
+// lock-free queue; a background writer numbers the entries and appends them to a text file, one
+// line each, so the log can be followed with tail -f and replayed into a fresh database.
+//
+// Line format, tab-separated with \\, \t, \n and \r escaped and \N for null:
+//   seq  time  ITEM_ADD     id name quantity price category reorderThreshold
+//   seq  time  ITEM_UPDATE  id name quantity price category reorderThreshold  (then the same six fields before)
+//   seq  time  ITEM_DELETE  id name quantity price category reorderThreshold  (as it was)
+//   seq  time  SALE         saleId itemId quantity price date
+//   seq  time  SALE_DELETE  saleId itemId quantity date
+//   seq  time  REVENUE_RESET
+//   seq  time  CATEGORY_ADD     name
+//   seq  time  CATEGORY_RENAME  name newName
+//   seq  time  CATEGORY_DELETE  name
+//   seq  time  PROMOTION_ADD     promotionId kind category amount buy free starts ends itemId...
+//   seq  time  PROMOTION_DELETE  promotionId
+//   seq  time  RESTORE      backupFile
+class AuditLog {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final File file;
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final Writer out;
+    private final Thread writer;
+    private long nextSeq;
+    private volatile boolean running = true;
+
+    private static class Entry {
+        final long millis;
+        final String op;
+        final Object[] fields;
+
+        Entry(long millis, String op, Object[] fields) {
+            this.millis = millis;
+            this.op = op;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Opens the log for appending, continuing the sequence after its last entry,
+     * and starts the writer thread.
+     * 
+     * @param file The log file; created if missing.
+     * @throws IOException If the file cannot be read or opened for appending.
+     */
+    public AuditLog(File file) throws IOException {
+        this.file = file;
+        this.nextSeq = lastSeq(file) + 1;
+        this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        writer = new Thread(this::writeLoop, "RevUp-AuditLog");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // Queues an entry; never blocks and never touches the file on the caller's thread
+    public void record(String op, Object... fields) {
+        queue.offer(new Entry(System.currentTimeMillis(), op, fields));
+    }
+
+    // Writer thread: drains the queue, flushing each burst, and naps while there is nothing to write
+    private void writeLoop() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            boolean stopping = !running; // Read before draining, so nothing queued before close() is missed
+            boolean wrote = false;
+            Entry entry;
+            try {
+                while ((entry = queue.poll()) != null) {
+                    line.setLength(0);
+                    line.append(nextSeq++).append('\t').append(Instant.ofEpochMilli(entry.millis)).append('\t')
+                            .append(entry.op);
+                    for (Object field : entry.fields) {
+                        line.append('\t');
+                        escape(line, field);
+                    }
+                    out.append(line).append('\n');
+                    wrote = true;
+                }
+                if (wrote)
+                    out.flush();
+            } catch (IOException e) {
+                e.printStackTrace(); // Keep going; the entry is lost but the store must not stall
+            }
+            if (stopping)
+                break;
+            if (!wrote)
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Writes out everything queued so far and stops the writer
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void escape(StringBuilder line, Object field) {
+        if (field == null) {
+            line.append("\\N");
+            return;
+        }
+        String value = field.toString();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> line.append("\\\\");
+                case '\t' -> line.append("\\t");
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                default -> line.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String field) {
+        if (field.equals("\\N"))
+            return null;
+        if (field.indexOf('\\') < 0)
+            return field;
+        StringBuilder value = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                value.append(switch (next) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString();
+    }
+
+    // Sequence number of the last complete line in the file, or 0 if it has none
+    private static long lastSeq(File file) throws IOException {
+        if (!file.isFile() || file.length() == 0)
+            return 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long end = raf.length();
+            int tail = (int) Math.min(end, 64 * 1024);
+            byte[] bytes = new byte[tail];
+            raf.seek(end - tail);
+            raf.readFully(bytes);
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            int lineEnd = text.lastIndexOf('\n');
+            while (lineEnd >= 0) {
+                int lineStart = text.lastIndexOf('\n', lineEnd - 1) + 1;
+                String line = text.substring(lineStart, lineEnd);
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    try {
+                        return Long.parseLong(line.substring(0, tab));
+                    } catch (NumberFormatException e) {
+                        // Partial line at the start of the tail; look further back
+                    }
+                }
+                lineEnd = lineStart - 1;
+            }
+        }
+        return 0;
+    }
+
+    private static InventoryItem readItem(String[] parts, int from) {
+        return new InventoryItem(unescape(parts[from]), unescape(parts[from + 1]), Integer.parseInt(parts[from + 2]),
+                Double.parseDouble(parts[from + 3]), unescape(parts[from + 4]), Integer.parseInt(parts[from + 5]));
+    }
+
+    /**
+     * Replays a change log into a store, which should be empty. Sale IDs match the
+     * original only if the log covers the database's whole history.
+     * 
+     * @param log    The log to replay.
+     * @param target The store to apply it to.
+     * @return The number of entries applied.
+     * @throws IOException If the log cannot be read or has a malformed line.
+     */
+    public static int replay(File log, InventoryStore target) throws IOException {
+        int applied = 0;
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(log), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty())
+                    continue;
+                String[] parts = line.split("\t", -1);
+                try {
+                    switch (parts[2]) {
+                        case "ITEM_ADD" -> target.addItem(readItem(parts, 3));
+                        case "ITEM_UPDATE" -> target.updateItem(readItem(parts, 3));
+                        case "ITEM_DELETE" -> target.deleteItem(unescape(parts[3]));
+                        case "SALE" -> target.recordSale(unescape(parts[4]), Integer.parseInt(parts[5]),
+                                Double.parseDouble(parts[6]), unescape(parts[7]));
+                        case "SALE_DELETE" -> target.deleteSale(Integer.parseInt(parts[3]));
+                        case "REVENUE_RESET" -> target.resetRevenue();
+                        case "CATEGORY_ADD" -> target.addCategory(unescape(parts[3]));
+                        case "CATEGORY_RENAME" -> target.renameCategory(unescape(parts[3]), unescape(parts[4]));
+                        case "CATEGORY_DELETE" -> target.deleteCategory(unescape(parts[3]));
+                        case "PROMOTION_ADD" -> target.addPromotion(new Promotion(Integer.parseInt(parts[3]),
+                                unescape(parts[4]), unescape(parts[5]),
+                                Arrays.stream(parts, 11, parts.length).map(AuditLog::unescape).toList(),
+                                Double.parseDouble(parts[6]), Integer.parseInt(parts[7]), Integer.parseInt(parts[8]),
+                                LocalDate.parse(parts[9]), LocalDate.parse(parts[10])));
+                        case "PROMOTION_DELETE" -> target.deletePromotion(Integer.parseInt(parts[3]));
+                        case "RESTORE" -> {
+                            // The backup's contents aren't in the log, so the replay can't follow it
+                            System.err.println("Audit replay: line " + lineNumber + " restored " + unescape(parts[3])
+                                    + "; later entries assume that backup's data");
+                            continue;
+                        }
+                        default -> throw new IOException("Unknown operation " + parts[2]);
+                    }
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException | DateTimeParseException e) {
+                    throw new IOException("Malformed audit log line " + lineNumber + ": " + e.getMessage(), e);
+                }
+                applied++;
+            }
+        }
+        return applied;
+    }
+}
+
+// Opt-in recorder of the calls made on a store: each call's method, arguments, start and duration go
+// to a compact binary trace that WorkloadReplay re-executes against a copy of the database. As a
+// background work listener it also records what the app does on its own threads (journal drains,
+// ingested till logs, ledger checks, maintenance and backups), so the trace holds the database's
+// whole load. A restore is not recorded; a trace that spans one cannot be replayed faithfully. As
+// with the audit log, callers only enqueue; a background writer encodes and appends.
+//
+// Trace format, after the magic bytes "RVTRACE1", one record per tag byte:
+//   SETTING name value                                how the app was set up, before any call
+//   METHOD  id name                                   before the first call of each method
+//   CALL    methodId start duration failed argCount arg...
+// Integers are varints. start is the nanoseconds since the previous call's start, zigzag-encoded
+// since calls on different threads finish out of order, and duration is in nanoseconds. Each
+// argument is a type tag and its value; a string is written once and then referred to by index, so
+// repeated item IDs and dates take a byte or two.
+class WorkloadRecorder implements BackgroundWorkListener {
+    static final byte[] MAGIC = "RVTRACE1".getBytes(StandardCharsets.US_ASCII);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    // Record tags
+    static final int METHOD = 1;
+    static final int CALL = 2;
+    static final int SETTING = 3;
+
+    // Settings
+    static final String JOURNAL = "journal"; // "off", "on", or "sync" if each append is forced to disk
+
+    // Argument tags
+    static final int NULL = 0;
+    static final int INT = 1;
+    static final int DOUBLE = 2;
+    static final int BOOLEAN = 3;
+    static final int STRING = 4; // First use of a string, which gets the next index
+    static final int STRING_REF = 5;
+    static final int DATE = 6;
+    static final int ITEM = 7;
+    static final int SALE_LINE = 8;
+    static final int PROMOTION = 9;
+    static final int LIST = 10;
+    static final int MAP = 11;
+    static final int CALLBACK = 12; // A consumer of results; replayed with one that discards them
+    static final int FILE = 13; // A file argument, e.g. stock corrections, recorded with its contents
+    static final int LONG = 14;
+
+    // Calls that only register listeners or return in-memory indexes, passed on without being recorded
+    private static final Set<String> UNRECORDED = Set.of("addItemChangeListener", "addSalesListener",
+            "addStockDriftListener", "getLowStockIndex", "getStockValuation");
+
+    private static class Call {
+        final String operation; // A store method, or work the app did on its own threads
+        final long start; // Nanoseconds since the recorder opened
+        final long duration;
+        final boolean failed;
+        final Object[] args;
+
+        Call(String operation, long start, long duration, boolean failed, Object[] args) {
+            this.operation = operation;
+            this.start = start;
+            this.duration = duration;
+            this.failed = failed;
+            this.args = args;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Call> queue = new ConcurrentLinkedQueue<>();
+    private final DataOutputStream out;
+    private final long origin = System.nanoTime();
+    private final Thread writer;
+    private volatile boolean running = true;
+    // Writer thread only
+    private final Map<String, Integer> methodIds = new HashMap<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private long lastStart;
+
+    /**
+     * Creates the trace file, replacing any earlier one, and starts the writer
+     * thread.
+     * 
+     * @param trace    Where the calls are recorded.
+     * @param settings How the app is set up, e.g. JOURNAL, for the replay to match.
+     * @throws IOException If the file cannot be created.
+     */
+    public WorkloadRecorder(File trace, Map<String, String> settings) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(trace), 1 << 16));
+        out.write(MAGIC);
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            out.writeByte(SETTING);
+            writeString(out, setting.getKey());
+            writeString(out, setting.getValue());
+        }
+        writer = new Thread(this::writeLoop, "RevUp-WorkloadTrace");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Starts recording a store. A database is first copied to the trace's name
+     * plus ".db", the starting state a replay needs, so call this before anything
+     * else uses the store; the copy is replaced if it exists.
+     * 
+     * @param trace          Where the calls are recorded.
+     * @param store          The store whose background work is recorded; calls
+     *                       are recorded through the stores that wrap returns.
+     * @param journal        The sale journal attached to the store, or null.
+     * @param syncEachAppend Whether that journal forces each append to disk.
+     * @return The recorder.
+     * @throws IOException  If the trace cannot be created.
+     * @throws SQLException If the database cannot be copied.
+     */
+    static WorkloadRecorder start(File trace, AbstractInventoryStore store, SaleJournal journal,
+            boolean syncEachAppend) throws IOException, SQLException {
+        if (store instanceof DatabaseManager db) {
+            File copy = new File(trace.getPath() + ".db");
+            Files.deleteIfExists(copy.toPath());
+            BackupScheduler.copyDatabase(db.getPath(), copy);
+        }
+        WorkloadRecorder recorder = new WorkloadRecorder(trace,
+                Map.of(JOURNAL, journal == null ? "off" : syncEachAppend ? "sync" : "on"));
+        store.addBackgroundWorkListener(recorder);
+        return recorder;
+    }
+
+    // Returns a store that passes every call on to the given one and records it; passwords are not recorded
+    public InventoryStore wrap(InventoryStore store) {
+        return (InventoryStore) Proxy.newProxyInstance(InventoryStore.class.getClassLoader(),
+                new Class<?>[] { InventoryStore.class }, (proxy, method, args) -> {
+                    if (method.getDeclaringClass() != InventoryStore.class || UNRECORDED.contains(method.getName()))
+                        return invoke(store, method, args);
+                    long start = System.nanoTime();
+                    boolean failed = true;
+                    try {
+                        Object result = invoke(store, method, args);
+                        failed = false;
+                        return result;
+                    } finally {
+                        long end = System.nanoTime();
+                        Object[] recorded = snapshot(args);
+                        if (method.getName().equals("authenticate"))
+                            recorded[1] = "";
+                        queue.offer(new Call(method.getName(), start - origin, end - start, failed, recorded));
+                    }
+                });
+    }
+
+    @Override
+    public void workDone(String operation, long start, long duration, boolean failed, Object[] args) {
+        queue.offer(new Call(operation, start - origin, duration, failed, snapshot(args)));
+    }
+
+    // Copies the arguments on the calling thread, since the writer encodes them later: an item the caller
+    // edits or a basket list it reuses after the call must still be recorded as it was passed
+    private static Object[] snapshot(Object[] args) {
+        if (args == null)
+            return new Object[0];
+        Object[] copy = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            copy[i] = snapshotValue(args[i]);
+        }
+        return copy;
+    }
+
+    // Sale lines, promotions, strings and boxed numbers can't change, so only items and containers are copied
+    private static Object snapshotValue(Object value) {
+        return switch (value) {
+            case InventoryItem item -> new InventoryItem(item.id, item.name, item.quantity, item.price, item.category,
+                    item.reorderThreshold);
+            case Collection<?> collection -> {
+                List<Object> copy = new ArrayList<>(collection.size());
+                for (Object element : collection) {
+                    copy.add(snapshotValue(element));
+                }
+                yield Collections.unmodifiableList(copy);
+            }
+            case Map<?, ?> map -> {
+                Map<Object, Object> copy = new LinkedHashMap<>();
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    copy.put(snapshotValue(entry.getKey()), snapshotValue(entry.getValue()));
+                }
+                yield Collections.unmodifiableMap(copy);
+            }
+            case null, default -> value;
+        };
+    }
+
+    static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Writes out everything queued so far and stops the writer
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Writer thread: drains the queue, flushing each burst, and naps while there is nothing to write
+    private void writeLoop() {
+        while (true) {
+            boolean stopping = !running; // Read before draining, so nothing queued before close() is missed
+            boolean wrote = false;
+            Call call;
+            try {
+                while ((call = queue.poll()) != null) {
+                    writeCall(call);
+                    wrote = true;
+                }
+                if (wrote)
+                    out.flush();
+            } catch (IOException e) {
+                e.printStackTrace(); // Keep going; the trace is cut short but the store must not stall
+            }
+            if (stopping)
+                break;
+            if (!wrote)
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeCall(Call call) throws IOException {
+        Integer id = methodIds.get(call.operation);
+        if (id == null) {
+            id = methodIds.size();
+            methodIds.put(call.operation, id);
+            out.writeByte(METHOD);
+            writeVarint(out, id);
+            writeString(out, call.operation);
+        }
+        out.writeByte(CALL);
+        writeVarint(out, id);
+        long delta = call.start - lastStart;
+        writeVarint(out, (delta << 1) ^ (delta >> 63));
+        lastStart = call.start;
+        writeVarint(out, call.duration);
+        out.writeBoolean(call.failed);
+        writeVarint(out, call.args.length);
+        for (Object arg : call.args) {
+            writeValue(arg);
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        switch (value) {
+            case null -> out.writeByte(NULL);
+            case Integer i -> {
+                out.writeByte(INT);
+                writeVarint(out, ((long) i << 1) ^ (i >> 31));
+            }
+            case Long l -> {
+                out.writeByte(LONG);
+                writeVarint(out, (l << 1) ^ (l >> 63));
+            }
+            case Double d -> {
+                out.writeByte(DOUBLE);
+                out.writeDouble(d);
+            }
+            case Boolean b -> {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean(b);
+            }
+            case String s -> writeStringValue(s);
+            case LocalDate date -> {
+                out.writeByte(DATE);
+                long day = date.toEpochDay();
+                writeVarint(out, (day << 1) ^ (day >> 63));
+            }
+            case InventoryItem item -> {
+                out.writeByte(ITEM);
+                writeValue(item.id);
+                writeValue(item.name);
+                writeValue(item.quantity);
+                writeValue(item.price);
+                writeValue(item.category);
+                writeValue(item.reorderThreshold);
+            }
+            case SaleLine line -> {
+                out.writeByte(SALE_LINE);
+                writeValue(line.itemId);
+                writeValue(line.quantity);
+                writeValue(line.price);
+                writeValue(line.date);
+            }
+            case Promotion promotion -> {
+                out.writeByte(PROMOTION);
+                writeValue(promotion.promotionId);
+                writeValue(promotion.kind);
+                writeValue(promotion.category);
+                writeValue(promotion.itemIds);
+                writeValue(promotion.amount);
+                writeValue(promotion.buy);
+                writeValue(promotion.free);
+                writeValue(promotion.starts);
+                writeValue(promotion.ends);
+            }
+            case Collection<?> collection -> {
+                out.writeByte(LIST);
+                writeVarint(out, collection.size());
+                for (Object element : collection) {
+                    writeValue(element);
+                }
+            }
+            case Map<?, ?> map -> {
+                out.writeByte(MAP);
+                writeVarint(out, map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            }
+            case Consumer<?> _ -> out.writeByte(CALLBACK);
+            // Files passed to the store are temporary ones kept until exit, so still there when this runs
+            case Path path when Files.isRegularFile(path) -> {
+                out.writeByte(FILE);
+                writeVarint(out, Files.size(path));
+                Files.copy(path, out);
+            }
+            default -> out.writeByte(NULL); // A type added to the interface later; replayed as null
+        }
+    }
+
+    private void writeStringValue(String s) throws IOException {
+        Integer id = stringIds.get(s);
+        if (id != null) {
+            out.writeByte(STRING_REF);
+            writeVarint(out, id);
+            return;
+        }
+        stringIds.put(s, stringIds.size());
+        out.writeByte(STRING);
+        writeString(out, s);
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
+
+// Re-executes a workload trace against a store, one call at a time, at the recorded pace, faster,
+// or as fast as possible, and compares each operation's latency with what was recorded. Run it as
+// "java WorkloadReplay trace.bin trace.bin.db [speed]" on the copy of the database the recorder took
+// when the trace started; the replay runs on a copy of that, so it can be replayed again. Sales are
+// journaled as they were when recorded, so a sale is timed as the same journal append, and the
+// replay's own journal drains are compared with the recorded ones instead of re-running those.
+class WorkloadReplay {
+    // A stand-in for the consumers of recorded calls
+    private static final Consumer<Object> DISCARD = _ -> {
+    };
+    private static final String DRAIN = "applyJournaledSales";
+    // Work the app did on its own threads that is re-run on the database; ledger checks are store methods
+    private static final Set<String> BACKGROUND = Set.of("applyIngestedSales", "verifyStockValuation",
+            "incrementalVacuum", "optimize", "checkpoint", "backup");
+
+    // Latencies of one operation in microseconds, as recorded and as replayed
+    private static class OperationStats {
+        final QuantileSketch recorded = new QuantileSketch();
+        final QuantileSketch replayed = new QuantileSketch();
+        double recordedTotal, replayedTotal;
+        int calls, failures;
+
+        void addRecorded(long nanos) {
+            calls++;
+            recorded.add(nanos / 1000.0);
+            recordedTotal += nanos / 1000.0;
+        }
+
+        void addReplayed(long nanos) {
+            replayed.add(nanos / 1000.0);
+            replayedTotal += nanos / 1000.0;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: WorkloadReplay <trace> <database> [speed: 1 as recorded, 2 twice as fast, "
+                    + "0 as fast as possible]");
+            System.exit(2);
+        }
+        double speed = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+        Path copy = Files.createTempDirectory("revup-replay").resolve("RevUp.db");
+        Files.copy(Path.of(args[1]), copy);
+        Path wal = Path.of(args[1] + "-wal");
+        if (Files.exists(wal))
+            Files.copy(wal, Path.of(copy + "-wal"));
+        System.out.print(replay(new File(args[0]), new DatabaseManager(copy.toString()), speed));
+        System.out.println("Replayed on " + copy);
+    }
+
+    /**
+     * Replays a trace and reports, per operation, the recorded and replayed
+     * median and 99th percentile latency and the change in mean latency. Calls
+     * made concurrently when recorded are replayed one after another, in the
+     * order the recorder received them.
+     * 
+     * @param trace  A trace written by WorkloadRecorder; one cut short by a crash
+     *               is replayed up to where it ends.
+     * @param target The store to run the calls on, normally a copy of the
+     *               database the trace was recorded on. If it is a database, a
+     *               sale journal is attached for the replay when the trace was
+     *               recorded with one, and the recorded background work is run
+     *               on it; otherwise that work is skipped.
+     * @param speed  1 for the recorded pace, 2 for twice as fast and so on, or 0
+     *               to run each call as soon as the previous one returns.
+     * @return The report, one line per operation, slowest in total first.
+     * @throws IOException If the trace cannot be read or is not a trace.
+     */
+    public static String replay(File trace, InventoryStore target, double speed) throws IOException {
+        Map<String, Method> byName = new HashMap<>();
+        for (Method method : InventoryStore.class.getMethods()) {
+            byName.put(method.getName(), method);
+        }
+        List<Method> methods = new ArrayList<>();
+        List<String> methodNames = new ArrayList<>();
+        List<String> strings = new ArrayList<>();
+        Map<String, OperationStats> stats = new HashMap<>();
+        DatabaseManager db = target instanceof DatabaseManager database ? database : null;
+        SaleJournal journal = null;
+        ConcurrentLinkedQueue<Long> drains = new ConcurrentLinkedQueue<>(); // The replay's own, in nanoseconds
+        long replayStart = System.nanoTime();
+        long calls = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(trace), 1 << 16))) {
+            byte[] magic = new byte[WorkloadRecorder.MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, WorkloadRecorder.MAGIC))
+                throw new IOException(trace + " is not a workload trace");
+            long offset = 0;
+            long firstOffset = -1;
+            int tag;
+            while ((tag = in.read()) >= 0) {
+                if (tag == WorkloadRecorder.SETTING) {
+                    String name = readString(in);
+                    String value = readString(in);
+                    if (name.equals(WorkloadRecorder.JOURNAL) && !value.equals("off") && db != null && journal == null)
+                        journal = openJournal(db, value.equals("sync"), drains);
+                    continue;
+                }
+                if (tag == WorkloadRecorder.METHOD) {
+                    readVarint(in);
+                    String name = readString(in);
+                    methodNames.add(name);
+                    methods.add(byName.get(name)); // Null if the interface no longer has it
+                    continue;
+                }
+                if (tag != WorkloadRecorder.CALL)
+                    throw new IOException("Corrupt trace: unknown record " + tag);
+                int methodId = (int) readVarint(in);
+                long delta = readVarint(in);
+                offset += (delta >>> 1) ^ -(delta & 1);
+                long duration = readVarint(in);
+                boolean failed = in.readBoolean();
+                Object[] args = new Object[(int) readVarint(in)];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = readValue(in, strings);
+                }
+                String name = methodNames.get(methodId);
+                Method method = methods.get(methodId);
+                if (name.equals(DRAIN)) {
+                    // The replay's journal drains the replayed sales itself; only the recorded time is taken
+                    if (journal != null)
+                        stats.computeIfAbsent(name, _ -> new OperationStats()).addRecorded(duration);
+                    continue;
+                }
+                if (method == null && (db == null || !BACKGROUND.contains(name)))
+                    continue;
+                if (firstOffset < 0)
+                    firstOffset = offset;
+                if (speed > 0) {
+                    long due = replayStart + (long) ((offset - firstOffset) / speed);
+                    for (long wait; (wait = due - System.nanoTime()) > 0;) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                long start = System.nanoTime();
+                boolean replayFailed = false;
+                try {
+                    if (method != null)
+                        method.invoke(target, args);
+                    else
+                        runBackground(db, name, args);
+                } catch (Exception e) {
+                    replayFailed = true;
+                }
+                long took = System.nanoTime() - start;
+                calls++;
+                OperationStats op = stats.computeIfAbsent(name, _ -> new OperationStats());
+                if (replayFailed && !failed)
+                    op.failures++;
+                op.addRecorded(duration);
+                op.addReplayed(took);
+            }
+        } catch (EOFException e) {
+            // The recorder was stopped mid-record; everything before it was replayed
+        } finally {
+            if (journal != null) {
+                journal.close(); // Waits for the replayed sales to drain
+                db.attachJournal(null);
+            }
+        }
+        if (!drains.isEmpty()) {
+            OperationStats op = stats.computeIfAbsent(DRAIN, _ -> new OperationStats());
+            for (long took : drains) {
+                op.addReplayed(took);
+            }
+        }
+
+        List<Map.Entry<String, OperationStats>> byTotal = new ArrayList<>(stats.entrySet());
+        byTotal.sort((a, b) -> Double.compare(b.getValue().recordedTotal, a.getValue().recordedTotal));
+        StringBuilder report = new StringBuilder(String.format("Replayed %d calls in %.1f s at %s%n", calls,
+                (System.nanoTime() - replayStart) / 1e9, speed > 0 ? speed + "x" : "full speed"));
+        report.append(String.format("%-28s %8s %10s %10s %10s %10s %8s %8s%n", "operation (us)", "calls", "rec p50",
+                "rec p99", "new p50", "new p99", "mean", "failed"));
+        for (Map.Entry<String, OperationStats> entry : byTotal) {
+            OperationStats op = entry.getValue();
+            report.append(String.format("%-28s %8d %10.1f %10.1f %10.1f %10.1f %+7.1f%% %8d%n", entry.getKey(),
+                    op.calls, op.recorded.quantile(0.5), op.recorded.quantile(0.99), op.replayed.quantile(0.5),
+                    op.replayed.quantile(0.99), (op.replayedTotal / op.recordedTotal - 1) * 100, op.failures));
+        }
+        return report.toString();
+    }
+
+    // Attaches a fresh sale journal to the replay's database and collects how long each of its drains takes
+    private static SaleJournal openJournal(DatabaseManager db, boolean syncEachAppend, Queue<Long> drains)
+            throws IOException {
+        Path file = Files.createTempFile("revup-replay", ".journal");
+        file.toFile().deleteOnExit();
+        try {
+            SaleJournal journal = SaleJournal.open(file.toFile(), db, syncEachAppend);
+            db.addBackgroundWorkListener((operation, start, duration, failed, args) -> {
+                if (operation.equals(DRAIN))
+                    drains.add(duration);
+            });
+            db.attachJournal(journal);
+            return journal;
+        } catch (SQLException e) {
+            throw new IOException("Could not open a sale journal for the replay: " + e.getMessage(), e);
+        }
+    }
+
+    // Re-runs work the app recorded from its own threads, with the arguments WorkloadRecorder.workDone got
+    @SuppressWarnings("unchecked")
+    private static void runBackground(DatabaseManager db, String name, Object[] args) throws SQLException, IOException {
+        switch (name) {
+            case "applyIngestedSales" -> db.applyIngestedSales((String) args[0],
+                    new SaleLogIngestor.Progress((Long) args[1], (Long) args[2]), (List<SaleLine>) args[3]);
+            case "verifyStockValuation" -> db.verifyStockValuation();
+            case "incrementalVacuum" -> db.incrementalVacuum((Integer) args[0]);
+            case "optimize" -> db.optimize();
+            case "checkpoint" -> db.checkpoint();
+            case "backup" -> {
+                File copy = File.createTempFile("revup-replay", ".db");
+                try {
+                    copy.delete(); // The backup creates it
+                    BackupScheduler.copyDatabase(db.getPath(), copy);
+                } finally {
+                    copy.delete();
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown background work " + name);
+        }
+    }
+
+    private static Object readValue(DataInputStream in, List<String> strings) throws IOException {
+        int tag = in.readUnsignedByte();
+        return switch (tag) {
+            case WorkloadRecorder.NULL -> null;
+            case WorkloadRecorder.INT -> {
+                long v = readVarint(in);
+                yield (int) ((v >>> 1) ^ -(v & 1));
+            }
+            case WorkloadRecorder.LONG -> {
+                long v = readVarint(in);
+                yield (v >>> 1) ^ -(v & 1);
+            }
+            case WorkloadRecorder.DOUBLE -> in.readDouble();
+            case WorkloadRecorder.BOOLEAN -> in.readBoolean();
+            case WorkloadRecorder.STRING -> {
+                String s = readString(in);
+                strings.add(s);
+                yield s;
+            }
+            case WorkloadRecorder.STRING_REF -> strings.get((int) readVarint(in));
+            case WorkloadRecorder.DATE -> {
+                long v = readVarint(in);
+                yield LocalDate.ofEpochDay((v >>> 1) ^ -(v & 1));
+            }
+            case WorkloadRecorder.ITEM -> new InventoryItem((String) readValue(in, strings),
+                    (String) readValue(in, strings), (Integer) readValue(in, strings), (Double) readValue(in, strings),
+                    (String) readValue(in, strings), (Integer) readValue(in, strings));
+            case WorkloadRecorder.SALE_LINE -> new SaleLine((String) readValue(in, strings),
+                    (Integer) readValue(in, strings), (Double) readValue(in, strings), (String) readValue(in, strings));
+            case WorkloadRecorder.PROMOTION -> {
+                int promotionId = (Integer) readValue(in, strings);
+                String kind = (String) readValue(in, strings);
+                String category = (String) readValue(in, strings);
+                @SuppressWarnings("unchecked")
+                List<String> itemIds = (List<String>) readValue(in, strings);
+                yield new Promotion(promotionId, kind, category, itemIds, (Double) readValue(in, strings),
+                        (Integer) readValue(in, strings), (Integer) readValue(in, strings),
+                        (LocalDate) readValue(in, strings), (LocalDate) readValue(in, strings));
+            }
+            case WorkloadRecorder.LIST -> {
+                int size = (int) readVarint(in);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in, strings));
+                }
+                yield list;
+            }
+            case WorkloadRecorder.MAP -> {
+                int size = (int) readVarint(in);
+                Map<Object, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(readValue(in, strings), readValue(in, strings));
+                }
+                yield map;
+            }
+            case WorkloadRecorder.CALLBACK -> DISCARD;
+            case WorkloadRecorder.FILE -> {
+                long size = readVarint(in);
+                Path file = Files.createTempFile("revup-replay", ".txt");
+                file.toFile().deleteOnExit();
+                try (OutputStream copy = Files.newOutputStream(file)) {
+                    byte[] chunk = new byte[8192];
+                    for (long left = size; left > 0;) {
+                        int read = (int) Math.min(chunk.length, left);
+                        in.readFully(chunk, 0, read);
+                        copy.write(chunk, 0, read);
+                        left -= read;
+                    }
+                }
+                yield file;
+            }
+            default -> throw new IOException("Corrupt trace: unknown value " + tag);
+        };
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarint(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+}
+
+// Flight recorder events for store calls, the SQL they run and UI refreshes, so a JFR recording shows
+// which operation or screen a slow query came from; SQL events nest inside the store call on the same
+// thread. Events cost a flag check while no recording enables them, so they are always compiled in.
+// Record with e.g. -XX:StartFlightRecording:filename=revup.jfr or "jcmd <pid> JFR.start", and find
+// them under RevUp in JDK Mission Control or with "jfr print --categories RevUp revup.jfr".
+@Name("revup.StoreCall")
+@Label("Store Call")
+@Category({ "RevUp", "Store" })
+@Description("A call on the inventory store, e.g. from a screen or the HTTP API, or work the app does on its own "
+        + "threads, e.g. a journal drain")
+@Threshold("1 ms")
+class StoreCallEvent extends Event {
+    // Calls that only register listeners or return in-memory indexes, passed on without an event
+    private static final Set<String> UNTIMED = Set.of("addItemChangeListener", "addSalesListener",
+            "addStockDriftListener", "getLowStockIndex", "getStockValuation");
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Rows")
+    @Description("Rows returned or passed to the callback, or -1 if the call returns none")
+    long rows = -1;
+
+    @Label("Failed")
+    boolean failed;
+
+    // Returns a store that passes every call on to the given one, in an event while a recording has it enabled
+    static InventoryStore instrument(InventoryStore store) {
+        return (InventoryStore) Proxy.newProxyInstance(InventoryStore.class.getClassLoader(),
+                new Class<?>[] { InventoryStore.class }, (proxy, method, args) -> {
+                    StoreCallEvent event = new StoreCallEvent();
+                    if (!event.isEnabled() || method.getDeclaringClass() != InventoryStore.class
+                            || UNTIMED.contains(method.getName()))
+                        return WorkloadRecorder.invoke(store, method, args);
+                    long[] passed = null;
+                    for (int i = 0; args != null && i < args.length; i++) {
+                        if (args[i] instanceof Consumer<?> consumer) {
+                            long[] count = passed = new long[1];
+                            @SuppressWarnings("unchecked")
+                            Consumer<Object> rowConsumer = (Consumer<Object>) consumer;
+                            args[i] = (Consumer<Object>) row -> {
+                                count[0]++;
+                                rowConsumer.accept(row);
+                            };
+                        }
+                    }
+                    event.begin();
+                    boolean failed = true;
+                    Object result = null;
+                    try {
+                        result = WorkloadRecorder.invoke(store, method, args);
+                        failed = false;
+                        return result;
+                    } finally {
+                        event.end();
+                        if (event.shouldCommit()) {
+                            event.operation = method.getName();
+                            event.rows = switch (result) {
+                                case Collection<?> rows -> rows.size();
+                                case Map<?, ?> rows -> rows.size();
+                                case null, default -> passed == null ? -1 : passed[0];
+                            };
+                            event.failed = failed;
+                            event.commit();
+                        }
+                    }
+                });
+    }
+}
+
+@Name("revup.SqlStatement")
+@Label("SQL Statement")
+@Category({ "RevUp", "Database" })
+@Description("A statement, batch, commit or online backup run on the database")
+@Threshold("1 ms")
+class SqlStatementEvent extends Event {
+    @Label("SQL")
+    String sql;
+
+    @Label("Rows")
+    @Description("Rows read or written, or -1 if not known")
+    long rows = -1;
+
+    SqlStatementEvent() {
+    }
+
+    SqlStatementEvent(String sql) {
+        this.sql = sql;
+    }
+}
+
+// Creates statements and ends transactions on database connections so each statement, commit and rollback
+// runs in a SqlStatementEvent while a recording has it enabled, labelled with its SQL and the rows it read
+// or wrote. A query's event lasts until its rows are read or it is closed. While no recording enables the
+// event, callers get the driver's own statements and the only cost is one flag check. Kept apart from the
+// event class, which JFR rewrites on load.
+class SqlStatementTracing {
+    private static final EventType TYPE = EventType.getEventType(SqlStatementEvent.class);
+
+    static Statement createStatement(Connection conn) throws SQLException {
+        Statement stmt = conn.createStatement();
+        return TYPE.isEnabled() ? statement(stmt, Statement.class, null) : stmt;
+    }
+
+    static PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        return TYPE.isEnabled() ? statement(stmt, PreparedStatement.class, sql) : stmt;
+    }
+
+    static void commit(Connection conn) throws SQLException {
+        if (!TYPE.isEnabled()) {
+            conn.commit();
+            return;
+        }
+        SqlStatementEvent event = new SqlStatementEvent("COMMIT");
+        event.begin();
+        try {
+            conn.commit();
+        } finally {
+            event.commit();
+        }
+    }
+
+    static void rollback(Connection conn) throws SQLException {
+        if (!TYPE.isEnabled()) {
+            conn.rollback();
+            return;
+        }
+        SqlStatementEvent event = new SqlStatementEvent("ROLLBACK");
+        event.begin();
+        try {
+            conn.rollback();
+        } finally {
+            event.commit();
+        }
+    }
+
+    private static <S extends Statement> S statement(S stmt, Class<S> type, String prepared) {
+        SqlStatementEvent[] open = { null }; // The query whose rows are still being read
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (open[0] != null && (name.equals("close") || name.startsWith("execute"))) {
+                        open[0].commit(); // Closing or re-running a statement closes its result set
+                        open[0] = null;
+                    }
+                    if (!name.startsWith("execute"))
+                        return WorkloadRecorder.invoke(stmt, method, args);
+                    SqlStatementEvent event = new SqlStatementEvent(
+                            args != null && args.length > 0 && args[0] instanceof String sql ? sql : prepared);
+                    event.begin();
+                    boolean reading = false;
+                    try {
+                        Object result = WorkloadRecorder.invoke(stmt, method, args);
+                        switch (result) {
+                            case ResultSet rs -> {
+                                reading = true;
+                                event.rows = 0;
+                                open[0] = event;
+                                return rows(rs, event, open);
+                            }
+                            case Integer count -> event.rows = count;
+                            case Long count -> event.rows = count;
+                            case int[] counts -> event.rows = Arrays.stream(counts).filter(c -> c > 0).sum();
+                            case long[] counts -> event.rows = Arrays.stream(counts).filter(c -> c > 0).sum();
+                            case Boolean hasRows when !hasRows -> event.rows = stmt.getUpdateCount();
+                            case null, default -> {
+                            }
+                        }
+                        return result;
+                    } finally {
+                        if (!reading)
+                            event.commit();
+                    }
+                }));
+    }
+
+    // Counts the rows read through the result set and commits the event once they run out or it is closed
+    private static ResultSet rows(ResultSet rs, SqlStatementEvent event, SqlStatementEvent[] open) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                (proxy, method, args) -> {
+                    Object result = WorkloadRecorder.invoke(rs, method, args);
+                    if (open[0] == event) {
+                        if (method.getName().equals("next") && (Boolean) result) {
+                            event.rows++;
+                        } else if (method.getName().equals("next") || method.getName().equals("close")) {
+                            event.commit();
+                            open[0] = null;
+                        }
+                    }
+                    return result;
+                });
+    }
+}
+
+@Name("revup.UiRefresh")
+@Label("UI Refresh")
+@Category({ "RevUp", "UI" })
+@Description("A screen or dialog reloading its data on the event dispatch thread")
+class UiRefreshEvent extends Event {
+    @Label("View")
+    String view;
+
+    @Label("Rows")
+    long rows = -1;
+
+    UiRefreshEvent(String view) {
+        this.view = view;
+    }
+}
+
+// Takes scheduled online backups of the database on a background thread
+class BackupScheduler {
+    // Pages copied per backup step; small steps keep each read lock short so sales are never held up
+    static final int PAGES_PER_STEP = 64;
+    static final int BUSY_SLEEP_MILLIS = 20;
+    static final int BUSY_RETRIES = 250;
+
+    private static final DateTimeFormatter STAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    private static final String PREFIX = "RevUp-";
+
+    private final DatabaseManager db;
+    private final File backupDir;
+    private final boolean compress;
+    private final int keep;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param db        The live database, backed up from its file and restored into.
+     * @param backupDir Directory that receives the backup files.
+     * @param compress  Whether backups are gzip-compressed.
+     * @param keep      Number of most recent backups to retain.
+     */
+    public BackupScheduler(DatabaseManager db, File backupDir, boolean compress, int keep) {
+        this.db = db;
+        this.backupDir = backupDir;
+        this.compress = compress;
+        this.keep = Math.max(1, keep);
+        // Single low-priority daemon thread, so backups and restores never overlap and never touch the EDT
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "RevUp-Backup");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    // Starts taking a backup every intervalMinutes
+    public void start(long intervalMinutes) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                backupNow();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    // Stops the scheduler; a backup already in progress is allowed to finish
+    public void stop() {
+        executor.shutdown();
+    }
+
+    public File getBackupDir() {
+        return backupDir;
+    }
+
+    // Queues an immediate backup; the future completes with the backup file
+    public Future<File> requestBackup() {
+        return executor.submit(this::backupNow);
+    }
+
+    // Queues a restore of the given backup into the live database
+    public Future<File> requestRestore(File backup) {
+        return executor.submit(() -> restore(backup));
+    }
+
+    // Copies the live database incrementally through SQLite's online backup API
+    private File backupNow() throws SQLException, IOException {
+        if (!backupDir.isDirectory() && !backupDir.mkdirs()) {
+            throw new IOException("Cannot create backup directory " + backupDir.getAbsolutePath());
+        }
+        String name = PREFIX + LocalDateTime.now().format(STAMP_FORMAT) + ".db";
+        File partial = new File(backupDir, name + ".part"); // Never visible to rotation or restore until complete
+
+        db.background("backup", () -> copyDatabase(db.getPath(), partial));
+
+        File result;
+        if (compress) {
+            result = new File(backupDir, name + ".gz");
+            try (InputStream in = new FileInputStream(partial);
+                    OutputStream out = new GZIPOutputStream(new FileOutputStream(result))) {
+                in.transferTo(out);
+            }
+            Files.delete(partial.toPath());
+        } else {
+            result = new File(backupDir, name);
+            Files.move(partial.toPath(), result.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        rotate();
+        return result;
+    }
+
+    // Copies a database into a new file; a separate connection, so the app's own is never tied up by the copy
+    static void copyDatabase(String path, File target) throws SQLException {
+        try (Connection source = DriverManager.getConnection("jdbc:sqlite:" + path)) {
+            SqlStatementEvent event = new SqlStatementEvent("backup to " + target);
+            event.begin();
+            int rc = source.unwrap(SQLiteConnection.class).getDatabase().backup("main", target.getAbsolutePath(),
+                    null, BUSY_SLEEP_MILLIS, BUSY_RETRIES, PAGES_PER_STEP);
+            event.commit();
+            if (rc != Codes.SQLITE_OK) {
+                target.delete();
+                throw new SQLException("Backup failed with SQLite code " + rc);
+            }
+        }
+    }
+
+    // Restores a backup, first taking a backup of the current state so the restore can be undone
+    private File restore(File backup) throws SQLException, IOException {
+        File safetyCopy = backupNow();
+        File source = backup;
+        if (backup.getName().endsWith(".gz")) {
+            source = File.createTempFile("restore-", ".db", backupDir);
+            try (InputStream in = new GZIPInputStream(new FileInputStream(backup));
+                    OutputStream out = new FileOutputStream(source)) {
+                in.transferTo(out);
+            }
+        }
+        try {
+            db.restoreFrom(source.getAbsolutePath(), backup.getName());
+        } finally {
+            if (source != backup) {
+                Files.deleteIfExists(source.toPath());
+            }
+        }
+        return safetyCopy;
+    }
+
+    // Lists completed backups, newest first
+    public List<File> listBackups() {
+        File[] files = backupDir.listFiles((dir, n) -> n.startsWith(PREFIX) && (n.endsWith(".db") || n.endsWith(".db.gz")));
+        List<File> backups = new ArrayList<>(files == null ? List.of() : Arrays.asList(files));
+        backups.sort(Comparator.comparing(File::getName).reversed()); // Timestamped names sort chronologically
+        return backups;
+    }
+
+    // Deletes all but the newest backups
+    private void rotate() throws IOException {
+        List<File> backups = listBackups();
+        for (int i = keep; i < backups.size(); i++) {
+            Files.deleteIfExists(backups.get(i).toPath());
+        }
+    }
+}
+
+// Keeps the database compact and its planner statistics fresh while nobody is using the app.
+// Work runs on a low-priority daemon thread only after a period without UI input or sales, in
+// short steps that each hold the database lock for about STEP_BUDGET_NANOS, so a sale that
+// arrives mid-pass waits at most one step. Any activity ends the pass at the next step.
+class MaintenanceScheduler {
+    static final long STEP_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    static final int ANALYSIS_LIMIT = 400; // Rows ANALYZE samples per index
+    private static final int MIN_VACUUM_PAGES = 8;
+    private static final int MAX_VACUUM_PAGES = 4096;
+
+    private final DatabaseManager db;
+    private final long idleNanos;
+    private final ScheduledExecutorService executor;
+    private volatile long lastActivity = System.nanoTime();
+    private long maintainedThrough = Long.MIN_VALUE; // Activity time the last complete pass covered
+    private int vacuumPages = 16; // Pages per vacuum step, adapted to fit the step budget
+
+    /**
+     * Creates a scheduler that treats the app as idle after idleSeconds without activity.
+     * 
+     * @param db          The database to maintain.
+     * @param idleSeconds Seconds without UI input or sales before maintenance may run.
+     */
+    public MaintenanceScheduler(DatabaseManager db, long idleSeconds) {
+        this.db = db;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "RevUp-Maintenance");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    // Starts checking for idle periods every checkSeconds
+    public void start(long checkSeconds) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                runIfIdle();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, checkSeconds, checkSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        executor.shutdown();
+    }
+
+    // Called on every UI input event and sale, so it must stay a single volatile write
+    public void noteActivity() {
+        lastActivity = System.nanoTime();
+    }
+
+    private boolean isIdle() {
+        return System.nanoTime() - lastActivity >= idleNanos;
+    }
+
+    // One maintenance pass per idle period: vacuum in chunks, refresh statistics, checkpoint the WAL
+    private void runIfIdle() throws SQLException {
+        long activity = lastActivity;
+        if (activity == maintainedThrough || !isIdle())
+            return;
+        long free = db.getFreePageCount();
+        while (free > 0) {
+            if (!isIdle())
+                return;
+            long start = System.nanoTime();
+            int pages = vacuumPages;
+            db.background("incrementalVacuum", () -> db.incrementalVacuum(pages), pages);
+            long elapsed = System.nanoTime() - start;
+            // Grow chunks that finish well inside the budget, shrink ones that overrun it
+            if (elapsed > STEP_BUDGET_NANOS)
+                vacuumPages = Math.max(MIN_VACUUM_PAGES, vacuumPages / 2);
+            else if (elapsed < STEP_BUDGET_NANOS / 2)
+                vacuumPages = Math.min(MAX_VACUUM_PAGES, vacuumPages * 2);
+            // Checkpoint off the lock, so SQLite's own auto-checkpoint never lands inside a step
+            db.background("checkpoint", db::checkpoint);
+            long left = db.getFreePageCount();
+            if (left >= free)
+                break; // Not in incremental auto-vacuum mode, so nothing can be reclaimed
+            free = left;
+        }
+        if (!isIdle())
+            return;
+        db.background("optimize", db::optimize);
+        if (!isIdle())
+            return;
+        db.background("checkpoint", db::checkpoint); // Also shrinks the file once the vacuumed pages leave the WAL
+        maintainedThrough = activity;
+    }
+}
+
+// Sales totals of one branch database, or of several branches merged together
+class BranchTotals {
+    // Units and revenue of one item
+    static class ItemSales {
+        final String itemId;
+        final String name;
+        final long unitsSold;
+        final double revenue;
+
+        ItemSales(String itemId, String name, long unitsSold, double revenue) {
+            this.itemId = itemId;
+            this.name = name;
+            this.unitsSold = unitsSold;
+            this.revenue = revenue;
+        }
+
+        ItemSales plus(ItemSales other) {
+            return new ItemSales(itemId, name != null ? name : other.name, unitsSold + other.unitsSold,
+                    revenue + other.revenue);
+        }
+    }
+
+    final String branch;
+    final TreeMap<String, Double> revenueByMonth = new TreeMap<>(Comparator.reverseOrder()); // YYYY-MM
+    final TreeMap<String, Double> revenueByYear = new TreeMap<>(Comparator.reverseOrder()); // YYYY
+    final Map<String, ItemSales> byItem = new HashMap<>();
+    double totalRevenue;
+
+    BranchTotals(String branch) {
+        this.branch = branch;
+    }
+
+    void addMonth(String month, double revenue) {
+        revenueByMonth.merge(month, revenue, Double::sum);
+        revenueByYear.merge(month.substring(0, 4), revenue, Double::sum);
+        totalRevenue += revenue;
+    }
+
+    void addItem(ItemSales sales) {
+        byItem.merge(sales.itemId, sales, ItemSales::plus);
+    }
+
+    // Folds another branch's totals into these
+    void mergeFrom(BranchTotals other) {
+        other.revenueByMonth.forEach(this::addMonth);
+        other.byItem.values().forEach(this::addItem);
+    }
+}
+
+// Consolidated analytics across branch databases. Each branch file is opened read-only on its own
+// connection and aggregated in a fork-join task; partial results are merged as the tasks join, so
+// the work scales with the number of cores up to the number of branches.
+class BranchConsolidator {
+    // Per-branch totals in the order given, plus all branches combined
+    static class Consolidation {
+        final List<BranchTotals> branches;
+        final BranchTotals combined;
+
+        Consolidation(List<BranchTotals> branches, BranchTotals combined) {
+            this.branches = branches;
+            this.combined = combined;
+        }
+    }
+
+    private final int parallelism;
+
+    public BranchConsolidator(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Aggregates monthly, annual and per-item sales of every branch in parallel
+     * and merges them.
+     * 
+     * @param branchFiles Branch database files; they are only ever read.
+     * @param year        The year to aggregate. If 0, aggregates all years.
+     * @return Per-branch and combined totals.
+     * @throws SQLException If any branch could not be read.
+     */
+    public Consolidation consolidate(List<File> branchFiles, int year) throws SQLException {
+        List<String> names = branchNames(branchFiles);
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, Math.max(1, branchFiles.size())));
+        try {
+            return pool.invoke(new BranchTask(branchFiles, names, year, 0, branchFiles.size()));
+        } catch (UncheckedSQLException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Splits the branch range in half until one branch is left, then merges the halves on join
+    private static class BranchTask extends RecursiveTask<Consolidation> {
+        private final List<File> files;
+        private final List<String> names;
+        private final int year;
+        private final int from;
+        private final int to;
+
+        BranchTask(List<File> files, List<String> names, int year, int from, int to) {
+            this.files = files;
+            this.names = names;
+            this.year = year;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Consolidation compute() {
+            if (to - from <= 1) {
+                BranchTotals combined = new BranchTotals("Combined");
+                if (to == from)
+                    return new Consolidation(new ArrayList<>(), combined);
+                BranchTotals branch;
+                try {
+                    branch = aggregate(files.get(from), names.get(from), year);
+                } catch (SQLException e) {
+                    throw new UncheckedSQLException(new SQLException(names.get(from) + ": " + e.getMessage(), e));
+                }
+                combined.mergeFrom(branch);
+                return new Consolidation(new ArrayList<>(List.of(branch)), combined);
+            }
+            int mid = (from + to) >>> 1;
+            BranchTask left = new BranchTask(files, names, year, from, mid);
+            left.fork();
+            Consolidation right = new BranchTask(files, names, year, mid, to).compute();
+            Consolidation merged = left.join();
+            merged.branches.addAll(right.branches);
+            merged.combined.mergeFrom(right.combined);
+            return merged;
+        }
+    }
+
+    // Runs the aggregations of one branch on a read-only connection of its own
+    private static BranchTotals aggregate(File file, String name, int year) throws SQLException {
+        if (!file.isFile())
+            throw new SQLException("No such database file " + file.getAbsolutePath());
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        String yearFilter = year > 0 ? " WHERE strftime('%Y', s.date) = ?" : "";
+        BranchTotals totals = new BranchTotals(name);
+        try (Connection conn = config.createConnection("jdbc:sqlite:" + file.getAbsolutePath());
+                PreparedStatement monthly = conn.prepareStatement(
+                        "SELECT strftime('%Y-%m', s.date) AS month_year, SUM(s.quantity_sold * s.price_sold) AS revenue "
+                                + "FROM sales s" + yearFilter + " GROUP BY month_year");
+                PreparedStatement perItem = conn.prepareStatement(
+                        "SELECT s.item_id, i.name, SUM(s.quantity_sold) AS units, SUM(s.quantity_sold * s.price_sold) AS revenue "
+                                + "FROM sales s LEFT JOIN items i ON s.item_id = i.id" + yearFilter
+                                + " GROUP BY s.item_id")) {
+            if (year > 0) {
+                monthly.setString(1, String.valueOf(year));
+                perItem.setString(1, String.valueOf(year));
+            }
+            try (ResultSet rs = monthly.executeQuery()) {
+                while (rs.next()) {
+                    String month = rs.getString("month_year");
+                    if (month != null) // Dates that strftime() can't parse have no month
+                        totals.addMonth(month, rs.getDouble("revenue"));
+                }
+            }
+            try (ResultSet rs = perItem.executeQuery()) {
+                while (rs.next()) {
+                    totals.addItem(new BranchTotals.ItemSales(rs.getString("item_id"), rs.getString("name"),
+                            rs.getLong("units"), rs.getDouble("revenue")));
+                }
+            }
+        }
+        return totals;
+    }
+
+    // File names, qualified by their folder where two branches share a file name (e.g. */RevUp.db)
+    private static List<String> branchNames(List<File> files) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (File file : files) {
+            counts.merge(file.getName(), 1, Integer::sum);
+        }
+        List<String> names = new ArrayList<>();
+        for (File file : files) {
+            File parent = file.getAbsoluteFile().getParentFile();
+            names.add(counts.get(file.getName()) > 1 && parent != null ? parent.getName() + "/" + file.getName()
+                    : file.getName());
+        }
+        return names;
+    }
+
+    // Carries a branch's SQLException out of a fork-join task
+    private static class UncheckedSQLException extends RuntimeException {
+        UncheckedSQLException(SQLException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
+}
+
+// Minimal JSON writer into a reusable UTF-8 byte buffer. Writers are pooled by PosHttpServer, so
+// once a buffer has grown to fit, serializing a response allocates nothing.
+class JsonWriter {
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20; // Larger buffers are not pooled
+
+    private byte[] buf = new byte[4096];
+    private int len;
+    private boolean needComma;
+
+    JsonWriter reset() {
+        len = 0;
+        needComma = false;
+        return this;
+    }
+
+    int length() {
+        return len;
+    }
+
+    boolean isPoolable() {
+        return buf.length <= MAX_RETAINED_CAPACITY;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, len);
+    }
+
+    JsonWriter beginObject() {
+        separate();
+        put('{');
+        needComma = false;
+        return this;
+    }
+
+    JsonWriter endObject() {
+        put('}');
+        needComma = true;
+        return this;
+    }
+
+    JsonWriter beginArray() {
+        separate();
+        put('[');
+        needComma = false;
+        return this;
+    }
+
+    JsonWriter endArray() {
+        put(']');
+        needComma = true;
+        return this;
+    }
+
+    JsonWriter name(String name) {
+        separate();
+        string(name);
+        put(':');
+        needComma = false;
+        return this;
+    }
+
+    JsonWriter value(String value) {
+        separate();
+        if (value == null) {
+            ascii("null");
+        } else {
+            string(value);
+        }
+        needComma = true;
+        return this;
+    }
+
+    JsonWriter value(long value) {
+        separate();
+        digits(value);
+        needComma = true;
+        return this;
+    }
+
+    JsonWriter value(boolean value) {
+        separate();
+        ascii(value ? "true" : "false");
+        needComma = true;
+        return this;
+    }
+
+    // Writes an amount rounded to centavos, e.g. 12.5 as 12.50
+    JsonWriter money(double amount) {
+        separate();
+        long cents = Math.round(amount * 100);
+        if (cents < 0) {
+            put('-');
+            cents = -cents;
+        }
+        digits(cents / 100);
+        put('.');
+        put((char) ('0' + cents % 100 / 10));
+        put((char) ('0' + cents % 10));
+        needComma = true;
+        return this;
+    }
+
+    JsonWriter item(InventoryItem item) {
+        return beginObject().name("id").value(item.id).name("name").value(item.name).name("quantity")
+                .value(item.quantity).name("price").money(item.price).name("category").value(item.category)
+                .name("reorderThreshold").value(item.reorderThreshold).endObject();
+    }
+
+    private void separate() {
+        if (needComma)
+            put(',');
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+
+    private void put(char c) {
+        ensure(1);
+        buf[len++] = (byte) c;
+    }
+
+    private void ascii(String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[len++] = (byte) s.charAt(i);
+        }
+    }
+
+    // Writes the digits of a long without going through a String
+    private void digits(long value) {
+        if (value == Long.MIN_VALUE) {
+            ascii("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        ensure(19);
+        int start = len;
+        do {
+            buf[len++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            byte tmp = buf[i];
+            buf[i] = buf[j];
+            buf[j] = tmp;
+        }
+    }
+
+    // Writes a quoted, escaped string encoded as UTF-8
+    private void string(String s) {
+        put('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                put('\\');
+                put(c);
+            } else if (c < 0x20) {
+                ascii("\\u00");
+                put(Character.forDigit(c >> 4, 16));
+                put(Character.forDigit(c & 0xF, 16));
+            } else if (c < 0x80) {
+                put(c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buf[len++] = (byte) (0xC0 | c >> 6);
+                buf[len++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                buf[len++] = (byte) (0xF0 | cp >> 18);
+                buf[len++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                buf[len++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                buf[len++] = (byte) (0x80 | cp & 0x3F);
+            } else {
+                if (Character.isSurrogate(c))
+                    c = '�'; // Unpaired surrogate
+                ensure(3);
+                buf[len++] = (byte) (0xE0 | c >> 12);
+                buf[len++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buf[len++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        put('"');
+    }
+}
+
+// Optional embedded HTTP API for POS terminals and handheld scanners on the LAN. Every exchange
+// runs on its own virtual thread; clients sign in with HTTP Basic auth against the same user
+// accounts and roles as the desktop app. Enable with -Drevup.http.port=<port>.
+//
+//   GET  /api/items/{id}            One item
+//   GET  /api/items?q=keyword       Items whose ID or name contains the keyword (all items if no q)
+//   POST /api/sell      id=..&qty=..           Sells one item (staff/admin)
+//   POST /api/checkout  id=..&qty=..&id=..     Sells a basket, all or nothing (staff/admin)
+//   GET  /api/revenue[?year=YYYY]   Total revenue and the revenue of one year
+class PosHttpServer {
+    private static final String ROLE_ATTRIBUTE = "revup.role";
+    private static final int MAX_POOLED_WRITERS = 64;
+
+    private final InventoryStore db;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ArrayBlockingQueue<JsonWriter> writers = new ArrayBlockingQueue<>(MAX_POOLED_WRITERS);
+
+    // Handles one API request, writing its response body into the given writer
+    private interface ApiHandler {
+        int handle(HttpExchange exchange, JsonWriter json) throws IOException, ApiException;
+    }
+
+    // A request error reported to the client as {"error": message} with the given status
+    private static class ApiException extends Exception {
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    public PosHttpServer(InventoryStore db, InetSocketAddress address) throws IOException {
+        this.db = db;
+        server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        Authenticator authenticator = new RoleAuthenticator(db);
+        server.createContext("/api/items", guarded(this::items)).setAuthenticator(authenticator);
+        server.createContext("/api/sell", guarded(this::sell)).setAuthenticator(authenticator);
+        server.createContext("/api/checkout", guarded(this::checkout)).setAuthenticator(authenticator);
+        server.createContext("/api/revenue", guarded(this::revenue)).setAuthenticator(authenticator);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Stops accepting requests and gives in-flight ones up to a second to finish
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private int items(HttpExchange exchange, JsonWriter json) throws ApiException {
+        requireMethod(exchange, "GET");
+        String path = exchange.getRequestURI().getPath();
+        String id = path.length() > "/api/items/".length() ? path.substring("/api/items/".length()) : null;
+        if (id != null) {
+            InventoryItem item = db.getItem(id);
+            if (item == null)
+                throw new ApiException(404, "No item with ID " + id);
+            json.item(item);
+            return 200;
+        }
+        String keyword = first(parseForm(exchange.getRequestURI().getRawQuery()), "q");
+        json.beginArray();
+        if (keyword == null || keyword.isEmpty())
+            db.getAllItems(json::item);
+        else
+            db.searchItems(keyword, null, json::item);
+        json.endArray();
+        return 200;
+    }
+
+    private int sell(HttpExchange exchange, JsonWriter json) throws IOException, ApiException {
+        return sellBasket(exchange, json, false);
+    }
+
+    private int checkout(HttpExchange exchange, JsonWriter json) throws IOException, ApiException {
+        return sellBasket(exchange, json, true);
+    }
+
+    // Records the whole basket if there is stock for every line of it, else none of it
+    private int sellBasket(HttpExchange exchange, JsonWriter json, boolean allowMany)
+            throws IOException, ApiException {
+        requireMethod(exchange, "POST");
+        if ("viewer".equals(exchange.getAttribute(ROLE_ATTRIBUTE)))
+            throw new ApiException(403, "Only staff/admin can perform this.");
+        Map<String, List<String>> form;
+        try (InputStream in = exchange.getRequestBody()) {
+            form = parseForm(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        List<String> ids = form.getOrDefault("id", List.of());
+        List<String> quantities = form.getOrDefault("qty", List.of());
+        if (ids.isEmpty() || ids.size() != quantities.size())
+            throw new ApiException(400, "Expected matching id and qty parameters.");
+        if (!allowMany && ids.size() > 1)
+            throw new ApiException(400, "Use /api/checkout to sell several items.");
+
+        Map<String, Integer> basket = new LinkedHashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            int qty;
+            try {
+                qty = Integer.parseInt(quantities.get(i));
+            } catch (NumberFormatException e) {
+                throw new ApiException(400, "Invalid quantity for selling.");
+            }
+            if (qty <= 0)
+                throw new ApiException(400, "Quantity to sell must be positive.");
+            basket.merge(ids.get(i), qty, Integer::sum);
+        }
+
+        List<InventoryItem> items = new ArrayList<>(basket.size());
+        for (String id : basket.keySet()) {
+            InventoryItem item = db.getItem(id);
+            if (item == null)
+                throw new ApiException(404, "No item with ID " + id);
+            items.add(item);
+        }
+        // One line per item and price paid, so a promotion shows as its own discounted or free line
+        List<SaleLine> sales = db.priceBasket(items, new ArrayList<>(basket.values()));
+        // The store checks stock and records in one step, so this can't race a till or another request
+        String shortItem = db.recordSalesIfInStock(sales);
+        if (shortItem != null) {
+            InventoryItem item = db.getItem(shortItem);
+            // Sales still draining from the journal are not yet reflected in the item's quantity
+            int available = item == null ? 0 : Math.max(0, item.quantity - db.getPendingSaleQuantity(shortItem));
+            throw new ApiException(409, "Not enough stock of " + shortItem + ". Available: " + available);
+        }
+
+        double total = 0.0;
+        json.beginObject().name("sales").beginArray();
+        for (SaleLine sale : sales) {
+            total += sale.quantity * sale.price;
+            json.beginObject().name("id").value(sale.itemId).name("quantity").value(sale.quantity).name("price")
+                    .money(sale.price).name("amount").money(sale.quantity * sale.price).endObject();
+        }
+        json.endArray().name("total").money(total).endObject();
+        return 200;
+    }
+
+    private int revenue(HttpExchange exchange, JsonWriter json) throws ApiException {
+        requireMethod(exchange, "GET");
+        String yearParam = first(parseForm(exchange.getRequestURI().getRawQuery()), "year");
+        int year;
+        try {
+            year = yearParam == null ? LocalDate.now().getYear() : Integer.parseInt(yearParam);
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "Invalid year.");
+        }
+        json.beginObject().name("total").money(db.getTotalRevenue()).name("year").value(year).name("annual")
+                .money(db.getTotalAnnualRevenue(year)).endObject();
+        return 200;
+    }
+
+    // Runs a handler with a pooled writer, turning failures into JSON error responses
+    private HttpHandler guarded(ApiHandler handler) {
+        return exchange -> {
+            JsonWriter json = writers.poll();
+            if (json == null)
+                json = new JsonWriter();
+            try {
+                int status;
+                try {
+                    status = handler.handle(exchange, json.reset());
+                } catch (ApiException e) {
+                    status = e.status;
+                    json.reset().beginObject().name("error").value(e.getMessage()).endObject();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    status = 500;
+                    json.reset().beginObject().name("error").value("Internal error").endObject();
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(status, json.length());
+                try (OutputStream out = exchange.getResponseBody()) {
+                    json.writeTo(out);
+                }
+            } finally {
+                exchange.close();
+                if (json.isPoolable())
+                    writers.offer(json);
+            }
+        };
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) throws ApiException {
+        if (!exchange.getRequestMethod().equals(method))
+            throw new ApiException(405, "Use " + method + ".");
+    }
+
+    // Parses a query string or form body into its (possibly repeated) parameters
+    private static Map<String, List<String>> parseForm(String encoded) {
+        Map<String, List<String>> params = new HashMap<>();
+        if (encoded == null || encoded.isEmpty())
+            return params;
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+    private static String first(Map<String, List<String>> params, String key) {
+        List<String> values = params.get(key);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    // HTTP Basic auth against the store's users; the user's role is kept on the exchange
+    private static class RoleAuthenticator extends Authenticator {
+        private static final String REALM = "RevUp";
+        private final InventoryStore db;
+
+        RoleAuthenticator(InventoryStore db) {
+            this.db = db;
+        }
+
+        @Override
+        public Result authenticate(HttpExchange exchange) {
+            String header = exchange.getRequestHeaders().getFirst("Authorization");
+            if (header != null && header.regionMatches(true, 0, "Basic ", 0, 6)) {
+                String credentials;
+                try {
+                    credentials = new String(Base64.getDecoder().decode(header.substring(6).trim()),
+                            StandardCharsets.UTF_8);
+                } catch (IllegalArgumentException e) {
+                    credentials = "";
+                }
+                int colon = credentials.indexOf(':');
+                if (colon > 0) {
+                    String username = credentials.substring(0, colon);
+                    String role = db.authenticate(username, credentials.substring(colon + 1));
+                    if (role != null) {
+                        exchange.setAttribute(ROLE_ATTRIBUTE, role);
+                        return new Success(new HttpPrincipal(username, REALM));
+                    }
+                }
+            }
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"" + REALM + "\"");
+            return new Retry(401);
+        }
+    }
+}
+
+// Revenue-over-time chart with mouse-wheel zoom and drag panning. The line is rendered with
+// antialiasing into a cached image three viewports wide; panning only blits that image at an
+// offset, and it is re-rendered when the data, size or zoom changes or the view pans past it.
+// Long histories are downsampled to about one point per pixel with Largest-Triangle-Three-Buckets.
+class RevenueChart extends JComponent {
+    private static final int LEFT = 70, RIGHT = 15, TOP = 15, BOTTOM = 30; // Plot insets for the axes
+    private static final double MIN_SPAN_DAYS = 7;
+    private static final DateTimeFormatter DAY_LABEL = DateTimeFormatter.ofPattern("MMM d, yyyy");
+    private static final DateTimeFormatter MONTH_LABEL = DateTimeFormatter.ofPattern("MMM yyyy");
+
+    private long[] days = new long[0]; // Epoch days, ascending
+    private double[] values = new double[0];
+    private boolean monthly;
+
+    private double viewStart, viewEnd; // Visible range in epoch days
+
+    // Cached plot: covers [cacheStart, cacheEnd] days at the zoom it was rendered for
+    private BufferedImage cache;
+    private double cacheStart, cacheEnd, cacheMax;
+    private double cacheSpan; // viewEnd - viewStart when rendered
+
+    private int dragX = -1;
+    private double dragViewStart;
+
+    RevenueChart() {
+        setPreferredSize(new Dimension(800, 220));
+        setBackground(Color.WHITE);
+        setOpaque(true);
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragX = e.getX();
+                dragViewStart = viewStart;
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                dragX = -1;
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (dragX < 0 || plotWidth() <= 0)
+                    return;
+                double span = viewEnd - viewStart;
+                double start = dragViewStart - (e.getX() - dragX) * span / plotWidth();
+                setView(start, start + span);
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                if (plotWidth() <= 0)
+                    return;
+                // Zoom around the day under the pointer
+                double anchor = viewStart + (e.getX() - LEFT) * (viewEnd - viewStart) / plotWidth();
+                double factor = Math.pow(1.2, e.getPreciseWheelRotation());
+                setView(anchor - (anchor - viewStart) * factor, anchor + (viewEnd - anchor) * factor);
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2)
+                    resetView();
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                cache = null;
+            }
+        });
+        setToolTipText("Scroll to zoom, drag to pan, double-click to show everything");
+    }
+
+    /**
+     * Replaces the series. A zoomed-in view is kept where it is, and a view that
+     * reached the latest point extends to the new latest point.
+     * 
+     * @param days    Epoch days in ascending order.
+     * @param values  Revenue for each day.
+     * @param monthly Whether each point is a month (labels the axis by month).
+     */
+    void setData(long[] days, double[] values, boolean monthly) {
+        boolean keepView = monthly == this.monthly && this.days.length > 0 && days.length > 0;
+        boolean followLatest = keepView && viewEnd >= this.days[this.days.length - 1];
+        this.days = days;
+        this.values = values;
+        this.monthly = monthly;
+        cache = null;
+        if (!keepView) {
+            resetView();
+        } else if (followLatest) {
+            setView(viewStart, Math.max(viewEnd, days[days.length - 1]));
+        } else {
+            setView(viewStart, viewEnd);
+        }
+    }
+
+    void resetView() {
+        if (days.length == 0) {
+            viewStart = LocalDate.now().toEpochDay() - 30;
+            viewEnd = viewStart + 30;
+        } else {
+            viewStart = days[0];
+            viewEnd = Math.max(days[days.length - 1], days[0] + MIN_SPAN_DAYS);
+        }
+        cache = null;
+        repaint();
+    }
+
+    private void setView(double start, double end) {
+        double span = Math.max(end - start, MIN_SPAN_DAYS);
+        double first = days.length == 0 ? start : days[0];
+        double last = days.length == 0 ? end : Math.max(days[days.length - 1], first + MIN_SPAN_DAYS);
+        span = Math.min(span, last - first);
+        start = Math.max(first, Math.min(start, last - span)); // Keep the view on the data
+        if (span != viewEnd - viewStart)
+            cache = null; // Zoom changed
+        viewStart = start;
+        viewEnd = start + span;
+        repaint();
+    }
+
+    private int plotWidth() {
+        return getWidth() - LEFT - RIGHT;
+    }
+
+    private int plotHeight() {
+        return getHeight() - TOP - BOTTOM;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.setColor(getBackground());
+        g2.fillRect(0, 0, getWidth(), getHeight());
+        int w = plotWidth(), h = plotHeight();
+        if (w <= 0 || h <= 0) {
+            g2.dispose();
+            return;
+        }
+        double span = viewEnd - viewStart;
+        if (cache == null || cache.getHeight() != h || cacheSpan != span || viewStart < cacheStart
+                || viewEnd > cacheEnd)
+            renderCache(w, h);
+
+        // Blit the part of the cached plot under the view
+        int offset = (int) Math.round((viewStart - cacheStart) * w / span);
+        Shape clip = g2.getClip();
+        g2.clipRect(LEFT, TOP, w, h);
+        g2.drawImage(cache, LEFT - offset, TOP, null);
+        g2.setClip(clip);
+        paintAxes(g2, w, h);
+        g2.dispose();
+    }
+
+    // Renders the view plus one viewport either side, downsampled to one point per pixel
+    private void renderCache(int w, int h) {
+        double span = viewEnd - viewStart;
+        cacheStart = viewStart - span;
+        cacheEnd = viewEnd + span;
+        cacheSpan = span;
+        int width = w * 3;
+        if (cache == null || cache.getWidth() != width || cache.getHeight() != h)
+            cache = new BufferedImage(width, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = cache.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, width, h);
+        g.setComposite(AlphaComposite.SrcOver);
+
+        // Points in the cached range, plus one either side so the line runs off the edges
+        int from = lowerBound(days, (long) Math.floor(cacheStart));
+        int to = lowerBound(days, (long) Math.ceil(cacheEnd) + 1);
+        from = Math.max(0, from - 1);
+        to = Math.min(days.length, to + 1);
+        cacheMax = 0;
+        for (int i = from; i < to; i++) {
+            cacheMax = Math.max(cacheMax, values[i]);
+        }
+        cacheMax = niceCeiling(cacheMax);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(new Color(24, 119, 242));
+        if (to - from == 1) { // A single day of sales
+            double x = (days[from] - cacheStart) * width / (cacheEnd - cacheStart);
+            double y = h - values[from] / cacheMax * (h - 4) - 2;
+            g.fill(new Ellipse2D.Double(x - 3, y - 3, 6, 6));
+        } else if (to - from >= 2) {
+            int[] points = largestTriangleThreeBuckets(days, values, from, to, width);
+            Path2D.Double line = new Path2D.Double();
+            for (int i = 0; i < points.length; i++) {
+                double x = (days[points[i]] - cacheStart) * width / (cacheEnd - cacheStart);
+                double y = h - values[points[i]] / cacheMax * (h - 4) - 2;
+                if (i == 0)
+                    line.moveTo(x, y);
+                else
+                    line.lineTo(x, y);
+            }
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            g.setStroke(new BasicStroke(1.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g.draw(line);
+        }
+        g.dispose();
+    }
+
+    private void paintAxes(Graphics2D g, int w, int h) {
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+        FontMetrics fm = g.getFontMetrics();
+        g.setColor(new Color(200, 200, 200));
+        g.drawRect(LEFT, TOP, w, h);
+        if (days.length == 0) {
+            g.setColor(Color.GRAY);
+            String text = "No sales yet";
+            g.drawString(text, LEFT + (w - fm.stringWidth(text)) / 2, TOP + h / 2);
+            return;
+        }
+        // Revenue gridlines at quarters of the scale
+        for (int i = 0; i <= 4; i++) {
+            int y = TOP + h - 2 - (int) Math.round(i * (h - 4) / 4.0);
+            g.setColor(new Color(235, 235, 235));
+            g.drawLine(LEFT + 1, y, LEFT + w - 1, y);
+            g.setColor(Color.DARK_GRAY);
+            String label = String.format("%,.0f", cacheMax * i / 4);
+            g.drawString(label, LEFT - 6 - fm.stringWidth(label), y + fm.getAscent() / 2 - 1);
+        }
+        // Date labels spaced to fit
+        double span = viewEnd - viewStart;
+        int labels = Math.max(2, w / 130);
+        g.setColor(Color.DARK_GRAY);
+        for (int i = 0; i < labels; i++) {
+            double day = viewStart + span * i / (labels - 1);
+            LocalDate date = LocalDate.ofEpochDay(Math.round(day));
+            String label = date.format(monthly || span > 400 ? MONTH_LABEL : DAY_LABEL);
+            int x = LEFT + (int) Math.round((day - viewStart) * w / span) - fm.stringWidth(label) / 2;
+            x = Math.max(LEFT, Math.min(x, LEFT + w - fm.stringWidth(label)));
+            g.drawString(label, x, TOP + h + fm.getAscent() + 6);
+        }
+    }
+
+    // Index of the first element >= key
+    private static int lowerBound(long[] sorted, long key) {
+        int i = Arrays.binarySearch(sorted, key);
+        if (i < 0)
+            return -i - 1;
+        while (i > 0 && sorted[i - 1] == key)
+            i--;
+        return i;
+    }
+
+    // Rounds a maximum up to 1, 2 or 5 times a power of ten, for readable axis labels
+    private static double niceCeiling(double max) {
+        if (max <= 0)
+            return 1;
+        double magnitude = Math.pow(10, Math.floor(Math.log10(max)));
+        for (double step : new double[] { 1, 2, 5, 10 }) {
+            if (max <= step * magnitude)
+                return step * magnitude;
+        }
+        return 10 * magnitude;
+    }
+
+    /**
+     * Picks threshold points of [from, to) that keep the visual shape of the series:
+     * the first and last points, plus from each bucket in between the point forming
+     * the largest triangle with the previously picked point and the next bucket's
+     * average. Runs in linear time.
+     * 
+     * @return Indices of the picked points, ascending; all indices if there are no
+     *         more than threshold points.
+     */
+    static int[] largestTriangleThreeBuckets(long[] x, double[] y, int from, int to, int threshold) {
+        int n = to - from;
+        if (threshold >= n || threshold < 3) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++)
+                all[i] = from + i;
+            return all;
+        }
+        int[] picked = new int[threshold];
+        picked[0] = from;
+        double bucketSize = (double) (n - 2) / (threshold - 2);
+        int a = from;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int start = from + 1 + (int) Math.floor(bucket * bucketSize);
+            int end = from + 1 + (int) Math.floor((bucket + 1) * bucketSize);
+            // Average of the next bucket (the last point for the final bucket)
+            int nextStart = end;
+            int nextEnd = Math.min(from + 1 + (int) Math.floor((bucket + 2) * bucketSize), to);
+            double avgX = 0, avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += x[i];
+                avgY += y[i];
+            }
+            int count = nextEnd - nextStart;
+            avgX /= count;
+            avgY /= count;
+
+            double maxArea = -1;
+            int best = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((x[a] - avgX) * (y[i] - y[a]) - (x[a] - x[i]) * (avgY - y[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    best = i;
+                }
+            }
+            picked[bucket + 1] = best;
+            a = best;
+        }
+        picked[threshold - 1] = to - 1;
+        return picked;
+    }
+}
+
+// Table model for the scan checkout basket; repeated scans of an item add up on one line
+class BasketTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = { "ID", "Name", "Qty", "Price", "Amount" };
+
+    private final List<InventoryItem> items = new ArrayList<>();
+    private final List<Integer> quantities = new ArrayList<>();
+    private final Map<String, Integer> rowById = new HashMap<>();
+
+    // Adds quantity units of the item and returns the row it is on
+    int add(InventoryItem item, int quantity) {
+        Integer row = rowById.get(item.id);
+        if (row != null) {
+            quantities.set(row, quantities.get(row) + quantity);
+            fireTableRowsUpdated(row, row);
+            return row;
+        }
+        row = items.size();
+        items.add(item);
+        quantities.add(quantity);
+        rowById.put(item.id, row);
+        fireTableRowsInserted(row, row);
+        return row;
+    }
+
+    int quantityOf(String itemId) {
+        Integer row = rowById.get(itemId);
+        return row == null ? 0 : quantities.get(row);
+    }
+
+    void removeRow(int row) {
+        rowById.remove(items.remove(row).id);
+        quantities.remove(row);
+        for (int i = row; i < items.size(); i++) {
+            rowById.put(items.get(i).id, i);
+        }
+        fireTableRowsDeleted(row, row);
+    }
+
+    void clear() {
+        items.clear();
+        quantities.clear();
+        rowById.clear();
+        fireTableDataChanged();
+    }
+
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    InventoryItem getItem(int row) {
+        return items.get(row);
+    }
+
+    double getTotal() {
+        double total = 0.0;
+        for (int row = 0; row < items.size(); row++) {
+            total += quantities.get(row) * items.get(row).price;
+        }
+        return total;
+    }
+
+    // The basket's items at their scanned prices, and the quantity of each, for pricing
+    List<InventoryItem> getItems() {
+        return List.copyOf(items);
+    }
+
+    List<Integer> getQuantities() {
+        return List.copyOf(quantities);
+    }
+
+    @Override
+    public int getRowCount() {
+        return items.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        InventoryItem item = items.get(row);
+        return switch (column) {
+            case 0 -> item.id;
+            case 1 -> item.name;
+            case 2 -> quantities.get(row);
+            case 3 -> String.format("%.2f", item.price);
+            default -> String.format("%.2f", quantities.get(row) * item.price);
+        };
+    }
+}
+
+// Inventory tab rows: a snapshot of every item, kept current from the store's item change events and
+// indexed by category and by the words of each ID and name, so filtering never goes back to the store.
+// Used on the EDT only; deleting moves the last row into the freed one.
+class InventoryTableModel extends AbstractTableModel implements ItemChangeListener {
+    private static final String[] COLUMNS = { "ID", "Name", "Quantity", "Price", "Category", "Reorder At" };
+
+    private final List<InventoryItem> items = new ArrayList<>();
+    private final Map<String, Integer> rowById = new HashMap<>();
+    private final Map<String, BitSet> rowsByCategory = new HashMap<>();
+    private final TreeMap<String, BitSet> rowsByWord = new TreeMap<>(); // Lower-case words of IDs and names
+
+    // Current filter, and the rows it shows, or null when it shows everything
+    private String[] filterWords = new String[0];
+    private String filterCategory;
+    private BitSet shown;
+    private boolean batching; // Row events are held back while a batch of changes is applied
+
+    // Shows the rows in the current filter; set it on the table's sorter again after changing the filter
+    final RowFilter<TableModel, Integer> rowFilter = new RowFilter<>() {
+        @Override
+        public boolean include(Entry<? extends TableModel, ? extends Integer> entry) {
+            return shown == null || shown.get(entry.getIdentifier());
+        }
+    };
+
+    /**
+     * Filters the rows to the items in a category whose ID or name has a word
+     * starting with each word of the search, answered from the indexes.
+     * 
+     * @param search   Words to look for, e.g. "red sh" finds "Red Shirt"; blank for any.
+     * @param category Category to show, or null for all.
+     */
+    void setFilter(String search, String category) {
+        filterWords = words(search == null ? "" : search);
+        filterCategory = category;
+        if (filterWords.length == 0 && category == null) {
+            shown = null;
+            return;
+        }
+        BitSet result = null;
+        if (category != null) {
+            BitSet rows = rowsByCategory.get(category);
+            result = rows == null ? new BitSet() : (BitSet) rows.clone();
+        }
+        for (String word : filterWords) {
+            BitSet withPrefix = new BitSet(items.size());
+            for (BitSet rows : rowsByWord.subMap(word, true, word + Character.MAX_VALUE, false).values()) {
+                withPrefix.or(rows);
+            }
+            if (result == null)
+                result = withPrefix;
+            else
+                result.and(withPrefix);
+        }
+        shown = result;
+    }
+
+    @Override
+    public void itemChanged(InventoryItem before, InventoryItem after) {
+        if (before != null && (after == null || !before.id.equals(after.id)))
+            removeItem(before.id);
+        if (after != null)
+            putItem(after);
+    }
+
+    // Applies a batch of changes, e.g. from a bulk action, and tells the table once
+    @Override
+    public void itemsChanged(List<InventoryItem> before, List<InventoryItem> after) {
+        boolean rowsAddedOrRemoved = false;
+        batching = true;
+        try {
+            for (int i = 0; i < before.size(); i++) {
+                itemChanged(before.get(i), after.get(i));
+                rowsAddedOrRemoved |= before.get(i) == null || after.get(i) == null;
+            }
+        } finally {
+            batching = false;
+        }
+        if (rowsAddedOrRemoved)
+            fireTableDataChanged();
+        else if (!items.isEmpty())
+            fireTableRowsUpdated(0, items.size() - 1);
+    }
+
+    @Override
+    public void fireTableChanged(TableModelEvent e) {
+        if (!batching)
+            super.fireTableChanged(e);
+    }
+
+    @Override
+    public void itemsReset(List<InventoryItem> reset) {
+        items.clear();
+        rowById.clear();
+        rowsByCategory.clear();
+        rowsByWord.clear();
+        for (InventoryItem item : reset) {
+            rowById.put(item.id, items.size());
+            index(item, items.size());
+            items.add(item);
+        }
+        setFilter(String.join(" ", filterWords), filterCategory);
+        fireTableDataChanged();
+    }
+
+    private void putItem(InventoryItem item) {
+        Integer existing = rowById.get(item.id);
+        int row = existing == null ? items.size() : existing;
+        if (existing != null) {
+            unindex(items.get(row), row);
+            items.set(row, item);
+        } else {
+            rowById.put(item.id, row);
+            items.add(item);
+        }
+        index(item, row);
+        if (shown != null)
+            shown.set(row, matches(item));
+        if (existing != null)
+            fireTableRowsUpdated(row, row);
+        else
+            fireTableRowsInserted(row, row);
+    }
+
+    private void removeItem(String id) {
+        Integer row = rowById.remove(id);
+        if (row == null)
+            return;
+        unindex(items.get(row), row);
+        int last = items.size() - 1;
+        InventoryItem moved = items.remove(last);
+        if (row != last) {
+            unindex(moved, last);
+            items.set(row, moved);
+            rowById.put(moved.id, row);
+            index(moved, row);
+        }
+        if (shown != null) {
+            shown.set(row, shown.get(last));
+            shown.clear(last);
+        }
+        fireTableRowsDeleted(last, last);
+        if (row != last)
+            fireTableRowsUpdated(row, row);
+    }
+
+    private boolean matches(InventoryItem item) {
+        if (filterCategory != null && !filterCategory.equals(item.category))
+            return false;
+        String[] itemWords = words(item.id + " " + item.name);
+        for (String word : filterWords) {
+            boolean found = false;
+            for (String itemWord : itemWords) {
+                found |= itemWord.startsWith(word);
+            }
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    private void index(InventoryItem item, int row) {
+        if (item.category != null)
+            rowsByCategory.computeIfAbsent(item.category, c -> new BitSet()).set(row);
+        for (String word : words(item.id + " " + item.name)) {
+            rowsByWord.computeIfAbsent(word, w -> new BitSet()).set(row);
+        }
+    }
+
+    private void unindex(InventoryItem item, int row) {
+        if (item.category != null)
+            clearRow(rowsByCategory, item.category, row);
+        for (String word : words(item.id + " " + item.name)) {
+            clearRow(rowsByWord, word, row);
+        }
+    }
+
+    private static void clearRow(Map<String, BitSet> index, String key, int row) {
+        BitSet rows = index.get(key);
+        if (rows == null)
+            return;
+        rows.clear(row);
+        if (rows.isEmpty())
+            index.remove(key);
+    }
+
+    // Lower-case runs of letters and digits, e.g. "SKU-12 Red Shirt" -> sku, 12, red, shirt
+    static String[] words(String text) {
+        return Arrays.stream(text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                .filter(word -> !word.isEmpty()).toArray(String[]::new);
+    }
+
+    @Override
+    public int getRowCount() {
+        return items.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
     }
 
-    // Searches for items by ID or name
-    public ResultSet searchItems(String keyword) {
-        try {
-            PreparedStatement stmt = conn.prepareStatement("SELECT * FROM items WHERE id LIKE ? OR name LIKE ?");
-            stmt.setString(1, "%" + keyword + "%");
-            stmt.setString(2, "%" + keyword + "%");
-            return stmt.executeQuery();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return null;
-        }
+    @Override
+    public Object getValueAt(int row, int column) {
+        InventoryItem item = items.get(row);
+        return switch (column) {
+            case 0 -> item.id;
+            case 1 -> item.name;
+            case 2 -> String.valueOf(item.quantity);
+            case 3 -> String.valueOf(item.price);
+            case 4 -> item.category;
+            default -> String.valueOf(item.reorderThreshold);
+        };
     }
+}
 
-    // Records a sale and updates item quantity
-    public void recordSale(String itemId, int quantitySold, double priceSold, String date) {
-        try {
-            PreparedStatement stmt = conn.prepareStatement(
-                    "INSERT INTO sales (item_id, quantity_sold, price_sold, date) VALUES (?, ?, ?, ?)");
-            stmt.setString(1, itemId);
-            stmt.setInt(2, quantitySold);
-            stmt.setDouble(3, priceSold);
-            stmt.setString(4, date);
-            stmt.executeUpdate();
+// Table model for the individual sales dialog that grows a page at a time
+class SalesPageTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = { "Sale ID", "Item ID", "Item Name", "Quantity Sold", "Price Sold",
+            "Sale Date" };
 
-            // Update the quantity of the sold item
-            PreparedStatement update = conn.prepareStatement("UPDATE items SET quantity = quantity - ? WHERE id = ?");
-            update.setInt(1, quantitySold);
-            update.setString(2, itemId);
-            update.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    private final List<SaleRecord> sales = new ArrayList<>();
+    private boolean loading;
+    private boolean exhausted;
+
+    // Marks a page fetch as started; false if one is running or there is nothing left to fetch
+    boolean startLoading() {
+        if (loading || exhausted)
+            return false;
+        loading = true;
+        return true;
     }
 
-    // Calculates and returns the total revenue from sales
-    public double getTotalRevenue() {
-        try {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT SUM(quantity_sold * price_sold) AS total FROM sales");
-            return rs.next() ? rs.getDouble("total") : 0.0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return 0.0;
-        }
+    // Appends a fetched page; a short page means the month has been fully loaded
+    void appendPage(List<SaleRecord> page, int pageSize) {
+        loading = false;
+        exhausted = page.size() < pageSize;
+        if (page.isEmpty())
+            return;
+        int first = sales.size();
+        sales.addAll(page);
+        fireTableRowsInserted(first, sales.size() - 1);
     }
 
-    /**
-     * Retrieves aggregated monthly revenue summary for a specific year.
-     * 
-     * @param year The year to filter by. If 0, returns all years.
-     * @return ResultSet containing month_year (YYYY-MM) and total_revenue.
-     */
-    public ResultSet getMonthlyRevenueSummary(int year) {
-        try {
-            String query;
-            if (year > 0) {
-                query = "SELECT strftime('%Y-%m', date) AS month_year, SUM(quantity_sold * price_sold) AS total_revenue "
-                        +
-                        "FROM sales WHERE strftime('%Y', date) = ? GROUP BY month_year ORDER BY month_year DESC";
-                PreparedStatement pstmt = conn.prepareStatement(query);
-                pstmt.setString(1, String.valueOf(year));
-                return pstmt.executeQuery();
-            } else {
-                query = "SELECT strftime('%Y-%m', date) AS month_year, SUM(quantity_sold * price_sold) AS total_revenue "
-                        +
-                        "FROM sales GROUP BY month_year ORDER BY month_year DESC";
-                Statement stmt2 = conn.createStatement(); // Use a different variable name to avoid duplicate
-                return stmt2.executeQuery(query);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return null;
-        }
+    // Keyset of the last loaded sale, where the next page starts
+    String getLastDate() {
+        return sales.isEmpty() ? "" : sales.get(sales.size() - 1).date;
     }
 
-    /**
-     * Calculates the total annual revenue for a specific year.
-     * 
-     * @param year The year to calculate revenue for.
-     * @return Total annual revenue.
-     */
-    public double getTotalAnnualRevenue(int year) {
-        try {
-            String query = "SELECT SUM(quantity_sold * price_sold) AS total FROM sales WHERE strftime('%Y', date) = ?";
-            PreparedStatement stmt = conn.prepareStatement(query);
-            stmt.setString(1, String.valueOf(year));
-            ResultSet rs = stmt.executeQuery();
-            return rs.next() ? rs.getDouble("total") : 0.0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return 0.0;
-        }
+    int getLastSaleId() {
+        return sales.isEmpty() ? 0 : sales.get(sales.size() - 1).saleId;
     }
 
-    /**
-     * Retrieves individual sales data for a specific month and year, including item
-     * name.
-     * 
-     * @param yearMonth The month and year in YYYY-MM format.
-     * @return ResultSet containing individual sales data or null if an error
-     *         occurs.
-     */
-    public ResultSet getIndividualSalesForMonth(String yearMonth) {
-        try {
-            String query = "SELECT s.sale_id, s.item_id, i.name AS item_name, s.quantity_sold, s.price_sold, s.date " +
-                    "FROM sales s JOIN items i ON s.item_id = i.id " +
-                    "WHERE strftime('%Y-%m', s.date) = ? ORDER BY s.date ASC";
-            PreparedStatement stmt = conn.prepareStatement(query);
-            stmt.setString(1, yearMonth);
-            return stmt.executeQuery();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return null;
-        }
+    SaleRecord getSale(int row) {
+        return sales.get(row);
     }
 
-    // Resets all sales data
-    public void resetRevenue() {
-        try {
-            Statement stmt = conn.createStatement();
-            stmt.execute("DELETE FROM sales");
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    @Override
+    public int getRowCount() {
+        return sales.size();
     }
 
-    // Authenticates a user and returns their role if successful
-    public String authenticate(String username, String password) {
-        try {
-            PreparedStatement stmt = conn.prepareStatement("SELECT role FROM users WHERE username=? AND password=?");
-            stmt.setString(1, username);
-            stmt.setString(2, password);
-            ResultSet rs = stmt.executeQuery();
-            return rs.next() ? rs.getString("role") : null;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return null;
-        }
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
     }
 
-    // Deletes a sale from the sales table by sale ID
-    public void deleteSale(int saleId) {
-        try {
-            PreparedStatement stmt = conn.prepareStatement("DELETE FROM sales WHERE sale_id=?");
-            stmt.setInt(1, saleId);
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        SaleRecord sale = sales.get(row);
+        return switch (column) {
+            case 0 -> sale.saleId;
+            case 1 -> sale.itemId;
+            case 2 -> sale.itemName;
+            case 3 -> sale.quantitySold;
+            case 4 -> sale.priceSold;
+            default -> sale.date;
+        };
     }
 }
 
@@ -268,10 +7338,14 @@ class LoginFrame extends JFrame {
     private JPasswordField passwordField;
     private JButton loginButton;
     private JLabel errorMessageLabel;
-    private DatabaseManager db;
+    private InventoryStore db;
+    private BackupScheduler backups; // Null when the store is not backed by a database file
+    private WorkloadRecorder recorder; // When set, every session's store calls are traced
 
-    public LoginFrame(DatabaseManager db) {
+    public LoginFrame(InventoryStore db, BackupScheduler backups, WorkloadRecorder recorder) {
         this.db = db;
+        this.backups = backups;
+        this.recorder = recorder;
         setTitle("Login to RevUp Inventory System");
         setSize(400, 300);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -448,8 +7522,20 @@ class LoginFrame extends JFrame {
 
         if (role != null) {
             errorMessageLabel.setText(""); // Clear any previous error message
+            InventoryStore session = db;
+            if (role.equals("viewer") && db instanceof DatabaseManager primary) {
+                // Viewers only browse, so they get a read-only connection that never waits on cashiers' writes
+                try {
+                    session = DatabaseManager.openViewer(primary);
+                } catch (SQLException e) {
+                    e.printStackTrace(); // Fall back to the shared store
+                }
+            }
+            session = StoreCallEvent.instrument(session);
+            if (recorder != null)
+                session = recorder.wrap(session);
             dispose(); // Close login window
-            new RevUpApp(username, role, db).setVisible(true); // Open main app window
+            new RevUpApp(username, role, session, backups).setVisible(true); // Open main app window
         } else {
             errorMessageLabel.setText("Invalid username or password. Please try again.");
             passwordField.setText(""); // Clear password field
@@ -460,12 +7546,16 @@ class LoginFrame extends JFrame {
 
 // Main application window for the inventory system
 public class RevUpApp extends JFrame {
-    private JTextField idField, nameField, quantityField, priceField, searchField, sellQtyField;
+    private JTextField idField, nameField, quantityField, priceField, reorderField, searchField, sellQtyField;
     private JComboBox<String> categoryBox, filterCategoryBox;
-    private DefaultTableModel tableModel; // Inventory table model
+    private InventoryTableModel tableModel; // Inventory table model, kept current from the store's item events
+    private TableRowSorter<TableModel> inventorySorter;
     private JTable inventoryTable; // Renamed for clarity
     private JLabel revenueLabel;
-    private DatabaseManager db;
+    private JLabel stockValueLabel; // Value of the stock on hand, with each category's in the tooltip
+    private final AtomicBoolean stockValueRefreshQueued = new AtomicBoolean();
+    private InventoryStore db;
+    private BackupScheduler backups;
     private String currentUser;
     private String currentRole;
 
@@ -474,12 +7564,44 @@ public class RevUpApp extends JFrame {
     private DefaultTableModel monthlyRevenueTableModel; // Model for monthly summaries
     private JComboBox<String> yearFilterComboBox; // New: Year filter for monthly revenue
     private JLabel annualRevenueLabel; // New: Label to display total annual revenue
-
-    // Define the low stock threshold for visual indication
-    private static final int LOW_STOCK_THRESHOLD = 5; // Items with quantity <= 5 will be considered low stock
-
-    public RevUpApp(String username, String role, DatabaseManager dbManager) {
+    private final AtomicBoolean salesRefreshQueued = new AtomicBoolean();
+
+    // Sales fetched per page in the individual sales dialog
+    private static final int SALES_PAGE_SIZE = 200;
+
+    // Low Stock tab components, fed from the database's low-stock index
+    private JTabbedPane tabbedPane;
+    private JPanel lowStockPanel;
+    private DefaultTableModel lowStockTableModel;
+    private JLabel lowStockNoticeLabel;
+    private final AtomicBoolean lowStockRefreshQueued = new AtomicBoolean();
+
+    // Reorder Forecast tab components
+    private JPanel forecastPanel;
+    private DefaultTableModel forecastTableModel;
+
+    // Revenue trend chart on the Sales & Analytics tab
+    private RevenueChart revenueChart;
+    private JComboBox<String> chartModeBox;
+
+    // Sale size and price distribution on the Sales & Analytics tab, read from the store's sketches
+    private JComboBox<String> distributionCategoryBox;
+    private JLabel distributionLabel;
+
+    // Scan Checkout tab components; scans are looked up by ID in the store's in-memory low-stock index
+    private JPanel scanPanel;
+    private JTextField scanField;
+    private BasketTableModel basketModel;
+    private JTable basketTable;
+    private JLabel scanStatusLabel;
+    private JLabel basketTotalLabel;
+    private JButton completeScanButton;
+    private boolean scanSaleRecording; // A basket is being recorded; scans meanwhile go into the next one
+    private boolean completeAfterRecording; // The next basket was completed while the previous one recorded
+
+    public RevUpApp(String username, String role, InventoryStore dbManager, BackupScheduler backups) {
         this.db = dbManager;
+        this.backups = backups;
         this.currentUser = username;
         this.currentRole = role;
 
@@ -502,7 +7624,7 @@ public class RevUpApp extends JFrame {
         getContentPane().setBackground(lightGreyBackground);
 
         // Main Tabbed Pane
-        JTabbedPane tabbedPane = new JTabbedPane();
+        tabbedPane = new JTabbedPane();
         tabbedPane.setFont(new Font("Segoe UI", Font.BOLD, 14)); // Style for tab titles
 
         // -------------------- Inventory Management Tab --------------------
@@ -526,10 +7648,11 @@ public class RevUpApp extends JFrame {
         inputPanel.add(createStyledLabel("Name"), gbc(1, 0, gbc));
         inputPanel.add(createStyledLabel("Quantity"), gbc(2, 0, gbc));
         inputPanel.add(createStyledLabel("Price"), gbc(3, 0, gbc));
-        inputPanel.add(createStyledLabel("Category"), gbc(4, 0, gbc));
-        inputPanel.add(createStyledLabel("Search"), gbc(5, 0, gbc));
-        inputPanel.add(createStyledLabel("Sell Qty"), gbc(6, 0, gbc));
-        inputPanel.add(createStyledLabel("Filter Category"), gbc(7, 0, gbc));
+        inputPanel.add(createStyledLabel("Reorder At"), gbc(4, 0, gbc));
+        inputPanel.add(createStyledLabel("Category"), gbc(5, 0, gbc));
+        inputPanel.add(createStyledLabel("Search"), gbc(6, 0, gbc));
+        inputPanel.add(createStyledLabel("Sell Qty"), gbc(7, 0, gbc));
+        inputPanel.add(createStyledLabel("Filter Category"), gbc(8, 0, gbc));
 
         // Row 2: Input fields
         gbc.gridy = 1;
@@ -537,28 +7660,34 @@ public class RevUpApp extends JFrame {
         nameField = createStyledTextField();
         quantityField = createStyledTextField();
         priceField = createStyledTextField();
-        categoryBox = createStyledComboBox(new String[] { "Electronics", "Clothing", "Furniture", "Other" });
+        reorderField = createStyledTextField();
+        reorderField.setToolTipText("Low stock when quantity is at or below this (default "
+                + InventoryItem.DEFAULT_REORDER_THRESHOLD + ")");
+        categoryBox = createStyledComboBox(new String[0]);
         searchField = createStyledTextField();
         sellQtyField = createStyledTextField();
-        filterCategoryBox = createStyledComboBox(
-                new String[] { "All", "Electronics", "Clothing", "Furniture", "Other" });
+        filterCategoryBox = createStyledComboBox(new String[] { "All" });
+        loadCategories();
 
         inputPanel.add(idField, gbc(0, 1, gbc));
         inputPanel.add(nameField, gbc(1, 1, gbc));
         inputPanel.add(quantityField, gbc(2, 1, gbc));
         inputPanel.add(priceField, gbc(3, 1, gbc));
-        inputPanel.add(categoryBox, gbc(4, 1, gbc));
-        inputPanel.add(searchField, gbc(5, 1, gbc));
-        inputPanel.add(sellQtyField, gbc(6, 1, gbc));
-        inputPanel.add(filterCategoryBox, gbc(7, 1, gbc));
+        inputPanel.add(reorderField, gbc(4, 1, gbc));
+        inputPanel.add(categoryBox, gbc(5, 1, gbc));
+        inputPanel.add(searchField, gbc(6, 1, gbc));
+        inputPanel.add(sellQtyField, gbc(7, 1, gbc));
+        inputPanel.add(filterCategoryBox, gbc(8, 1, gbc));
 
         inventoryPanel.add(inputPanel, BorderLayout.NORTH);
 
         // Table for displaying inventory items
-        tableModel = new DefaultTableModel(new String[] { "ID", "Name", "Quantity", "Price", "Category" }, 0);
+        tableModel = new InventoryTableModel();
         inventoryTable = new JTable(tableModel); // Renamed
-        TableRowSorter<TableModel> inventorySorter = new TableRowSorter<>(tableModel);
+        inventorySorter = new TableRowSorter<>(tableModel);
         inventoryTable.setRowSorter(inventorySorter);
+        inventorySorter.setRowFilter(tableModel.rowFilter);
+        inventorySorter.setSortsOnUpdates(true); // Updated rows are re-sorted and re-filtered as they change
         // Set default sort order for quantity and price
         inventorySorter.setSortKeys(List.of(
                 new RowSorter.SortKey(2, SortOrder.ASCENDING),
@@ -610,12 +7739,13 @@ public class RevUpApp extends JFrame {
 
                 label.setForeground(table.getForeground()); // Default text color
 
-                // Specific styling for Quantity column (low stock)
+                // Specific styling for Quantity column (low stock against the item's own threshold)
                 if (column == 2) { // Quantity column
                     label.setHorizontalAlignment(JLabel.CENTER); // Center quantity text
                     try {
                         int quantity = Integer.parseInt(value.toString());
-                        if (quantity <= LOW_STOCK_THRESHOLD) {
+                        int reorderThreshold = Integer.parseInt(table.getValueAt(row, 5).toString());
+                        if (quantity <= reorderThreshold) {
                             label.setBackground(new Color(255, 102, 102)); // Light Red for low stock
                             label.setText("<html><b><font color='white'>" + value.toString() + " ⚠</font></b></html>");
                             label.setForeground(Color.WHITE); // Ensure foreground is white for low stock
@@ -625,6 +7755,9 @@ public class RevUpApp extends JFrame {
                     } catch (NumberFormatException e) {
                         label.setText("<html>" + value.toString() + "</html>");
                     }
+                } else if (column == 5) { // Reorder At column
+                    label.setHorizontalAlignment(JLabel.CENTER);
+                    label.setText("<html>" + value.toString() + "</html>");
                 } else if (column == 3) { // Price column
                     label.setHorizontalAlignment(JLabel.RIGHT); // Right align price
                     label.setText("<html>" + String.format("%.2f", Double.parseDouble(value.toString())) + "</html>"); // Format
@@ -650,19 +7783,57 @@ public class RevUpApp extends JFrame {
             inventoryTable.getColumnModel().getColumn(i).setCellRenderer(inventoryCellRenderer);
         }
 
-        // Add action listener to filter category combobox
-        filterCategoryBox
-                .addActionListener(_ -> loadItems(searchField.getText(), (String) filterCategoryBox.getSelectedItem()));
+        // Filter as the category changes or the search is typed, from the table's own snapshot
+        filterCategoryBox.addActionListener(_ -> filterItems());
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterItems();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filterItems();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterItems();
+            }
+        });
 
         // Create popup menu for inventory table row actions
         JPopupMenu inventoryPopupMenu = new JPopupMenu();
         JMenuItem editItem = new JMenuItem("✏️ Edit Item");
-        JMenuItem deleteItem = new JMenuItem("🗑️ Delete Item"); // Keep delete in right-click menu
+        JMenuItem deleteItem = new JMenuItem("🗑️ Delete Selected"); // Keep delete in right-click menu
+        // Bulk actions on every selected row, each applied by the store in one transaction
+        JMenuItem repriceItem = new JMenuItem("💲 Change Price by %...");
+        JMenuItem moveCategoryItem = new JMenuItem("🏷️ Move to Category...");
+        JMenuItem restockItem = new JMenuItem("📦 Restock Selected...");
         JMenuItem resetRevenueItem = new JMenuItem("♻️ Reset Revenue"); // This is a general revenue reset, not for
                                                                         // individual items
+        JMenuItem backupNowItem = new JMenuItem("💾 Backup Now");
+        JMenuItem restoreBackupItem = new JMenuItem("⏪ Restore Backup...");
+        JMenuItem stockAsOfItem = new JMenuItem("📅 Stock As Of...");
+        JMenuItem manageCategoriesItem = new JMenuItem("🏷️ Manage Categories...");
+        JMenuItem managePromotionsItem = new JMenuItem("🎟️ Manage Promotions...");
+        JMenuItem stockCountItem = new JMenuItem("📋 Reconcile Stock Count...");
         inventoryPopupMenu.add(editItem);
         inventoryPopupMenu.add(deleteItem);
+        inventoryPopupMenu.add(repriceItem);
+        inventoryPopupMenu.add(moveCategoryItem);
+        inventoryPopupMenu.add(restockItem);
+        inventoryPopupMenu.addSeparator();
         inventoryPopupMenu.add(resetRevenueItem);
+        inventoryPopupMenu.add(stockAsOfItem);
+        inventoryPopupMenu.add(manageCategoriesItem);
+        inventoryPopupMenu.add(managePromotionsItem);
+        inventoryPopupMenu.add(stockCountItem);
+        if (backups != null) { // Nothing to back up for an in-memory store
+            inventoryPopupMenu.addSeparator();
+            inventoryPopupMenu.add(backupNowItem);
+            inventoryPopupMenu.add(restoreBackupItem);
+        }
         inventoryTable.setComponentPopupMenu(inventoryPopupMenu); // Attach popup menu to the inventory table
 
         // Add mouse listener to handle right-click for inventory popup menu
@@ -670,6 +7841,8 @@ public class RevUpApp extends JFrame {
             public void mousePressed(java.awt.event.MouseEvent e) {
                 if (SwingUtilities.isRightMouseButton(e)) {
                     int row = inventoryTable.rowAtPoint(e.getPoint());
+                    if (row >= 0 && inventoryTable.isRowSelected(row))
+                        return; // Keep a multi-row selection for the bulk actions
                     if (row >= 0 && row < inventoryTable.getRowCount())
                         inventoryTable.setRowSelectionInterval(row, row); // Select row on right-click
                     else
@@ -689,26 +7862,37 @@ public class RevUpApp extends JFrame {
                 quantityField.setText(stripHtmlAndEmoji(inventoryTable.getValueAt(row, 2).toString()));
                 priceField.setText(stripHtmlAndEmoji(inventoryTable.getValueAt(row, 3).toString()));
                 categoryBox.setSelectedItem((String) inventoryTable.getValueAt(row, 4));
+                reorderField.setText(inventoryTable.getValueAt(row, 5).toString());
             }
         });
 
-        // Action listener for "Delete Item" in inventory popup menu
+        // Action listener for "Delete Selected" in inventory popup menu
         deleteItem.addActionListener(_ -> {
             if (!isAuthorized("admin")) // Check for admin authorization
                 return;
-            int row = inventoryTable.getSelectedRow();
-            if (row != -1) {
-                String id = (String) inventoryTable.getValueAt(row, 0);
-                int confirm = JOptionPane.showConfirmDialog(null, "Delete item ID: " + id + "?", "Confirm",
+            List<String> ids = selectedItemIds();
+            if (ids.size() == 1) {
+                int confirm = JOptionPane.showConfirmDialog(null, "Delete item ID: " + ids.get(0) + "?", "Confirm",
                         JOptionPane.YES_NO_OPTION);
                 if (confirm == JOptionPane.YES_OPTION) {
-                    db.deleteItem(id);
-                    loadItems(searchField.getText(), (String) filterCategoryBox.getSelectedItem());
+                    db.deleteItem(ids.get(0));
+                    updateRevenue();
+                }
+            } else if (ids.size() > 1) {
+                int confirm = JOptionPane.showConfirmDialog(null, "Delete " + ids.size() + " selected items?",
+                        "Confirm", JOptionPane.YES_NO_OPTION);
+                if (confirm == JOptionPane.YES_OPTION) {
+                    db.deleteItems(ids);
                     updateRevenue();
                 }
             }
         });
 
+        // Action listeners for the bulk actions in inventory popup menu
+        repriceItem.addActionListener(_ -> bulkReprice());
+        moveCategoryItem.addActionListener(_ -> bulkMoveToCategory());
+        restockItem.addActionListener(_ -> bulkRestock());
+
         // Action listener for "Reset Revenue" in inventory popup menu
         resetRevenueItem.addActionListener(_ -> {
             if (!isAuthorized("admin")) // Check for admin authorization
@@ -719,10 +7903,49 @@ public class RevUpApp extends JFrame {
                 db.resetRevenue();
                 updateRevenue();
                 loadMonthlyRevenueSummary(); // Also refresh monthly sales summary
+                loadRevenueChart();
                 JOptionPane.showMessageDialog(this, "Revenue reset.");
             }
         });
 
+        // Action listener for "Stock As Of" in inventory popup menu
+        stockAsOfItem.addActionListener(_ -> showStockAsOf());
+
+        // Action listener for "Manage Categories" in inventory popup menu
+        manageCategoriesItem.addActionListener(_ -> {
+            if (!isAuthorized("admin")) // Check for admin authorization
+                return;
+            manageCategories();
+        });
+
+        // Action listener for "Manage Promotions" in inventory popup menu
+        managePromotionsItem.addActionListener(_ -> {
+            if (!isAuthorized("admin")) // Check for admin authorization
+                return;
+            managePromotions();
+        });
+
+        // Action listener for "Reconcile Stock Count" in inventory popup menu
+        stockCountItem.addActionListener(_ -> {
+            if (!isAuthorized("admin")) // Check for admin authorization
+                return;
+            reconcileStockCount();
+        });
+
+        // Action listener for "Backup Now" in inventory popup menu
+        backupNowItem.addActionListener(_ -> {
+            if (!isAuthorized("admin")) // Check for admin authorization
+                return;
+            backupNow();
+        });
+
+        // Action listener for "Restore Backup" in inventory popup menu
+        restoreBackupItem.addActionListener(_ -> {
+            if (!isAuthorized("admin")) // Check for admin authorization
+                return;
+            restoreBackup();
+        });
+
         // Bottom panel for action buttons and revenue display for Inventory tab
         JPanel inventoryBottomPanel = new JPanel(new BorderLayout());
         JPanel inventoryButtonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 15, 10)); // Center buttons with
@@ -748,8 +7971,22 @@ public class RevUpApp extends JFrame {
         revenueLabel.setForeground(textColor);
         revenueLabel.setFont(new Font("Segoe UI", Font.BOLD, 18));
         revenueLabel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        stockValueLabel = new JLabel("Stock Value: PHP 0.00", SwingConstants.CENTER);
+        stockValueLabel.setForeground(textColor);
+        stockValueLabel.setFont(new Font("Segoe UI", Font.BOLD, 18));
+        stockValueLabel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        JPanel totalsPanel = new JPanel(new GridLayout(1, 2));
+        totalsPanel.setBackground(primaryColor);
+        totalsPanel.add(revenueLabel);
+        totalsPanel.add(stockValueLabel);
         inventoryBottomPanel.setBackground(primaryColor);
-        inventoryBottomPanel.add(revenueLabel, BorderLayout.SOUTH);
+        inventoryBottomPanel.add(totalsPanel, BorderLayout.SOUTH);
+
+        // Non-modal notice shown when an item drops to its reorder threshold
+        lowStockNoticeLabel = new JLabel(" ", SwingConstants.CENTER);
+        lowStockNoticeLabel.setForeground(new Color(255, 102, 102));
+        lowStockNoticeLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        inventoryBottomPanel.add(lowStockNoticeLabel, BorderLayout.NORTH);
         inventoryPanel.add(inventoryBottomPanel, BorderLayout.SOUTH);
 
         tabbedPane.addTab("Inventory Management", inventoryPanel);
@@ -773,23 +8010,21 @@ public class RevUpApp extends JFrame {
         // Populate year filter with unique years from sales data
         Vector<String> years = new Vector<>();
         years.add("All Years"); // Option to show all years
-        try (ResultSet rs = db.getMonthlyRevenueSummary(0)) { // Pass 0 to get all years
-            while (rs.next()) {
-                String monthYear = rs.getString("month_year");
-                String year = monthYear.substring(0, 4);
-                if (!years.contains(year)) {
-                    years.add(year);
-                }
+        db.getMonthlyRevenueSummary(0, month -> { // Pass 0 to get all years
+            String year = month.monthYear.substring(0, 4);
+            if (!years.contains(year)) {
+                years.add(year);
             }
-            // Sort years in descending order (most recent first)
-            Collections.sort(years.subList(1, years.size()), Collections.reverseOrder());
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        });
+        // Sort years in descending order (most recent first)
+        Collections.sort(years.subList(1, years.size()), Collections.reverseOrder());
 
         yearFilterComboBox = createStyledComboBox(years.toArray(new String[0]));
         yearFilterComboBox.setSelectedItem(String.valueOf(LocalDate.now().getYear())); // Set default to current year
-        yearFilterComboBox.addActionListener(_ -> loadMonthlyRevenueSummary()); // Reload on year change
+        yearFilterComboBox.addActionListener(_ -> { // Reload on year change
+            loadMonthlyRevenueSummary();
+            loadSaleDistribution();
+        });
         monthlyFilterAndTotalPanel.add(yearFilterComboBox);
 
         JButton exportMonthlyRevenueButton = new JButton("Export to CSV");
@@ -804,6 +8039,18 @@ public class RevUpApp extends JFrame {
         exportMonthlyRevenueButton.addActionListener(_ -> exportMonthlyRevenueToCsv());
         monthlyFilterAndTotalPanel.add(exportMonthlyRevenueButton);
 
+        JButton consolidateButton = new JButton("Consolidate Branches");
+        consolidateButton.setFont(new Font("Segoe UI", Font.BOLD, 15));
+        consolidateButton.setBackground(accentColor);
+        consolidateButton.setForeground(Color.WHITE);
+        consolidateButton.setBorderPainted(false);
+        consolidateButton.setFocusPainted(false);
+        consolidateButton.setCursor(new Cursor(Cursor.HAND_CURSOR));
+        consolidateButton.setPreferredSize(new Dimension(210, 40));
+        consolidateButton.setRolloverEnabled(true);
+        consolidateButton.addActionListener(_ -> consolidateBranches());
+        monthlyFilterAndTotalPanel.add(consolidateButton);
+
         annualRevenueLabel = new JLabel("Annual Revenue: PHP 0.00", SwingConstants.CENTER);
         annualRevenueLabel.setForeground(textColor);
         annualRevenueLabel.setFont(new Font("Segoe UI", Font.BOLD, 16));
@@ -863,19 +8110,250 @@ public class RevUpApp extends JFrame {
         monthlySummaryScrollPane.setPreferredSize(new Dimension(800, 200)); // Give it a preferred size
         monthlySummaryScrollPane.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
         monthlySummaryPanel.add(monthlySummaryScrollPane, BorderLayout.CENTER);
-        salesAnalyticsPanel.add(monthlySummaryPanel, BorderLayout.CENTER); // Now fills the center of
-                                                                           // salesAnalyticsPanel
+
+        // Revenue trend chart below the monthly summary
+        JPanel revenueChartPanel = new JPanel(new BorderLayout());
+        revenueChartPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(primaryColor),
+                "Revenue Trend", 0, 0, new Font("Segoe UI", Font.BOLD, 16), primaryColor));
+        revenueChartPanel.setBackground(lightGreyBackground);
+        JPanel chartControlPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 5));
+        chartControlPanel.setBackground(lightGreyBackground);
+        chartControlPanel.add(new JLabel("Show:"));
+        chartModeBox = new JComboBox<>(new String[] { "Daily", "Monthly" });
+        chartModeBox.addActionListener(_ -> loadRevenueChart());
+        chartControlPanel.add(chartModeBox);
+        chartControlPanel.add(new JLabel("Scroll to zoom, drag to pan, double-click to reset."));
+        revenueChartPanel.add(chartControlPanel, BorderLayout.NORTH);
+        revenueChart = new RevenueChart();
+        revenueChartPanel.add(revenueChart, BorderLayout.CENTER);
+
+        // Median and 95th percentile sale size and price for the year filter above
+        JPanel distributionPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 5));
+        distributionPanel.setBackground(lightGreyBackground);
+        distributionPanel.add(new JLabel("Sale size & price in:"));
+        Vector<String> scopes = new Vector<>(db.getCategories());
+        scopes.add(0, "All Categories");
+        distributionCategoryBox = new JComboBox<>(scopes);
+        distributionCategoryBox.addActionListener(_ -> loadSaleDistribution());
+        distributionPanel.add(distributionCategoryBox);
+        distributionLabel = new JLabel();
+        distributionLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        distributionPanel.add(distributionLabel);
+        revenueChartPanel.add(distributionPanel, BorderLayout.SOUTH);
+
+        JSplitPane analyticsSplitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, monthlySummaryPanel,
+                revenueChartPanel);
+        analyticsSplitPane.setResizeWeight(0.5);
+        analyticsSplitPane.setBorder(null);
+        salesAnalyticsPanel.add(analyticsSplitPane, BorderLayout.CENTER); // Now fills the center of
+                                                                          // salesAnalyticsPanel
 
         tabbedPane.addTab("Sales & Analytics", salesAnalyticsPanel);
 
+        // -------------------- Low Stock Tab --------------------
+        lowStockPanel = new JPanel(new BorderLayout());
+        lowStockPanel.setBackground(lightGreyBackground);
+        lowStockTableModel = new DefaultTableModel(
+                new String[] { "ID", "Name", "Quantity", "Reorder At", "Category" }, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable lowStockTable = new JTable(lowStockTableModel);
+        lowStockTable.setRowHeight(30);
+        lowStockTable.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        lowStockTable.setSelectionBackground(new Color(174, 214, 241));
+        lowStockTable.getTableHeader().setBackground(lightAccentColor);
+        lowStockTable.getTableHeader().setForeground(Color.BLACK);
+        lowStockTable.getTableHeader().setFont(new Font("Segoe UI", Font.BOLD, 16));
+        lowStockTable.getTableHeader().setDefaultRenderer(inventoryHeaderRenderer); // Reuse header renderer
+        JScrollPane lowStockScrollPane = new JScrollPane(lowStockTable);
+        lowStockScrollPane.setBorder(BorderFactory.createEmptyBorder(10, 15, 10, 15));
+        lowStockPanel.add(lowStockScrollPane, BorderLayout.CENTER);
+        tabbedPane.addTab("Low Stock", lowStockPanel);
+
+        // -------------------- Reorder Forecast Tab --------------------
+        forecastPanel = new JPanel(new BorderLayout());
+        forecastPanel.setBackground(lightGreyBackground);
+        forecastTableModel = new DefaultTableModel(new String[] { "ID", "Name", "Quantity", "Avg Daily Sales",
+                "Days Left", "Projected Stock-Out", "Suggested Reorder" }, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable forecastTable = new JTable(forecastTableModel);
+        forecastTable.setRowHeight(30);
+        forecastTable.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        forecastTable.setSelectionBackground(new Color(174, 214, 241));
+        forecastTable.getTableHeader().setBackground(lightAccentColor);
+        forecastTable.getTableHeader().setForeground(Color.BLACK);
+        forecastTable.getTableHeader().setFont(new Font("Segoe UI", Font.BOLD, 16));
+        forecastTable.getTableHeader().setDefaultRenderer(inventoryHeaderRenderer); // Reuse header renderer
+        JScrollPane forecastScrollPane = new JScrollPane(forecastTable);
+        forecastScrollPane.setBorder(BorderFactory.createEmptyBorder(10, 15, 10, 15));
+        forecastPanel.add(forecastScrollPane, BorderLayout.CENTER);
+        JLabel forecastNoteLabel = new JLabel("Based on a " + Math.round(2 / SalesVelocity.ALPHA - 1)
+                + "-day moving average of daily sales; suggestions cover " + StockForecast.LEAD_TIME_DAYS
+                + " days lead time plus " + StockForecast.COVER_DAYS + " days of demand.", SwingConstants.CENTER);
+        forecastNoteLabel.setBorder(new EmptyBorder(5, 10, 10, 10));
+        forecastPanel.add(forecastNoteLabel, BorderLayout.SOUTH);
+        tabbedPane.addTab("Reorder Forecast", forecastPanel);
+
+        // -------------------- Scan Checkout Tab --------------------
+        scanPanel = new JPanel(new BorderLayout());
+        scanPanel.setBackground(lightGreyBackground);
+        JPanel scanInputPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 15, 10));
+        scanInputPanel.setBackground(primaryColor);
+        scanInputPanel.add(createStyledLabel("Scan Item ID:"));
+        scanField = createStyledTextField();
+        scanField.setColumns(18);
+        scanField.setFont(new Font("Segoe UI", Font.BOLD, 18));
+        scanField.addActionListener(_ -> handleScan()); // Keyboard-wedge scanners end each code with Enter
+        scanInputPanel.add(scanField);
+        scanStatusLabel = new JLabel("Scan items, then press Enter on an empty field to complete the sale.");
+        scanStatusLabel.setForeground(textColor);
+        scanStatusLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        scanInputPanel.add(scanStatusLabel);
+        scanPanel.add(scanInputPanel, BorderLayout.NORTH);
+
+        basketModel = new BasketTableModel();
+        basketTable = new JTable(basketModel);
+        basketTable.setRowHeight(30);
+        basketTable.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        basketTable.setSelectionBackground(new Color(174, 214, 241));
+        basketTable.setFocusable(false); // Keep the focus in the scan field
+        basketTable.getTableHeader().setBackground(lightAccentColor);
+        basketTable.getTableHeader().setForeground(Color.BLACK);
+        basketTable.getTableHeader().setFont(new Font("Segoe UI", Font.BOLD, 16));
+        basketTable.getTableHeader().setDefaultRenderer(inventoryHeaderRenderer); // Reuse header renderer
+        JScrollPane basketScrollPane = new JScrollPane(basketTable);
+        basketScrollPane.setBorder(BorderFactory.createEmptyBorder(10, 15, 10, 15));
+        scanPanel.add(basketScrollPane, BorderLayout.CENTER);
+
+        JPanel scanBottomPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 15, 10));
+        scanBottomPanel.setBackground(primaryColor);
+        basketTotalLabel = new JLabel("Basket Total: PHP 0.00");
+        basketTotalLabel.setForeground(textColor);
+        basketTotalLabel.setFont(new Font("Segoe UI", Font.BOLD, 16));
+        scanBottomPanel.add(basketTotalLabel);
+        completeScanButton = new JButton("Complete Sale");
+        JButton removeLineButton = new JButton("Remove Line");
+        JButton clearBasketButton = new JButton("Clear Basket");
+        for (JButton btn : new JButton[] { completeScanButton, removeLineButton, clearBasketButton }) {
+            btn.setFont(new Font("Segoe UI", Font.BOLD, 15));
+            btn.setBackground(accentColor);
+            btn.setForeground(Color.WHITE);
+            btn.setBorderPainted(false);
+            btn.setFocusPainted(false);
+            btn.setFocusable(false); // Keep the focus in the scan field
+            btn.setCursor(new Cursor(Cursor.HAND_CURSOR));
+            btn.setPreferredSize(new Dimension(160, 40));
+            scanBottomPanel.add(btn);
+        }
+        completeScanButton.addActionListener(_ -> completeScanSale());
+        removeLineButton.addActionListener(_ -> {
+            int row = basketTable.getSelectedRow();
+            if (row != -1) {
+                basketModel.removeRow(row);
+                updateBasketTotal();
+            }
+            scanField.requestFocusInWindow();
+        });
+        clearBasketButton.addActionListener(_ -> {
+            basketModel.clear();
+            updateBasketTotal();
+            scanField.requestFocusInWindow();
+        });
+        scanPanel.add(scanBottomPanel, BorderLayout.SOUTH);
+        if (currentRole.equals("viewer")) {
+            scanField.setEnabled(false);
+            completeScanButton.setEnabled(false);
+            scanStatusLabel.setText("Only staff/admin can perform this.");
+        }
+        tabbedPane.addTab("Scan Checkout", scanPanel);
+
+        // Forecasts are recomputed whenever the tab is opened; the scan field takes focus with its tab
+        tabbedPane.addChangeListener(_ -> {
+            if (tabbedPane.getSelectedComponent() == forecastPanel)
+                loadForecasts();
+            else if (tabbedPane.getSelectedComponent() == scanPanel)
+                SwingUtilities.invokeLater(scanField::requestFocusInWindow);
+        });
+
         add(tabbedPane, BorderLayout.CENTER);
 
-        // Initial loading of items and revenue for the inventory tab
+        // Initial loading of items and revenue for the inventory tab; item events keep the table current
         loadItems();
         updateRevenue();
+        db.addItemChangeListener(new ItemChangeListener() {
+            @Override
+            public void itemChanged(InventoryItem before, InventoryItem after) {
+                SwingUtilities.invokeLater(() -> tableModel.itemChanged(before, after));
+            }
+
+            @Override
+            public void itemsChanged(List<InventoryItem> before, List<InventoryItem> after) {
+                SwingUtilities.invokeLater(() -> tableModel.itemsChanged(before, after));
+            }
+
+            @Override
+            public void itemsReset(List<InventoryItem> items) {
+                SwingUtilities.invokeLater(() -> tableModel.itemsReset(items));
+            }
+        });
+
+        // Keep the stock value current from the store's valuation; bursts of changes coalesce into one refresh
+        updateStockValue();
+        db.addItemChangeListener(new ItemChangeListener() {
+            @Override
+            public void itemChanged(InventoryItem before, InventoryItem after) {
+                queueStockValueRefresh();
+            }
+
+            @Override
+            public void itemsChanged(List<InventoryItem> before, List<InventoryItem> after) {
+                queueStockValueRefresh();
+            }
+
+            @Override
+            public void itemsReset(List<InventoryItem> items) {
+                queueStockValueRefresh();
+            }
+        });
+
+        // Keep the Low Stock tab current from the index, and flag items as they cross their threshold
+        loadLowStock();
+        db.addItemChangeListener(new ItemChangeListener() {
+            @Override
+            public void itemChanged(InventoryItem before, InventoryItem after) {
+                queueLowStockRefresh();
+            }
+
+            @Override
+            public void itemsReset(List<InventoryItem> items) {
+                queueLowStockRefresh();
+            }
+        });
+        db.getLowStockIndex().addLowStockListener(item -> SwingUtilities.invokeLater(() -> lowStockNoticeLabel
+                .setText("⚠ Low stock: " + item.name + " (" + item.id + ") has " + item.quantity
+                        + " left, reorder at " + item.reorderThreshold)));
+
+        db.addStockDriftListener(drift -> SwingUtilities.invokeLater(() -> lowStockNoticeLabel
+                .setText("⚠ Stock ledger drift on " + drift.size() + " item(s), e.g. " + drift.get(0))));
+
+        // Refresh once recorded sales reach the database; bursts of sales coalesce into one refresh
+        db.addSalesListener(() -> {
+            if (salesRefreshQueued.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this::refreshAfterSales);
+            }
+        });
 
-        // Initial loading of monthly revenue summary
+        // Initial loading of monthly revenue summary and trend
         loadMonthlyRevenueSummary();
+        loadRevenueChart();
+        loadSaleDistribution();
 
         // Right-click menu for monthlyRevenueTable
         JPopupMenu monthlyRevenuePopupMenu = new JPopupMenu();
@@ -967,7 +8445,7 @@ public class RevUpApp extends JFrame {
         String qtyStr = quantityField.getText();
         String priceStr = priceField.getText();
         String category = (String) categoryBox.getSelectedItem();
-        String search = searchField.getText(); // Current search keyword
+        String reorderStr = reorderField.getText();
 
         switch (action) {
             case "Add" -> {
@@ -975,8 +8453,7 @@ public class RevUpApp extends JFrame {
                     return;
                 if (validateInput()) {
                     db.addItem(new InventoryItem(id, name, Integer.parseInt(qtyStr), Double.parseDouble(priceStr),
-                            category));
-                    loadItems(search, (String) filterCategoryBox.getSelectedItem());
+                            category, parseReorderThreshold(reorderStr)));
                     clearInputFields(); // Clear fields after adding
                     loadMonthlyRevenueSummary(); // Refresh monthly summary
                 }
@@ -986,13 +8463,12 @@ public class RevUpApp extends JFrame {
                     return;
                 if (validateInput()) {
                     db.updateItem(new InventoryItem(id, name, Integer.parseInt(qtyStr), Double.parseDouble(priceStr),
-                            category));
-                    loadItems(search, (String) filterCategoryBox.getSelectedItem());
+                            category, parseReorderThreshold(reorderStr)));
                     clearInputFields(); // Clear fields after updating
                     loadMonthlyRevenueSummary(); // Refresh monthly summary
                 }
             }
-            case "Search" -> loadItems(search, (String) filterCategoryBox.getSelectedItem());
+            case "Search" -> filterItems();
             case "Refresh" -> {
                 loadItems();
                 updateRevenue();
@@ -1000,6 +8476,7 @@ public class RevUpApp extends JFrame {
                 searchField.setText("");
                 filterCategoryBox.setSelectedItem("All");
                 loadMonthlyRevenueSummary(); // Refresh monthly summary
+                loadRevenueChart();
             }
             case "Sell" -> {
                 if (!isAuthorized("staff"))
@@ -1012,97 +8489,311 @@ public class RevUpApp extends JFrame {
                         return;
                     }
                     String itemIdToSell = (String) inventoryTable.getValueAt(selectedRow, 0);
-                    // When getting value from table, clean the HTML tags and emoji first
-                    int currentQuantity = Integer
-                            .parseInt(stripHtmlAndEmoji(inventoryTable.getValueAt(selectedRow, 2).toString()));
-                    double priceAtSale = Double
-                            .parseDouble(stripHtmlAndEmoji(inventoryTable.getValueAt(selectedRow, 3).toString()));
+                    InventoryItem itemToSell = db.getLowStockIndex().get(itemIdToSell);
+                    if (itemToSell == null) {
+                        JOptionPane.showMessageDialog(this, "That item no longer exists.");
+                        return;
+                    }
 
                     if (qtyToSell <= 0) {
                         JOptionPane.showMessageDialog(this, "Quantity to sell must be positive.");
                         return;
                     }
 
-                    if (qtyToSell > currentQuantity) {
-                        JOptionPane.showMessageDialog(this, "Not enough stock. Available: " + currentQuantity);
+                    // Priced under today's promotions; the store checks the stock, counting sales still draining
+                    // from the journal, and records in one step. Tables refresh from the sales listener.
+                    if (db.recordSalesIfInStock(db.priceBasket(List.of(itemToSell), List.of(qtyToSell))) != null) {
+                        InventoryItem current = db.getItem(itemIdToSell);
+                        int availableQuantity = current == null ? 0
+                                : Math.max(0, current.quantity - db.getPendingSaleQuantity(itemIdToSell));
+                        JOptionPane.showMessageDialog(this, "Not enough stock. Available: " + availableQuantity);
                         return;
                     }
-
-                    db.recordSale(itemIdToSell, qtyToSell, priceAtSale, LocalDate.now().toString());
-                    loadItems(search, (String) filterCategoryBox.getSelectedItem());
-                    updateRevenue();
-                    loadMonthlyRevenueSummary(); // Refresh monthly summary
                     sellQtyField.setText(""); // Clear sell quantity field
                 } catch (NumberFormatException e) {
                     JOptionPane.showMessageDialog(this, "Invalid quantity for selling.");
                 } catch (Exception e) {
-                    JOptionPane.showMessageDialog(this, "Error during sale: " + e.getMessage());
+                    JOptionPane.showMessageDialog(this, "Error during sale: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Clears the input fields
+    private void clearInputFields() {
+        idField.setText("");
+        nameField.setText("");
+        quantityField.setText("");
+        priceField.setText("");
+        reorderField.setText("");
+        if (categoryBox.getItemCount() > 0)
+            categoryBox.setSelectedIndex(0); // Reset to default
+    }
+
+    // Validates the input fields for adding/updating items
+    private boolean validateInput() {
+        try {
+            if (idField.getText().isEmpty() || nameField.getText().isEmpty() || quantityField.getText().isEmpty()
+                    || priceField.getText().isEmpty()) {
+                JOptionPane.showMessageDialog(this, "All fields must be filled.");
+                return false;
+            }
+            Integer.parseInt(quantityField.getText());
+            Double.parseDouble(priceField.getText());
+            parseReorderThreshold(reorderField.getText());
+            return true;
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Invalid number format for quantity, price or reorder threshold.");
+            return false;
+        }
+    }
+
+    // Reorder threshold is optional; blank means the default threshold
+    private int parseReorderThreshold(String text) {
+        return text.isBlank() ? InventoryItem.DEFAULT_REORDER_THRESHOLD : Integer.parseInt(text.trim());
+    }
+
+    // Reloads the inventory table's snapshot from the store; item events keep it current afterwards
+    private void loadItems() {
+        UiRefreshEvent event = new UiRefreshEvent("Inventory table");
+        event.begin();
+        List<InventoryItem> items = new ArrayList<>();
+        db.getAllItems(items::add);
+        tableModel.itemsReset(items);
+        filterItems();
+        event.rows = items.size();
+        event.commit();
+    }
+
+    // Applies the search words and category filter to the inventory table from its indexes, without a query
+    private void filterItems() {
+        String category = (String) filterCategoryBox.getSelectedItem();
+        tableModel.setFilter(searchField.getText(), category == null || category.equals("All") ? null : category);
+        inventorySorter.setRowFilter(tableModel.rowFilter); // Re-filters the rows
+    }
+
+    // Refills the category combo boxes from the store, keeping their selections where they still exist
+    private void loadCategories() {
+        Object selected = categoryBox.getSelectedItem();
+        Object filter = filterCategoryBox.getSelectedItem();
+        List<String> categories = db.getCategories();
+        categoryBox.setModel(new DefaultComboBoxModel<>(categories.toArray(new String[0])));
+        Vector<String> filters = new Vector<>(categories);
+        filters.add(0, "All");
+        filterCategoryBox.setModel(new DefaultComboBoxModel<>(filters));
+        if (selected != null)
+            categoryBox.setSelectedItem(selected);
+        filterCategoryBox.setSelectedItem(categories.contains(filter) ? filter : "All");
+        if (distributionCategoryBox != null) {
+            Object distribution = distributionCategoryBox.getSelectedItem();
+            Vector<String> scopes = new Vector<>(categories);
+            scopes.add(0, "All Categories");
+            distributionCategoryBox.setModel(new DefaultComboBoxModel<>(scopes));
+            distributionCategoryBox.setSelectedItem(categories.contains(distribution) ? distribution : "All Categories");
+        }
+    }
+
+    // Schedules one Low Stock tab refresh on the EDT for any number of item changes
+    private void queueLowStockRefresh() {
+        if (lowStockRefreshQueued.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::loadLowStock);
+        }
+    }
+
+    // Fills the Low Stock tab from the low-stock index, most urgent item first
+    private void loadLowStock() {
+        lowStockRefreshQueued.set(false);
+        UiRefreshEvent event = new UiRefreshEvent("Low Stock tab");
+        event.begin();
+        List<InventoryItem> lowStock = db.getLowStockIndex().getLowStockItems();
+        lowStockTableModel.setRowCount(0);
+        for (InventoryItem item : lowStock) {
+            lowStockTableModel.addRow(new Object[] { item.id, item.name, item.quantity, item.reorderThreshold,
+                    item.category });
+        }
+        tabbedPane.setTitleAt(tabbedPane.indexOfComponent(lowStockPanel), lowStock.isEmpty() ? "Low Stock" : "⚠ Low Stock (" + lowStock.size() + ")");
+        event.rows = lowStock.size();
+        event.commit();
+    }
+
+    // Fills the Reorder Forecast tab, soonest stock-out first
+    private void loadForecasts() {
+        UiRefreshEvent event = new UiRefreshEvent("Reorder Forecast tab");
+        event.begin();
+        forecastTableModel.setRowCount(0);
+        for (StockForecast forecast : db.getStockForecasts()) {
+            boolean selling = forecast.stockOutDate != null;
+            forecastTableModel.addRow(new Object[] { forecast.item.id, forecast.item.name, forecast.item.quantity,
+                    String.format("%.2f", forecast.dailyUnits),
+                    selling ? String.format("%.1f", forecast.daysLeft) : "—",
+                    selling ? forecast.stockOutDate.toString() : "Not selling",
+                    forecast.suggestedReorder });
+        }
+        event.rows = forecastTableModel.getRowCount();
+        event.commit();
+    }
+
+    // Adds one scanned item to the basket. Errors go to the status line rather than a dialog, so the
+    // cashier can keep scanning.
+    private void handleScan() {
+        String id = scanField.getText().trim();
+        scanField.setText("");
+        if (id.isEmpty()) {
+            completeScanSale();
+            return;
+        }
+        InventoryItem item = db.getLowStockIndex().get(id);
+        if (item == null) {
+            setScanStatus("Unknown item: " + id, false);
+            return;
+        }
+        // Sales still draining from the journal are not yet reflected in the index
+        int available = item.quantity - db.getPendingSaleQuantity(id);
+        if (basketModel.quantityOf(id) + 1 > available) {
+            setScanStatus("Not enough stock of " + item.name + ". Available: " + available, false);
+            return;
+        }
+        int row = basketModel.add(item, 1);
+        basketTable.setRowSelectionInterval(row, row);
+        basketTable.scrollRectToVisible(basketTable.getCellRect(row, 0, true));
+        updateBasketTotal();
+        setScanStatus("Added " + item.name, true);
+    }
+
+    // Records the whole basket as one batch of sales off the EDT, if there is still stock for all of it.
+    // The scan field stays live: the basket is taken off the screen at once, so a wedge scanner's next
+    // codes start the next basket, and completing that one waits for this one to be recorded.
+    private void completeScanSale() {
+        if (basketModel.isEmpty() || !completeScanButton.isEnabled())
+            return;
+        if (scanSaleRecording) {
+            completeAfterRecording = true;
+            setScanStatus("Recording the previous sale; this one follows", true);
+            return;
+        }
+        List<InventoryItem> items = basketModel.getItems();
+        List<Integer> quantities = basketModel.getQuantities();
+        List<SaleLine> sales = db.priceBasket(items, quantities);
+        double total = PricingRules.total(sales);
+        int lineCount = items.size();
+        scanSaleRecording = true;
+        basketModel.clear();
+        updateBasketTotal();
+        setScanStatus("Recording sale...", true);
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() {
+                // Stock may have been sold elsewhere since the items were scanned; the store checks and
+                // records in one step, so no other till or API sale can slip in between
+                return db.recordSalesIfInStock(sales);
+            }
+
+            @Override
+            protected void done() {
+                scanSaleRecording = false;
+                boolean completeNext = completeAfterRecording;
+                completeAfterRecording = false;
+                try {
+                    String shortItem = get();
+                    if (shortItem == null) {
+                        setScanStatus("Sold " + lineCount + " item(s) for PHP " + String.format("%.2f", total), true);
+                        if (completeNext)
+                            completeScanSale();
+                    } else {
+                        restoreBasket(items, quantities);
+                        InventoryItem item = db.getItem(shortItem);
+                        int available = item == null ? 0
+                                : Math.max(0, item.quantity - db.getPendingSaleQuantity(shortItem));
+                        setScanStatus("Not enough stock of " + (item == null ? shortItem : item.name)
+                                + ". Available: " + available, false);
+                    }
+                } catch (Exception e) {
                     e.printStackTrace();
+                    restoreBasket(items, quantities);
+                    setScanStatus("Error during sale: " + e.getMessage(), false);
                 }
             }
-        }
+        }.execute();
     }
 
-    // Clears the input fields
-    private void clearInputFields() {
-        idField.setText("");
-        nameField.setText("");
-        quantityField.setText("");
-        priceField.setText("");
-        categoryBox.setSelectedItem("Electronics"); // Reset to default
+    // Puts a basket that could not be recorded back, ahead of anything scanned since, so it can be fixed
+    private void restoreBasket(List<InventoryItem> items, List<Integer> quantities) {
+        List<InventoryItem> scannedSince = basketModel.getItems();
+        List<Integer> scannedQuantities = basketModel.getQuantities();
+        basketModel.clear();
+        for (int i = 0; i < items.size(); i++) {
+            basketModel.add(items.get(i), quantities.get(i));
+        }
+        for (int i = 0; i < scannedSince.size(); i++) {
+            basketModel.add(scannedSince.get(i), scannedQuantities.get(i));
+        }
+        updateBasketTotal();
     }
 
-    // Validates the input fields for adding/updating items
-    private boolean validateInput() {
-        try {
-            if (idField.getText().isEmpty() || nameField.getText().isEmpty() || quantityField.getText().isEmpty()
-                    || priceField.getText().isEmpty()) {
-                JOptionPane.showMessageDialog(this, "All fields must be filled.");
-                return false;
-            }
-            Integer.parseInt(quantityField.getText());
-            Double.parseDouble(priceField.getText());
-            return true;
-        } catch (NumberFormatException e) {
-            JOptionPane.showMessageDialog(this, "Invalid number format for quantity or price.");
-            return false;
-        }
+    // Shows what the basket costs under today's promotions, and what they save
+    private void updateBasketTotal() {
+        double total = PricingRules.total(db.priceBasket(basketModel.getItems(), basketModel.getQuantities()));
+        double saved = basketModel.getTotal() - total;
+        basketTotalLabel.setText("Basket Total: PHP " + String.format("%.2f", total)
+                + (saved >= 0.005 ? String.format(" (saved PHP %.2f)", saved) : ""));
     }
 
-    // Loads all items into the inventory table
-    private void loadItems() {
-        loadItems(null, "All");
+    private void setScanStatus(String message, boolean ok) {
+        scanStatusLabel.setText(message);
+        scanStatusLabel.setForeground(ok ? new Color(130, 224, 170) : new Color(255, 138, 128));
+        if (!ok)
+            Toolkit.getDefaultToolkit().beep();
     }
 
-    // Loads items based on search keyword and category filter into inventory table
-    private void loadItems(String search, String categoryFilter) {
-        tableModel.setRowCount(0); // Clear existing table data
-        ResultSet rs = (search == null || search.isEmpty()) ? db.getAllItems() : db.searchItems(search);
-        try {
-            while (rs.next()) {
-                String category = rs.getString("category");
-                if (categoryFilter.equals("All") || category.equals(categoryFilter)) {
-                    Vector<String> row = new Vector<>();
-                    row.add(rs.getString("id"));
-                    row.add(rs.getString("name"));
-                    row.add(String.valueOf(rs.getInt("quantity")));
-                    row.add(String.valueOf(rs.getDouble("price")));
-                    row.add(category);
-                    tableModel.addRow(row);
-                }
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    // Reloads the views affected by newly applied sales
+    private void refreshAfterSales() {
+        salesRefreshQueued.set(false);
+        updateRevenue();
+        loadMonthlyRevenueSummary();
+        loadRevenueChart();
+        loadSaleDistribution();
+        if (tabbedPane.getSelectedComponent() == forecastPanel)
+            loadForecasts();
     }
 
     // Updates the displayed total revenue (for Inventory tab)
     private void updateRevenue() {
+        UiRefreshEvent event = new UiRefreshEvent("Total revenue");
+        event.begin();
         revenueLabel.setText("Total Revenue: PHP " + String.format("%.2f", db.getTotalRevenue()));
+        event.commit();
+    }
+
+    private void queueStockValueRefresh() {
+        if (stockValueRefreshQueued.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::updateStockValue);
+        }
+    }
+
+    // Shows the stock on hand's value, with each category's in the tooltip, highest first
+    private void updateStockValue() {
+        stockValueRefreshQueued.set(false);
+        UiRefreshEvent event = new UiRefreshEvent("Stock value");
+        event.begin();
+        StockValuation valuation = db.getStockValuation();
+        stockValueLabel.setText(String.format("Stock Value: PHP %.2f", valuation.getTotalCents() / 100.0));
+        List<Map.Entry<String, Long>> categories = new ArrayList<>(valuation.getCategoryCents().entrySet());
+        categories.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        StringBuilder tooltip = new StringBuilder("<html>");
+        for (Map.Entry<String, Long> category : categories) {
+            tooltip.append(category.getKey() == null ? "(no category)" : category.getKey())
+                    .append(String.format(": PHP %.2f<br>", category.getValue() / 100.0));
+        }
+        stockValueLabel.setToolTipText(categories.isEmpty() ? null : tooltip.append("</html>").toString());
+        event.rows = categories.size();
+        event.commit();
     }
 
     // Loads monthly revenue summary into monthlyRevenueTable based on selected year
     private void loadMonthlyRevenueSummary() {
+        UiRefreshEvent event = new UiRefreshEvent("Monthly revenue summary");
+        event.begin();
         monthlyRevenueTableModel.setRowCount(0); // Clear existing data
 
         String selectedYearStr = (String) yearFilterComboBox.getSelectedItem();
@@ -1111,24 +8802,95 @@ public class RevUpApp extends JFrame {
             yearToFilter = Integer.parseInt(selectedYearStr);
         }
 
-        ResultSet rs = db.getMonthlyRevenueSummary(yearToFilter);
-        double annualTotal = 0.0;
-        try {
-            while (rs.next()) {
-                Vector<String> row = new Vector<>();
-                row.add(rs.getString("month_year"));
-                double monthlyRevenue = rs.getDouble("total_revenue");
-                row.add(String.valueOf(monthlyRevenue));
-                monthlyRevenueTableModel.addRow(row);
-                annualTotal += monthlyRevenue; // Accumulate for annual total
-            }
-            annualRevenueLabel.setText("Annual Revenue: PHP " + String.format("%.2f", annualTotal));
-        } catch (SQLException e) {
-            e.printStackTrace();
+        double[] annualTotal = { 0.0 };
+        boolean loaded = db.getMonthlyRevenueSummary(yearToFilter, month -> {
+            Vector<String> row = new Vector<>();
+            row.add(month.monthYear);
+            row.add(String.valueOf(month.totalRevenue));
+            monthlyRevenueTableModel.addRow(row);
+            annualTotal[0] += month.totalRevenue; // Accumulate for annual total
+        });
+        if (loaded) {
+            annualRevenueLabel.setText("Annual Revenue: PHP " + String.format("%.2f", annualTotal[0]));
+        } else {
             JOptionPane.showMessageDialog(this, "Error loading monthly revenue summary.", "Database Error",
                     JOptionPane.ERROR_MESSAGE);
             annualRevenueLabel.setText("Annual Revenue: PHP 0.00"); // Reset if error
         }
+        event.rows = monthlyRevenueTableModel.getRowCount();
+        event.commit();
+    }
+
+    // Shows the median and 95th percentile units per sale and unit price for the selected year and category,
+    // merged from the store's monthly sketches rather than read from the sales
+    private void loadSaleDistribution() {
+        if (distributionLabel == null)
+            return;
+        UiRefreshEvent event = new UiRefreshEvent("Sale distribution");
+        event.begin();
+        String year = (String) yearFilterComboBox.getSelectedItem();
+        boolean allYears = year == null || year.equals("All Years");
+        String category = (String) distributionCategoryBox.getSelectedItem();
+        SaleDistribution sales = db.getCategorySaleDistribution(
+                category == null || category.equals("All Categories") ? null : category,
+                allYears ? "0000-01" : year + "-01", allYears ? "9999-12" : year + "-12");
+        if (sales.count() == 0) {
+            distributionLabel.setText("No sales");
+        } else {
+            distributionLabel.setText(String.format(
+                    "%,d sales · units per sale: median %d, p95 %d · unit price: median PHP %.2f, p95 PHP %.2f",
+                    sales.count(), Math.round(sales.quantities.quantile(0.5)),
+                    Math.round(sales.quantities.quantile(0.95)), sales.prices.quantile(0.5),
+                    sales.prices.quantile(0.95)));
+        }
+        event.rows = sales.count();
+        event.commit();
+    }
+
+    // Loads the daily revenue series off the EDT and shows it daily or summed per month
+    private void loadRevenueChart() {
+        boolean monthly = "Monthly".equals(chartModeBox.getSelectedItem());
+        new SwingWorker<List<DailyRevenue>, Void>() {
+            @Override
+            protected List<DailyRevenue> doInBackground() {
+                List<DailyRevenue> series = new ArrayList<>();
+                return db.getDailyRevenue(series::add) ? series : null;
+            }
+
+            @Override
+            protected void done() {
+                List<DailyRevenue> series;
+                try {
+                    series = get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    return;
+                }
+                if (series == null) {
+                    JOptionPane.showMessageDialog(RevUpApp.this, "Error loading the revenue chart.", "Database Error",
+                            JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                UiRefreshEvent event = new UiRefreshEvent("Revenue chart");
+                event.begin();
+                long[] days = new long[series.size()];
+                double[] values = new double[series.size()];
+                int n = 0;
+                for (DailyRevenue day : series) {
+                    long x = monthly ? LocalDate.ofEpochDay(day.epochDay).withDayOfMonth(1).toEpochDay()
+                            : day.epochDay;
+                    if (n > 0 && days[n - 1] == x) {
+                        values[n - 1] += day.revenue;
+                    } else {
+                        days[n] = x;
+                        values[n++] = day.revenue;
+                    }
+                }
+                revenueChart.setData(Arrays.copyOf(days, n), Arrays.copyOf(values, n), monthly);
+                event.rows = n;
+                event.commit();
+            }
+        }.execute();
     }
 
     // Exports the monthly revenue summary to a CSV file
@@ -1195,6 +8957,585 @@ public class RevUpApp extends JFrame {
         }
     }
 
+    // Compares counted stock files with the system quantities off the EDT, saves the variance report and
+    // offers to correct the stock to the count in one transaction
+    private void reconcileStockCount() {
+        JFileChooser countChooser = new JFileChooser(new File("."));
+        countChooser.setDialogTitle("Choose Count Files (CSV or Scanner Sessions)");
+        countChooser.setMultiSelectionEnabled(true);
+        if (countChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        List<File> countFiles = List.of(countChooser.getSelectedFiles());
+        int scope = JOptionPane.showConfirmDialog(this,
+                "Was every item counted?\nYes: items missing from the count are taken to have none.\n"
+                        + "No: only the items in the count are checked.",
+                "Stock Count", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+        if (scope == JOptionPane.CANCEL_OPTION || scope == JOptionPane.CLOSED_OPTION)
+            return;
+        JFileChooser reportChooser = new JFileChooser(countFiles.get(0).getParentFile());
+        reportChooser.setDialogTitle("Save Variance Report");
+        reportChooser.setSelectedFile(new File("Stock_Count_Variance.csv"));
+        if (reportChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        File report = reportChooser.getSelectedFile();
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<CycleCount.Result, Void>() {
+            @Override
+            protected CycleCount.Result doInBackground() throws IOException {
+                return CycleCount.reconcile(db, countFiles, scope == JOptionPane.YES_OPTION, report, true);
+            }
+
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                CycleCount.Result result;
+                try {
+                    result = get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    Throwable cause = e.getCause() == null ? e : e.getCause();
+                    JOptionPane.showMessageDialog(RevUpApp.this, "Error reconciling count: " + cause.getMessage(),
+                            "Stock Count Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                String summary = String.format("Items checked: %d (%d counted)%nVariances: %d%n"
+                        + "Over: %d units, PHP %.2f%nShort: %d units, PHP %.2f%nUnknown IDs counted: %d%n%n"
+                        + "Report saved to:%n%s", result.itemsCompared, result.itemsCounted, result.variances,
+                        result.unitsOver, result.valueOver, result.unitsShort, result.valueShort, result.unknownIds,
+                        report.getAbsolutePath());
+                if (result.adjustments == null) {
+                    JOptionPane.showMessageDialog(RevUpApp.this, summary, "Stock Count",
+                            JOptionPane.INFORMATION_MESSAGE);
+                    return;
+                }
+                int apply = JOptionPane.showConfirmDialog(RevUpApp.this,
+                        summary + "\n\nAdjust the stock of " + result.variances + " item(s) to the count?",
+                        "Stock Count", JOptionPane.YES_NO_OPTION);
+                if (apply == JOptionPane.YES_OPTION) {
+                    int adjusted = db.adjustStock(result.adjustments);
+                    JOptionPane.showMessageDialog(RevUpApp.this, "Adjusted " + adjusted + " item(s).");
+                }
+            }
+        }.execute();
+    }
+
+    // Lets the user pick branch databases and shows their per-branch and combined revenue
+    private void consolidateBranches() {
+        JFileChooser fileChooser = new JFileChooser(new File("."));
+        fileChooser.setDialogTitle("Select Branch Databases");
+        fileChooser.setMultiSelectionEnabled(true);
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("SQLite databases (*.db)", "db"));
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        List<File> branchFiles = Arrays.asList(fileChooser.getSelectedFiles());
+        if (branchFiles.isEmpty())
+            return;
+
+        String selectedYearStr = (String) yearFilterComboBox.getSelectedItem();
+        int year = selectedYearStr == null || selectedYearStr.equals("All Years") ? 0
+                : Integer.parseInt(selectedYearStr);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<BranchConsolidator.Consolidation, Void>() {
+            @Override
+            protected BranchConsolidator.Consolidation doInBackground() throws SQLException {
+                return new BranchConsolidator(Runtime.getRuntime().availableProcessors()).consolidate(branchFiles,
+                        year);
+            }
+
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    showConsolidationDialog(get(), year);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(RevUpApp.this, "Consolidation failed: " + cause.getMessage(),
+                            "Consolidation Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    // Shows monthly revenue per branch and combined, and combined sales per item
+    private void showConsolidationDialog(BranchConsolidator.Consolidation result, int year) {
+        String period = year > 0 ? String.valueOf(year) : "All Years";
+        JDialog dialog = new JDialog(this, "Consolidated Revenue - " + period, true);
+        dialog.setSize(900, 500);
+        dialog.setLocationRelativeTo(this);
+        dialog.setLayout(new BorderLayout());
+        UiRefreshEvent event = new UiRefreshEvent("Consolidated revenue dialog");
+        event.begin();
+
+        // One column per branch, then the combined total
+        Vector<String> monthColumns = new Vector<>();
+        monthColumns.add("Month/Year");
+        for (BranchTotals branch : result.branches) {
+            monthColumns.add(branch.branch);
+        }
+        monthColumns.add("Combined");
+        DefaultTableModel monthModel = new DefaultTableModel(monthColumns, 0);
+        for (Map.Entry<String, Double> month : result.combined.revenueByMonth.entrySet()) {
+            Vector<String> row = new Vector<>();
+            row.add(month.getKey());
+            for (BranchTotals branch : result.branches) {
+                row.add(String.format("%.2f", branch.revenueByMonth.getOrDefault(month.getKey(), 0.0)));
+            }
+            row.add(String.format("%.2f", month.getValue()));
+            monthModel.addRow(row);
+        }
+
+        DefaultTableModel itemModel = new DefaultTableModel(
+                new String[] { "Item ID", "Name", "Units Sold", "Revenue" }, 0);
+        List<BranchTotals.ItemSales> items = new ArrayList<>(result.combined.byItem.values());
+        items.sort(Comparator.comparingDouble((BranchTotals.ItemSales item) -> item.revenue).reversed());
+        for (BranchTotals.ItemSales item : items) {
+            itemModel.addRow(new Object[] { item.itemId, item.name == null ? "(deleted)" : item.name, item.unitsSold,
+                    String.format("%.2f", item.revenue) });
+        }
+
+        JTabbedPane tabs = new JTabbedPane();
+        String[] tabNames = { "Monthly Revenue", "By Item" };
+        DefaultTableModel[] tabModels = { monthModel, itemModel };
+        for (int i = 0; i < tabNames.length; i++) {
+            JTable table = new JTable(tabModels[i]);
+            table.setRowHeight(25);
+            table.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+            table.setDefaultEditor(Object.class, null); // Read-only
+            tabs.addTab(tabNames[i], new JScrollPane(table));
+        }
+        dialog.add(tabs, BorderLayout.CENTER);
+
+        StringBuilder totals = new StringBuilder("<html>");
+        for (BranchTotals branch : result.branches) {
+            totals.append(branch.branch).append(": PHP ").append(String.format("%.2f", branch.totalRevenue))
+                    .append(" &nbsp; ");
+        }
+        totals.append("<b>Combined: PHP ").append(String.format("%.2f", result.combined.totalRevenue))
+                .append("</b></html>");
+        JLabel totalLabel = new JLabel(totals.toString(), SwingConstants.CENTER);
+        totalLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        totalLabel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        totalLabel.setBackground(new Color(220, 230, 240));
+        totalLabel.setOpaque(true);
+        dialog.add(totalLabel, BorderLayout.SOUTH);
+        event.rows = monthModel.getRowCount() + itemModel.getRowCount();
+        event.commit(); // Before showing, which blocks until the dialog closes
+        dialog.setVisible(true);
+    }
+
+    // Lets an admin add, rename and delete item categories
+    private void manageCategories() {
+        JDialog dialog = new JDialog(this, "Manage Categories", true);
+        dialog.setSize(360, 400);
+        dialog.setLocationRelativeTo(this);
+        dialog.setLayout(new BorderLayout());
+
+        UiRefreshEvent event = new UiRefreshEvent("Manage Categories dialog");
+        event.begin();
+        DefaultListModel<String> listModel = new DefaultListModel<>();
+        listModel.addAll(db.getCategories());
+        event.rows = listModel.size();
+        event.commit();
+        JList<String> list = new JList<>(listModel);
+        list.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        dialog.add(new JScrollPane(list), BorderLayout.CENTER);
+
+        // Refreshes the list, the combo boxes and the table after a change
+        Runnable reload = () -> {
+            listModel.clear();
+            listModel.addAll(db.getCategories());
+            loadCategories();
+            filterItems();
+        };
+
+        JButton addButton = new JButton("Add");
+        addButton.addActionListener(_ -> {
+            String name = askCategoryName(dialog, "New category name:", "");
+            if (name == null)
+                return;
+            if (db.addCategory(name))
+                reload.run();
+            else
+                JOptionPane.showMessageDialog(dialog, "Category already exists.");
+        });
+        JButton renameButton = new JButton("Rename");
+        renameButton.addActionListener(_ -> {
+            String selected = list.getSelectedValue();
+            if (selected == null)
+                return;
+            String name = askCategoryName(dialog, "Rename " + selected + " to:", selected);
+            if (name == null || name.equals(selected))
+                return;
+            if (db.renameCategory(selected, name))
+                reload.run();
+            else
+                JOptionPane.showMessageDialog(dialog, "Category already exists.");
+        });
+        JButton deleteButton = new JButton("Delete");
+        deleteButton.addActionListener(_ -> {
+            String selected = list.getSelectedValue();
+            if (selected == null)
+                return;
+            if (db.deleteCategory(selected))
+                reload.run();
+            else
+                JOptionPane.showMessageDialog(dialog, "Items still use " + selected + ". Move them first.",
+                        "Category In Use", JOptionPane.WARNING_MESSAGE);
+        });
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 10));
+        buttonPanel.add(addButton);
+        buttonPanel.add(renameButton);
+        buttonPanel.add(deleteButton);
+        dialog.add(buttonPanel, BorderLayout.SOUTH);
+        dialog.setVisible(true);
+    }
+
+    // Lets an admin add and delete checkout promotions
+    private void managePromotions() {
+        JDialog dialog = new JDialog(this, "Manage Promotions", true);
+        dialog.setSize(560, 400);
+        dialog.setLocationRelativeTo(this);
+        dialog.setLayout(new BorderLayout());
+
+        UiRefreshEvent event = new UiRefreshEvent("Manage Promotions dialog");
+        event.begin();
+        DefaultListModel<Promotion> listModel = new DefaultListModel<>();
+        listModel.addAll(db.getPromotions());
+        event.rows = listModel.size();
+        event.commit();
+        JList<Promotion> list = new JList<>(listModel);
+        list.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        dialog.add(new JScrollPane(list), BorderLayout.CENTER);
+
+        // Refreshes the list and the scan basket's total, which may now price differently
+        Runnable reload = () -> {
+            listModel.clear();
+            listModel.addAll(db.getPromotions());
+            updateBasketTotal();
+        };
+
+        JButton addButton = new JButton("Add");
+        addButton.addActionListener(_ -> {
+            Promotion promotion = askPromotion(dialog);
+            if (promotion == null)
+                return;
+            if (db.addPromotion(promotion) != null)
+                reload.run();
+            else
+                JOptionPane.showMessageDialog(dialog, "Could not save the promotion.", "Error",
+                        JOptionPane.ERROR_MESSAGE);
+        });
+        JButton deleteButton = new JButton("Delete");
+        deleteButton.addActionListener(_ -> {
+            Promotion selected = list.getSelectedValue();
+            if (selected == null)
+                return;
+            db.deletePromotion(selected.promotionId);
+            reload.run();
+        });
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 10));
+        buttonPanel.add(addButton);
+        buttonPanel.add(deleteButton);
+        dialog.add(buttonPanel, BorderLayout.SOUTH);
+        dialog.setVisible(true);
+    }
+
+    // Prompts for a new promotion, with the selected inventory items as its items; returns null if cancelled or invalid
+    private Promotion askPromotion(Component parent) {
+        JComboBox<String> kindBox = new JComboBox<>(
+                new String[] { "Percent off a category", "Buy N get M free", "Bundle price" });
+        JComboBox<String> categoryChoice = new JComboBox<>(db.getCategories().toArray(new String[0]));
+        JTextField itemsField = new JTextField(String.join(", ", selectedItemIds()));
+        JTextField amountField = new JTextField();
+        JTextField buyField = new JTextField("2");
+        JTextField freeField = new JTextField("1");
+        JTextField startsField = new JTextField(LocalDate.now().toString());
+        JTextField endsField = new JTextField(LocalDate.now().plusDays(6).toString());
+        JPanel form = new JPanel(new GridLayout(0, 2, 8, 6));
+        form.add(new JLabel("Kind:"));
+        form.add(kindBox);
+        form.add(new JLabel("Category (percent off):"));
+        form.add(categoryChoice);
+        form.add(new JLabel("Item IDs (buy/get, bundle):"));
+        form.add(itemsField);
+        form.add(new JLabel("Percent off / bundle price:"));
+        form.add(amountField);
+        form.add(new JLabel("Buy N:"));
+        form.add(buyField);
+        form.add(new JLabel("Get M free:"));
+        form.add(freeField);
+        form.add(new JLabel("Starts (YYYY-MM-DD):"));
+        form.add(startsField);
+        form.add(new JLabel("Ends (YYYY-MM-DD):"));
+        form.add(endsField);
+        if (JOptionPane.showConfirmDialog(parent, form, "New Promotion", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+            return null;
+
+        List<String> itemIds = new ArrayList<>();
+        for (String id : itemsField.getText().split(",")) {
+            if (!id.isBlank())
+                itemIds.add(id.trim());
+        }
+        String error;
+        try {
+            LocalDate starts = LocalDate.parse(startsField.getText().trim());
+            LocalDate ends = LocalDate.parse(endsField.getText().trim());
+            if (ends.isBefore(starts))
+                throw new DateTimeParseException("Ends before it starts", endsField.getText(), 0);
+            for (String id : itemIds) {
+                if (db.getLowStockIndex().get(id) == null)
+                    throw new IllegalArgumentException("No item with ID " + id + ".");
+            }
+            switch (kindBox.getSelectedIndex()) {
+                case 0 -> {
+                    double percent = Double.parseDouble(amountField.getText().trim());
+                    if (percent <= 0 || percent >= 100 || categoryChoice.getSelectedItem() == null)
+                        throw new IllegalArgumentException("Choose a category and a percent between 0 and 100.");
+                    return Promotion.percentOff((String) categoryChoice.getSelectedItem(), percent, starts, ends);
+                }
+                case 1 -> {
+                    int buy = Integer.parseInt(buyField.getText().trim());
+                    int free = Integer.parseInt(freeField.getText().trim());
+                    if (itemIds.size() != 1 || buy <= 0 || free <= 0)
+                        throw new IllegalArgumentException("Give one item ID and positive N and M.");
+                    return Promotion.buyGet(itemIds.get(0), buy, free, starts, ends);
+                }
+                default -> {
+                    double price = Double.parseDouble(amountField.getText().trim());
+                    if (new HashSet<>(itemIds).size() < 2 || itemIds.size() != new HashSet<>(itemIds).size()
+                            || price < 0)
+                        throw new IllegalArgumentException("Give two or more different item IDs and a price.");
+                    return Promotion.bundle(itemIds, price, starts, ends);
+                }
+            }
+        } catch (NumberFormatException e) {
+            error = "Invalid number.";
+        } catch (DateTimeParseException e) {
+            error = "Invalid dates.";
+        } catch (IllegalArgumentException e) {
+            error = e.getMessage();
+        }
+        JOptionPane.showMessageDialog(parent, error, "Input Error", JOptionPane.ERROR_MESSAGE);
+        return null;
+    }
+
+    // Prompts for a category name; returns null if cancelled or invalid
+    private String askCategoryName(Component parent, String message, String initial) {
+        String input = JOptionPane.showInputDialog(parent, message, initial);
+        if (input == null)
+            return null;
+        String name = input.trim();
+        if (name.isEmpty() || name.equalsIgnoreCase("All")) { // "All" is the filter for every category
+            JOptionPane.showMessageDialog(parent, "Invalid category name.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+        return name;
+    }
+
+    // IDs of the items in the selected inventory rows, in view order
+    private List<String> selectedItemIds() {
+        List<String> ids = new ArrayList<>();
+        for (int row : inventoryTable.getSelectedRows()) {
+            ids.add((String) inventoryTable.getValueAt(row, 0));
+        }
+        return ids;
+    }
+
+    // Changes the price of every selected item by a percentage in one transaction
+    private void bulkReprice() {
+        List<String> ids = selectedItemIds();
+        if (ids.isEmpty() || !isAuthorized("staff"))
+            return;
+        String input = JOptionPane.showInputDialog(this,
+                "Change the price of " + ids.size() + " item(s) by % (e.g. 10 or -15):", "0");
+        if (input == null)
+            return;
+        double percent;
+        try {
+            percent = Double.parseDouble(input.trim());
+        } catch (NumberFormatException e) {
+            percent = Double.NaN;
+        }
+        if (!(percent > -100) || Double.isInfinite(percent)) {
+            JOptionPane.showMessageDialog(this, "Enter a percentage above -100.", "Input Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        int changed = db.repriceItems(ids, percent);
+        JOptionPane.showMessageDialog(this, changed + " item(s) repriced.");
+    }
+
+    // Moves every selected item to one category in one transaction
+    private void bulkMoveToCategory() {
+        List<String> ids = selectedItemIds();
+        if (ids.isEmpty() || !isAuthorized("staff"))
+            return;
+        Object category = JOptionPane.showInputDialog(this, "Move " + ids.size() + " item(s) to:", "Move to Category",
+                JOptionPane.QUESTION_MESSAGE, null, db.getCategories().toArray(), categoryBox.getSelectedItem());
+        if (category == null)
+            return;
+        int changed = db.setItemsCategory(ids, (String) category);
+        JOptionPane.showMessageDialog(this, changed + " item(s) moved to " + category + ".");
+    }
+
+    // Adds the same quantity to the stock of every selected item in one transaction
+    private void bulkRestock() {
+        List<String> ids = selectedItemIds();
+        if (ids.isEmpty() || !isAuthorized("staff"))
+            return;
+        String input = JOptionPane.showInputDialog(this,
+                "Add to the stock of " + ids.size() + " item(s) (negative to remove):", "0");
+        if (input == null)
+            return;
+        int delta;
+        try {
+            delta = Integer.parseInt(input.trim());
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Enter a whole number.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        int changed = db.restockItems(ids, delta);
+        JOptionPane.showMessageDialog(this, changed + " item(s) restocked.");
+    }
+
+    // Asks for a date and shows every item's stock and value at the end of that day
+    private void showStockAsOf() {
+        String input = JOptionPane.showInputDialog(this, "Show stock at the end of (YYYY-MM-DD):",
+                LocalDate.now().toString());
+        if (input == null)
+            return;
+        LocalDate day;
+        try {
+            day = LocalDate.parse(input.trim());
+        } catch (DateTimeParseException e) {
+            JOptionPane.showMessageDialog(this, "Invalid date. Use YYYY-MM-DD.", "Input Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<List<StockPosition>, Void>() {
+            @Override
+            protected List<StockPosition> doInBackground() {
+                return db.getStockAsOf(day);
+            }
+
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    showStockAsOfDialog(day, get());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
+    private void showStockAsOfDialog(LocalDate day, List<StockPosition> positions) {
+        JDialog dialog = new JDialog(this, "Stock as of " + day, true);
+        dialog.setSize(700, 450);
+        dialog.setLocationRelativeTo(this);
+        dialog.setLayout(new BorderLayout());
+        UiRefreshEvent event = new UiRefreshEvent("Stock as of dialog");
+        event.begin();
+
+        DefaultTableModel model = new DefaultTableModel(
+                new String[] { "Item ID", "Name", "Quantity", "Unit Price", "Value" }, 0);
+        double total = 0.0;
+        for (StockPosition position : positions) {
+            model.addRow(new Object[] { position.itemId, position.name == null ? "(deleted)" : position.name,
+                    position.quantity, String.format("%.2f", position.price),
+                    String.format("%.2f", position.value()) });
+            total += position.value();
+        }
+        JTable table = new JTable(model);
+        table.setRowHeight(25);
+        table.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        table.setDefaultEditor(Object.class, null); // Read-only
+        dialog.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JLabel totalLabel = new JLabel(
+                "Items: " + positions.size() + " | Stock Value: PHP " + String.format("%.2f", total),
+                SwingConstants.CENTER);
+        totalLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        totalLabel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        totalLabel.setBackground(new Color(220, 230, 240));
+        totalLabel.setOpaque(true);
+        dialog.add(totalLabel, BorderLayout.SOUTH);
+        event.rows = positions.size();
+        event.commit();
+        dialog.setVisible(true);
+    }
+
+    // Takes a backup on the backup thread and reports the result when it finishes
+    private void backupNow() {
+        new SwingWorker<File, Void>() {
+            @Override
+            protected File doInBackground() throws Exception {
+                return backups.requestBackup().get();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    JOptionPane.showMessageDialog(RevUpApp.this, "Backup saved to:\n" + get().getAbsolutePath(),
+                            "Backup Complete", JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    JOptionPane.showMessageDialog(RevUpApp.this, "Backup failed: " + e.getMessage(), "Backup Error",
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    // Lets an admin pick a backup and restores it into the live database off the EDT
+    private void restoreBackup() {
+        List<File> available = backups.listBackups();
+        if (available.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No backups found in " + backups.getBackupDir().getAbsolutePath());
+            return;
+        }
+        File selected = (File) JOptionPane.showInputDialog(this, "Select a backup to restore:", "Restore Backup",
+                JOptionPane.QUESTION_MESSAGE, null, available.toArray(), available.get(0));
+        if (selected == null)
+            return;
+        int confirm = JOptionPane.showConfirmDialog(this,
+                "Replace all current data with " + selected.getName() + "?\nThe current data is backed up first.",
+                "Confirm Restore", JOptionPane.YES_NO_OPTION);
+        if (confirm != JOptionPane.YES_OPTION)
+            return;
+
+        new SwingWorker<File, Void>() {
+            @Override
+            protected File doInBackground() throws Exception {
+                return backups.requestRestore(selected).get();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    File safetyCopy = get();
+                    loadItems();
+                    updateRevenue();
+                    loadMonthlyRevenueSummary();
+                    loadRevenueChart();
+                    JOptionPane.showMessageDialog(RevUpApp.this,
+                            "Restored " + selected.getName() + ".\nPrevious data saved as " + safetyCopy.getName(),
+                            "Restore Complete", JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    JOptionPane.showMessageDialog(RevUpApp.this, "Restore failed: " + e.getMessage(),
+                            "Restore Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
     /**
      * Shows a dialog with individual sales for a given month and year.
      * 
@@ -1206,9 +9547,8 @@ public class RevUpApp extends JFrame {
         salesDialog.setLocationRelativeTo(this); // Center relative to main frame
         salesDialog.setLayout(new BorderLayout());
 
-        // Create table for individual sales
-        DefaultTableModel dialogTableModel = new DefaultTableModel(
-                new String[] { "Sale ID", "Item ID", "Item Name", "Quantity Sold", "Price Sold", "Sale Date" }, 0);
+        // Table for individual sales, filled a page at a time as the user scrolls
+        SalesPageTableModel dialogTableModel = new SalesPageTableModel();
         JTable dialogSalesTable = new JTable(dialogTableModel);
         dialogSalesTable.setRowHeight(25);
         dialogSalesTable.setFont(new Font("Segoe UI", Font.PLAIN, 13));
@@ -1269,29 +9609,8 @@ public class RevUpApp extends JFrame {
         dialogScrollPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
         salesDialog.add(dialogScrollPane, BorderLayout.CENTER);
 
-        // Populate table with data
-        double monthlyTotal = 0.0;
-        try (ResultSet rs = db.getIndividualSalesForMonth(yearMonth)) {
-            while (rs.next()) {
-                Vector<Object> rowData = new Vector<>();
-                rowData.add(rs.getInt("sale_id"));
-                rowData.add(rs.getString("item_id"));
-                rowData.add(rs.getString("item_name"));
-                rowData.add(rs.getInt("quantity_sold"));
-                rowData.add(rs.getDouble("price_sold"));
-                rowData.add(rs.getString("date"));
-                dialogTableModel.addRow(rowData);
-                monthlyTotal += (rs.getInt("quantity_sold") * rs.getDouble("price_sold"));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(salesDialog, "Error loading individual sales: " + e.getMessage(),
-                    "Database Error", JOptionPane.ERROR_MESSAGE);
-        }
-
-        // Display total revenue for the month in the dialog
-        JLabel dialogTotalLabel = new JLabel(
-                "Total Revenue for " + yearMonth + ": PHP " + String.format("%.2f", monthlyTotal),
+        // Total for the month comes from an aggregate query, filled in once it returns
+        JLabel dialogTotalLabel = new JLabel("Total Revenue for " + yearMonth + ": loading...",
                 SwingConstants.CENTER);
         dialogTotalLabel.setFont(new Font("Segoe UI", Font.BOLD, 16));
         dialogTotalLabel.setBorder(new EmptyBorder(10, 0, 10, 0));
@@ -1299,6 +9618,70 @@ public class RevUpApp extends JFrame {
         dialogTotalLabel.setOpaque(true);
         salesDialog.add(dialogTotalLabel, BorderLayout.SOUTH);
 
+        new SwingWorker<double[], Void>() {
+            @Override
+            protected double[] doInBackground() {
+                return db.getMonthSalesTotals(yearMonth);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    double[] totals = get();
+                    dialogTotalLabel.setText("Total Revenue for " + yearMonth + ": PHP "
+                            + String.format("%.2f", totals[1]) + " (" + (int) totals[0] + " sales)");
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    dialogTotalLabel.setText("Total Revenue for " + yearMonth + ": unavailable");
+                }
+            }
+        }.execute();
+
+        // Fetch the next page whenever the user scrolls near the end of what is loaded
+        Runnable loadNextPage = new Runnable() {
+            @Override
+            public void run() {
+                if (!dialogTableModel.startLoading())
+                    return;
+                String afterDate = dialogTableModel.getLastDate();
+                int afterSaleId = dialogTableModel.getLastSaleId();
+                Runnable self = this;
+                new SwingWorker<List<SaleRecord>, Void>() {
+                    @Override
+                    protected List<SaleRecord> doInBackground() {
+                        return db.getIndividualSalesPage(yearMonth, afterDate, afterSaleId, SALES_PAGE_SIZE);
+                    }
+
+                    @Override
+                    protected void done() {
+                        try {
+                            List<SaleRecord> page = get();
+                            if (page == null)
+                                throw new SQLException("the query failed");
+                            dialogTableModel.appendPage(page, SALES_PAGE_SIZE);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                            dialogTableModel.appendPage(List.of(), SALES_PAGE_SIZE);
+                            JOptionPane.showMessageDialog(salesDialog,
+                                    "Error loading individual sales: " + e.getMessage(), "Database Error",
+                                    JOptionPane.ERROR_MESSAGE);
+                            return;
+                        }
+                        // Keep going until the viewport is full, so the scroll bar can drive further loads
+                        if (dialogSalesTable.getPreferredSize().height <= dialogScrollPane.getViewport().getHeight())
+                            self.run();
+                    }
+                }.execute();
+            }
+        };
+        dialogScrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            int prefetchHeight = SALES_PAGE_SIZE / 4 * dialogSalesTable.getRowHeight(); // Start before the end
+            if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - prefetchHeight)
+                loadNextPage.run();
+        });
+        loadNextPage.run();
+
         // Add right-click delete functionality to this dialog's table
         JPopupMenu dialogTablePopupMenu = new JPopupMenu();
         JMenuItem deleteSaleItem = new JMenuItem("🗑️ Delete Sale");
@@ -1324,7 +9707,7 @@ public class RevUpApp extends JFrame {
             int row = dialogSalesTable.getSelectedRow();
             if (row != -1) {
                 // Get the Sale ID from the first column of the selected row
-                int saleId = (Integer) dialogTableModel.getValueAt(row, 0);
+                int saleId = dialogTableModel.getSale(row).saleId;
 
                 int confirm = JOptionPane.showConfirmDialog(salesDialog,
                         "Delete Sale ID: " + saleId + "? This cannot be undone.", "Confirm Delete",
@@ -1335,6 +9718,7 @@ public class RevUpApp extends JFrame {
                             "Deletion Complete", JOptionPane.INFORMATION_MESSAGE);
                     salesDialog.dispose(); // Close the dialog
                     loadMonthlyRevenueSummary(); // Refresh the main monthly summary table
+                    loadRevenueChart();
                 }
             }
         });
@@ -1360,9 +9744,150 @@ public class RevUpApp extends JFrame {
         }
 
         SwingUtilities.invokeLater(() -> {
-            DatabaseManager db = new DatabaseManager();
-            LoginFrame loginFrame = new LoginFrame(db);
+            AbstractInventoryStore store;
+            BackupScheduler backups = null;
+            // Opt-in trace of every store call for WorkloadReplay, e.g. -Drevup.trace=workload.trace
+            String traceFile = System.getProperty("revup.trace");
+            WorkloadRecorder recorder = null;
+            // -Drevup.store=memory runs on a throwaway in-memory store, with no journal or backups
+            if ("memory".equalsIgnoreCase(System.getProperty("revup.store"))) {
+                store = new InMemoryStore();
+                if (traceFile != null) {
+                    recorder = startTrace(traceFile, store, null);
+                    if (recorder != null)
+                        Runtime.getRuntime().addShutdownHook(new Thread(recorder::close));
+                }
+            } else {
+                DatabaseManager db = new DatabaseManager();
+                // Change log of every mutation, attached first so journal replays are recorded too
+                AuditLog auditLog = null;
+                if (Boolean.parseBoolean(System.getProperty("revup.audit", "true"))) {
+                    try {
+                        auditLog = new AuditLog(
+                                new File(System.getProperty("revup.audit.file", DatabaseManager.DB_PATH + ".audit")));
+                        db.attachAuditLog(auditLog);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        JOptionPane.showMessageDialog(null, "Could not open the audit log: " + e.getMessage(),
+                                "Audit Log", JOptionPane.WARNING_MESSAGE);
+                    }
+                }
+                // -Drevup.audit.replay=<log> rebuilds a fresh database from another database's change log
+                String replayFrom = System.getProperty("revup.audit.replay");
+                if (replayFrom != null) {
+                    File replayLog = new File(replayFrom);
+                    boolean[] empty = { db.getTotalRevenue() == 0.0 };
+                    db.getAllItems(_ -> empty[0] = false);
+                    if (!empty[0] || (auditLog != null && replayLog.getAbsoluteFile()
+                            .equals(auditLog.getFile().getAbsoluteFile()))) {
+                        JOptionPane.showMessageDialog(null,
+                                "Audit logs can only be replayed into an empty database with a different log file.",
+                                "Audit Replay", JOptionPane.WARNING_MESSAGE);
+                    } else {
+                        try {
+                            AuditLog.replay(replayLog, db);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                            JOptionPane.showMessageDialog(null, "Audit replay stopped: " + e.getMessage(),
+                                    "Audit Replay", JOptionPane.WARNING_MESSAGE);
+                        }
+                    }
+                }
+                // Replay any journaled sales left over from a crash before the UI opens
+                SaleJournal journal = null;
+                if (Boolean.parseBoolean(System.getProperty("revup.journal", "true"))) {
+                    try {
+                        journal = SaleJournal.open(new File(DatabaseManager.DB_PATH + ".journal"), db,
+                                Boolean.getBoolean("revup.journal.sync"));
+                        db.attachJournal(journal);
+                    } catch (IOException | SQLException e) {
+                        e.printStackTrace();
+                        JOptionPane.showMessageDialog(null, "Could not open the sale journal: " + e.getMessage()
+                                + "\nSales will be written directly to the database.", "Sale Journal",
+                                JOptionPane.WARNING_MESSAGE);
+                    }
+                }
+                // Started before anything else touches the database, so the copy it takes is the trace's start
+                if (traceFile != null)
+                    recorder = startTrace(traceFile, db, journal);
+                // Sale logs from older tills, e.g. -Drevup.ingest.dir=/mnt/tills
+                SaleLogIngestor ingestor = null;
+                String ingestDir = System.getProperty("revup.ingest.dir");
+                if (ingestDir != null) {
+                    try {
+                        ingestor = new SaleLogIngestor(db, new File(ingestDir).toPath(),
+                                System.getProperty("revup.ingest.glob", "*.{csv,txt,log}"));
+                        ingestor.start();
+                    } catch (IOException | SQLException e) {
+                        e.printStackTrace();
+                        JOptionPane.showMessageDialog(null, "Could not watch " + ingestDir + " for sale logs: "
+                                + e.getMessage(), "Sale Log Ingestion", JOptionPane.WARNING_MESSAGE);
+                    }
+                }
+                // On exit, stop ingesting, then drain the journal so the sales it applies still reach the audit log
+                // and the workload trace
+                SaleLogIngestor ingestorToStop = ingestor;
+                SaleJournal journalToClose = journal;
+                AuditLog auditLogToClose = auditLog;
+                WorkloadRecorder recorderToClose = recorder;
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    if (ingestorToStop != null)
+                        ingestorToStop.stop();
+                    if (journalToClose != null)
+                        journalToClose.close();
+                    if (auditLogToClose != null)
+                        auditLogToClose.close();
+                    if (recorderToClose != null)
+                        recorderToClose.close();
+                }));
+                // Scheduled online backups, configurable with -Drevup.backup.* system properties
+                backups = new BackupScheduler(db,
+                        new File(System.getProperty("revup.backup.dir", "backups")),
+                        Boolean.parseBoolean(System.getProperty("revup.backup.compress", "true")),
+                        Integer.getInteger("revup.backup.keep", 10));
+                backups.start(Long.getLong("revup.backup.intervalMinutes", 60));
+                // Idle-time vacuum, statistics and checkpoints, e.g. -Drevup.maintenance.idleSeconds=300
+                if (Boolean.parseBoolean(System.getProperty("revup.maintenance", "true"))) {
+                    MaintenanceScheduler maintenance = new MaintenanceScheduler(db,
+                            Long.getLong("revup.maintenance.idleSeconds", 120));
+                    Toolkit.getDefaultToolkit().addAWTEventListener(_ -> maintenance.noteActivity(),
+                            AWTEvent.KEY_EVENT_MASK | AWTEvent.MOUSE_EVENT_MASK | AWTEvent.MOUSE_WHEEL_EVENT_MASK);
+                    db.addSalesListener(maintenance::noteActivity); // Sales from the HTTP API count too
+                    maintenance.start(30);
+                }
+                store = db;
+            }
+            // Ledger snapshots and drift checks, e.g. -Drevup.ledger.checkMinutes=15
+            store.startLedgerChecks(Long.getLong("revup.ledger.checkMinutes", 60));
+            // Optional HTTP API for POS terminals, e.g. -Drevup.http.port=8080
+            Integer httpPort = Integer.getInteger("revup.http.port");
+            if (httpPort != null) {
+                try {
+                    InventoryStore apiStore = StoreCallEvent.instrument(store);
+                    PosHttpServer api = new PosHttpServer(recorder == null ? apiStore : recorder.wrap(apiStore),
+                            new InetSocketAddress(httpPort));
+                    api.start();
+                    Runtime.getRuntime().addShutdownHook(new Thread(api::stop));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    JOptionPane.showMessageDialog(null, "Could not start the HTTP API on port " + httpPort + ": "
+                            + e.getMessage(), "HTTP API", JOptionPane.WARNING_MESSAGE);
+                }
+            }
+            LoginFrame loginFrame = new LoginFrame(store, backups, recorder);
             loginFrame.setVisible(true);
         });
     }
+
+    // Starts the workload trace, copying the database it starts from; warns and returns null if it can't
+    private static WorkloadRecorder startTrace(String traceFile, AbstractInventoryStore store, SaleJournal journal) {
+        try {
+            return WorkloadRecorder.start(new File(traceFile), store, journal, Boolean.getBoolean("revup.journal.sync"));
+        } catch (IOException | SQLException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(null, "Could not start the workload trace: " + e.getMessage(),
+                    "Workload Trace", JOptionPane.WARNING_MESSAGE);
+            return null;
+        }
+    }
 }
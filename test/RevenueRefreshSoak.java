@@ -0,0 +1,89 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+// Soak check for the revenue views: refreshes the monthly summary and revenue totals the way the Sales
+// & Analytics tab does, many times over, and samples the process's memory outside the Java heap. A
+// leaked statement or result set keeps native SQLite memory, which shows up there and not in the heap.
+// Compile it against the app classes and run it as "java RevenueRefreshSoak [refreshes]" on Linux; it
+// works on a scratch database of generated sales and exits with status 1 if that memory keeps growing
+// after the warm-up.
+class RevenueRefreshSoak {
+    static final int DEFAULT_REFRESHES = 100_000;
+    static final int SAMPLES = 10; // The first is the warm-up baseline
+    static final long MAX_GROWTH_BYTES = 8L << 20;
+    private static final int FIRST_YEAR = 2022;
+    private static final int YEARS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int refreshes = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_REFRESHES;
+        Path statm = Path.of("/proc/self/statm");
+        if (!Files.isReadable(statm)) {
+            System.err.println("Resident memory is read from /proc/self/statm, which this system lacks");
+            System.exit(2);
+        }
+        Path dir = Files.createTempDirectory("revup-soak");
+        DatabaseManager store = new DatabaseManager(dir.resolve("soak.db").toString());
+        seed(store);
+
+        long[] outsideHeap = new long[SAMPLES];
+        int every = Math.max(1, refreshes / SAMPLES);
+        double checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < refreshes; i++) {
+            // The year filter cycles through every option, "All Years" included
+            int year = i % (YEARS + 1) == YEARS ? 0 : FIRST_YEAR + i % (YEARS + 1);
+            double[] annual = { 0.0 };
+            if (!store.getMonthlyRevenueSummary(year, month -> annual[0] += month.totalRevenue))
+                throw new IllegalStateException("Monthly summary failed at refresh " + i);
+            checksum += annual[0] + store.getTotalRevenue();
+            if ((i + 1) % every == 0 && (i + 1) / every <= SAMPLES) {
+                int sample = (i + 1) / every - 1;
+                outsideHeap[sample] = outsideHeap(statm);
+                System.out.printf("%,9d refreshes  %,7d KB outside the heap%n", i + 1, outsideHeap[sample] >> 10);
+            }
+        }
+        long growth = 0;
+        for (int sample = 1; sample < SAMPLES; sample++) {
+            growth = Math.max(growth, outsideHeap[sample] - outsideHeap[0]);
+        }
+        System.out.printf("%,d refreshes in %.1f s (checksum %.2f); growth after warm-up %,d KB, limit %,d KB%n",
+                refreshes, (System.nanoTime() - start) / 1e9, checksum, growth >> 10, MAX_GROWTH_BYTES >> 10);
+        for (File file : Objects.requireNonNull(dir.toFile().listFiles())) {
+            file.deleteOnExit();
+        }
+        dir.toFile().deleteOnExit();
+        System.exit(growth <= MAX_GROWTH_BYTES ? 0 : 1);
+    }
+
+    // A few thousand sales spread over the years, so each summary groups a realistic number of months
+    private static void seed(InventoryStore store) {
+        Random random = new Random(42);
+        for (int i = 0; i < 50; i++) {
+            store.addItem(new InventoryItem("S" + i, "Soak item " + i, 1_000_000, 5 + i, "Other", 0));
+        }
+        List<SaleLine> sales = new ArrayList<>();
+        LocalDate first = LocalDate.of(FIRST_YEAR, 1, 1);
+        int days = (int) (LocalDate.of(FIRST_YEAR + YEARS, 1, 1).toEpochDay() - first.toEpochDay());
+        for (int i = 0; i < 3000; i++) {
+            int item = random.nextInt(50);
+            sales.add(new SaleLine("S" + item, 1 + random.nextInt(5), 5 + item,
+                    first.plusDays(random.nextInt(days)).toString()));
+        }
+        store.recordSales(sales);
+    }
+
+    // Resident bytes less the committed heap, after a collection so heap churn doesn't count
+    private static long outsideHeap(Path statm) throws IOException {
+        System.gc();
+        long pages = Long.parseLong(Files.readString(statm).trim().split(" ")[1]);
+        Runtime runtime = Runtime.getRuntime();
+        return pages * 4096 - runtime.totalMemory();
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Concurrent load check for selling: many HTTP clients and desktop-style callers race to sell the last
+// units of a few items through one store with the sale journal attached, the way tills, the POS API and
+// the desktop Sell button share a database. The items are restocked each round, so every round sells
+// out again. Compile it against the app classes and run it as "java SellLoadTest [clients] [rounds]"; it
+// prints the accepted and rejected sales with request latency, and exits with status 1 if more was sold
+// than was in stock or the books don't add up.
+class SellLoadTest {
+    static final int DEFAULT_CLIENTS = 32;
+    static final int DEFAULT_ROUNDS = 20;
+    private static final int ATTEMPTS = 10; // Per client and round
+    private static final int ITEMS = 3;
+    private static final int STOCK = 50; // Per item and round; far less than the clients try to buy
+    private static final double PRICE = 10.0;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+        Path dir = Files.createTempDirectory("revup-load");
+        DatabaseManager store = new DatabaseManager(dir.resolve("load.db").toString());
+        List<String> itemIds = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            store.addItem(new InventoryItem("L" + i, "Load item " + i, 0, PRICE, "Other", 0));
+            itemIds.add("L" + i);
+        }
+        SaleJournal journal = SaleJournal.open(dir.resolve("load.journal").toFile(), store, false);
+        store.attachJournal(journal);
+        PosHttpServer server = new PosHttpServer(store, new InetSocketAddress("localhost", 0));
+        server.start();
+
+        URI checkout = URI.create("http://localhost:" + server.getAddress().getPort() + "/api/checkout");
+        // The staff account every new database is seeded with
+        String auth = "Basic " + Base64.getEncoder().encodeToString("staff:staff123".getBytes(StandardCharsets.UTF_8));
+        HttpClient http = HttpClient.newHttpClient();
+        AtomicLong soldUnits = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        long start = System.nanoTime();
+        int oversold = 0;
+        for (int round = 0; round < rounds; round++) {
+            store.restockItems(itemIds, STOCK);
+            sellRound(store, clients, round, checkout, auth, http, soldUnits, rejected, errors, latencies);
+            // Checked before the next restock could cover it up; sales still journaled count as sold
+            for (String id : itemIds) {
+                int available = store.getItem(id).quantity - store.getPendingSaleQuantity(id);
+                if (available < 0) {
+                    System.out.println("Round " + round + " oversold " + id + " by " + -available);
+                    oversold -= available;
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        server.stop();
+        journal.close(); // Drains every journaled sale into the items and sales tables
+
+        int remaining = 0;
+        for (String id : itemIds) {
+            remaining += store.getItem(id).quantity;
+        }
+        int stocked = rounds * ITEMS * STOCK;
+        double revenue = store.getTotalRevenue();
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        System.out.printf("%,d sales attempted in %.2f s: %,d units sold, %,d baskets rejected, %,d errors%n",
+                sorted.length, seconds, soldUnits.get(), rejected.get(), errors.get());
+        System.out.printf("Latency p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", percentile(sorted, 0.50),
+                percentile(sorted, 0.99), percentile(sorted, 1.0));
+        System.out.printf("Stocked %,d, remaining %,d, revenue %.2f%n", stocked, remaining, revenue);
+        boolean ok = oversold == 0 && soldUnits.get() <= stocked && stocked - remaining == soldUnits.get()
+                && Math.abs(revenue - soldUnits.get() * PRICE) < 1e-6 && errors.get() == 0;
+        for (File file : Objects.requireNonNull(dir.toFile().listFiles())) {
+            file.deleteOnExit();
+        }
+        dir.toFile().deleteOnExit();
+        System.out.println(ok ? "No overselling" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    // Every client tries ATTEMPTS baskets at once; returns when all of them are answered. Clients get
+    // platform threads, as tills and the event thread are, so the OS interleaves them even on one core.
+    private static void sellRound(InventoryStore store, int clients, int round, URI checkout, String auth,
+            HttpClient http, AtomicLong soldUnits, AtomicLong rejected, AtomicLong errors,
+            Queue<Long> latencies) {
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofPlatform().factory())) {
+            for (int c = 0; c < clients; c++) {
+                Random random = new Random(round * 1_000_003L + c);
+                boolean overHttp = c % 2 == 0; // The other half sell as the desktop Sell button does
+                executor.submit(() -> {
+                    for (int a = 0; a < ATTEMPTS; a++) {
+                        // Baskets of one or two items, so a short line must hold back the whole basket
+                        int first = random.nextInt(ITEMS);
+                        int second = (first + 1 + random.nextInt(ITEMS - 1)) % ITEMS;
+                        List<String> ids = random.nextBoolean() ? List.of("L" + first) : List.of("L" + first, "L" + second);
+                        List<Integer> quantities = ids.stream().map(id -> 1 + random.nextInt(3)).toList();
+                        int units = quantities.stream().mapToInt(Integer::intValue).sum();
+                        long began = System.nanoTime();
+                        if (overHttp) {
+                            StringBuilder form = new StringBuilder();
+                            for (int i = 0; i < ids.size(); i++) {
+                                form.append(i == 0 ? "" : "&").append("id=").append(ids.get(i)).append("&qty=")
+                                        .append(quantities.get(i));
+                            }
+                            HttpRequest request = HttpRequest.newBuilder(checkout).header("Authorization", auth)
+                                    .header("Content-Type", "application/x-www-form-urlencoded")
+                                    .POST(HttpRequest.BodyPublishers.ofString(form.toString())).build();
+                            try {
+                                int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                                if (status == 200)
+                                    soldUnits.addAndGet(units);
+                                else if (status == 409)
+                                    rejected.incrementAndGet();
+                                else
+                                    errors.incrementAndGet();
+                            } catch (IOException e) {
+                                errors.incrementAndGet();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return;
+                            }
+                        } else {
+                            List<InventoryItem> items = ids.stream().map(store::getItem).toList();
+                            if (store.recordSalesIfInStock(store.priceBasket(items, quantities)) == null)
+                                soldUnits.addAndGet(units);
+                            else
+                                rejected.incrementAndGet();
+                        }
+                        latencies.add(System.nanoTime() - began);
+                    }
+                });
+            }
+        }
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0)
+            return 0.0;
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)] / 1e6;
+    }
+}
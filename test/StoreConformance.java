@@ -0,0 +1,345 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+
+// Conformance suite for the store engines: runs the same cases against an InMemoryStore and a
+// DatabaseManager on a scratch file, each case on a fresh store, and checks both against what the
+// InventoryStore interface documents, so the in-memory engine stays a faithful stand-in for SQLite.
+// Compile it against the app classes and run it as "java StoreConformance"; it lists every failed check
+// and exits with status 1 if any failed.
+class StoreConformance {
+    private static final double EPSILON = 1e-6; // SQL sums in another order than Java
+    private static final int MAX_PAGES = 100; // A cursor that doesn't advance fails instead of looping
+
+    interface Case {
+        void run(InventoryStore store, StoreConformance check);
+    }
+
+    private final String engine;
+    private final String caseName;
+    private final List<String> failures;
+
+    private StoreConformance(String engine, String caseName, List<String> failures) {
+        this.engine = engine;
+        this.caseName = caseName;
+        this.failures = failures;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("revup-conformance");
+        Map<String, Case> cases = cases();
+        List<String> failures = new ArrayList<>();
+        int counter = 0;
+        for (Map.Entry<String, Case> testCase : cases.entrySet()) {
+            String db = dir.resolve("case" + counter++ + ".db").toString();
+            Map<String, Supplier<InventoryStore>> engines = new LinkedHashMap<>();
+            engines.put("memory", InMemoryStore::new);
+            engines.put("sqlite", () -> new DatabaseManager(db));
+            for (Map.Entry<String, Supplier<InventoryStore>> engine : engines.entrySet()) {
+                StoreConformance check = new StoreConformance(engine.getKey(), testCase.getKey(), failures);
+                try {
+                    testCase.getValue().run(engine.getValue().get(), check);
+                } catch (RuntimeException e) {
+                    check.fail("threw " + e);
+                }
+            }
+        }
+        for (File file : Objects.requireNonNull(dir.toFile().listFiles())) {
+            file.deleteOnExit();
+        }
+        dir.toFile().deleteOnExit();
+        failures.forEach(System.out::println);
+        System.out.println(cases.size() + " cases on 2 engines, " + failures.size() + " failed checks");
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+
+    void fail(String message) {
+        failures.add("[" + engine + "] " + caseName + ": " + message);
+    }
+
+    void equal(Object expected, Object actual, String what) {
+        if (!Objects.equals(expected, actual))
+            fail(what + ": expected " + expected + " but was " + actual);
+    }
+
+    void near(double expected, double actual, String what) {
+        if (Math.abs(expected - actual) > EPSILON)
+            fail(what + ": expected " + expected + " but was " + actual);
+    }
+
+    private static List<String> ids(List<InventoryItem> items) {
+        return items.stream().map(item -> item.id).toList();
+    }
+
+    private static List<String> sorted(Collection<String> ids) {
+        List<String> sorted = new ArrayList<>(ids);
+        sorted.sort(null);
+        return sorted;
+    }
+
+    private static List<String> saleIds(List<SaleRecord> sales) {
+        return sales.stream().map(sale -> sale.date + "#" + sale.itemId + "x" + sale.quantitySold).toList();
+    }
+
+    private static Path deltaFile(String lines) {
+        try {
+            Path file = Files.createTempFile("revup-conformance", ".txt");
+            file.toFile().deleteOnExit();
+            return Files.writeString(file, lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, Integer> stockAsOf(InventoryStore store, LocalDate day) {
+        Map<String, Integer> asOf = new TreeMap<>();
+        for (StockPosition position : store.getStockAsOf(day)) {
+            asOf.put(position.itemId, position.quantity);
+        }
+        return asOf;
+    }
+
+    private static void addItems(InventoryStore store) {
+        store.addItem(new InventoryItem("A1", "Alpha Phone", 10, 100.0, "Electronics", 2));
+        store.addItem(new InventoryItem("B2", "Beta Shirt", 20, 15.5, "Clothing", 5));
+        store.addItem(new InventoryItem("C3", "Gamma Chair", 3, 80.0, "Furniture", 4));
+        store.addItem(new InventoryItem("d4", "delta cable", 50, 2.25, null, 0));
+    }
+
+    // Sales over two years with back-dated ones recorded out of order, as the journal and till logs do
+    private static void addSales(InventoryStore store) {
+        store.recordSales(List.of(new SaleLine("A1", 1, 100.0, "2024-03-15"), new SaleLine("B2", 2, 15.5, "2024-03-02"),
+                new SaleLine("A1", 2, 95.0, "2024-03-15"), new SaleLine("B2", 1, 15.5, "2023-12-31"),
+                new SaleLine("d4", 4, 2.25, "2024-04-01")));
+        store.recordSale("C3", 1, 80.0, "2024-03-01");
+        store.recordSale("B2", 3, 15.0, "2024-03-15");
+    }
+
+    private static Map<String, Case> cases() {
+        Map<String, Case> cases = new LinkedHashMap<>();
+        cases.put("item lifecycle", (store, check) -> {
+            addItems(store);
+            check.equal("Beta Shirt", store.getItem("B2").name, "name read back");
+            check.equal(null, store.getItem("missing"), "missing item");
+            store.updateItem(store.getItem("B2").withQuantity(7).withCategory("Other"));
+            check.equal(7, store.getItem("B2").quantity, "updated quantity");
+            check.equal("Other", store.getItem("B2").category, "updated category");
+            store.deleteItem("C3");
+            check.equal(null, store.getItem("C3"), "deleted item");
+            List<InventoryItem> all = new ArrayList<>();
+            store.getAllItems(all::add);
+            check.equal(List.of("A1", "B2", "d4"), sorted(ids(all)), "all items");
+        });
+        cases.put("search and category filter", (store, check) -> {
+            addItems(store);
+            List<InventoryItem> found = new ArrayList<>();
+            store.searchItems("ALPHA", null, found::add);
+            check.equal(List.of("A1"), ids(found), "case-insensitive name match");
+            found.clear();
+            store.searchItems("d", null, found::add);
+            check.equal(List.of("d4"), sorted(ids(found)), "ID or name contains");
+            found.clear();
+            store.searchItems("", "Clothing", found::add);
+            check.equal(List.of("B2"), ids(found), "category filter");
+            found.clear();
+            store.searchItems("", "No Such Category", found::add);
+            check.equal(List.of(), ids(found), "unknown category");
+            found.clear();
+            store.getItemsInCategory("Electronics", found::add);
+            check.equal(List.of("A1"), ids(found), "items in category");
+        });
+        cases.put("categories", (store, check) -> {
+            addItems(store);
+            check.equal(List.of("Electronics", "Clothing", "Furniture", "Other"), store.getCategories(), "defaults");
+            check.equal(false, store.addCategory("Clothing"), "duplicate add");
+            check.equal(true, store.addCategory("Toys"), "new category");
+            check.equal(true, store.renameCategory("Clothing", "Apparel"), "rename");
+            check.equal("Apparel", store.getItem("B2").category, "item follows rename");
+            check.equal(false, store.renameCategory("Apparel", "Toys"), "rename onto a taken name");
+            check.equal(false, store.deleteCategory("Apparel"), "delete in use");
+            check.equal(true, store.deleteCategory("Toys"), "delete unused");
+            check.equal(List.of("Electronics", "Apparel", "Furniture", "Other"), store.getCategories(), "after edits");
+        });
+        cases.put("bulk actions", (store, check) -> {
+            addItems(store);
+            check.equal(2, store.repriceItems(List.of("A1", "B2", "missing"), 10), "repriced count");
+            check.near(InventoryItem.repriced(15.5, 10), store.getItem("B2").price, "repriced price");
+            check.equal(2, store.setItemsCategory(List.of("A1", "d4"), "Other"), "recategorised count");
+            check.equal("Other", store.getItem("d4").category, "recategorised");
+            check.equal(2, store.restockItems(List.of("A1", "C3"), 5), "restocked count");
+            check.equal(8, store.getItem("C3").quantity, "restocked");
+            check.equal(2, store.adjustStock(deltaFile("A1\t-3\nB2\t4\nC3\t0\nmissing\t1\n")), "adjusted count");
+            check.equal(12, store.getItem("A1").quantity, "adjusted");
+            check.equal(2, store.deleteItems(List.of("C3", "d4", "missing")), "deleted count");
+            check.equal(null, store.getItem("d4"), "bulk deleted");
+        });
+        cases.put("removing more stock than there is", (store, check) -> {
+            addItems(store);
+            store.restockItems(List.of("B2"), -20);
+            check.equal(2, store.restockItems(List.of("A1", "B2", "C3"), -5), "only items with stock change");
+            check.equal(5, store.getItem("A1").quantity, "partly removed");
+            check.equal(0, store.getItem("C3").quantity, "emptied, not negative");
+            check.equal(0, store.getItem("B2").quantity, "already empty");
+            check.equal(Map.of("A1", 5, "B2", 0, "C3", 0, "d4", 50), stockAsOf(store, LocalDate.now()),
+                    "ledger records what was removed");
+            check.equal(List.of(), store.checkStockConsistency(), "no drift");
+        });
+        cases.put("item paging", (store, check) -> {
+            addItems(store);
+            List<String> paged = new ArrayList<>();
+            String after = "";
+            for (List<InventoryItem> page; !(page = store.getItemsPage(after, 3)).isEmpty()
+                    && paged.size() < MAX_PAGES * 3;) {
+                paged.addAll(ids(page));
+                after = page.get(page.size() - 1).id;
+            }
+            check.equal(List.of("A1", "B2", "C3", "d4"), paged, "pages in ID order");
+        });
+        cases.put("revenue totals", (store, check) -> {
+            addItems(store);
+            addSales(store);
+            check.equal(10 - 3, store.getItem("A1").quantity, "stock after sales");
+            check.near(1 * 100.0 + 2 * 15.5 + 2 * 95.0 + 15.5 + 4 * 2.25 + 80.0 + 3 * 15.0, store.getTotalRevenue(),
+                    "total revenue");
+            check.near(15.5, store.getTotalAnnualRevenue(2023), "2023 revenue");
+            List<String> months = new ArrayList<>();
+            store.getMonthlyRevenueSummary(0, month -> months.add(month.monthYear + "=" + month.totalRevenue));
+            check.equal(List.of("2024-04=9.0", "2024-03=446.0", "2023-12=15.5"), months, "monthly summary");
+            months.clear();
+            store.getMonthlyRevenueSummary(2024, month -> months.add(month.monthYear));
+            check.equal(List.of("2024-04", "2024-03"), months, "one year's months");
+            List<Long> days = new ArrayList<>();
+            store.getDailyRevenue(day -> days.add(day.epochDay));
+            check.equal(List.of(LocalDate.parse("2023-12-31").toEpochDay(), LocalDate.parse("2024-03-01").toEpochDay(),
+                    LocalDate.parse("2024-03-02").toEpochDay(), LocalDate.parse("2024-03-15").toEpochDay(),
+                    LocalDate.parse("2024-04-01").toEpochDay()), days, "days in order");
+            double[] march = store.getMonthSalesTotals("2024-03");
+            check.equal(5.0, march[0], "March sale count");
+            check.near(446.0, march[1], "March revenue");
+        });
+        cases.put("sales paging", (store, check) -> {
+            addItems(store);
+            addSales(store);
+            List<SaleRecord> month = new ArrayList<>();
+            store.getIndividualSalesForMonth("2024-03", month::add);
+            check.equal(List.of("2024-03-01#C3x1", "2024-03-02#B2x2", "2024-03-15#A1x1", "2024-03-15#A1x2",
+                    "2024-03-15#B2x3"), saleIds(month), "month in (date, sale ID) order");
+            List<SaleRecord> paged = new ArrayList<>();
+            String afterDate = "";
+            int afterSaleId = 0;
+            for (List<SaleRecord> page; !(page = store.getIndividualSalesPage("2024-03", afterDate, afterSaleId, 2))
+                    .isEmpty() && paged.size() < MAX_PAGES * 2;) {
+                paged.addAll(page);
+                afterDate = page.get(page.size() - 1).date;
+                afterSaleId = page.get(page.size() - 1).saleId;
+            }
+            check.equal(saleIds(month), saleIds(paged), "keyset pages");
+            store.deleteItem("C3"); // Sales of deleted items drop out of the listings, as with the join
+            month.clear();
+            store.getIndividualSalesForMonth("2024-03", month::add);
+            check.equal(4, month.size(), "sales of existing items");
+        });
+        cases.put("deleting and resetting sales", (store, check) -> {
+            addItems(store);
+            addSales(store);
+            List<SaleRecord> april = new ArrayList<>();
+            store.getIndividualSalesForMonth("2024-04", april::add);
+            store.deleteSale(april.get(0).saleId);
+            check.equal(50, store.getItem("d4").quantity, "stock returned");
+            check.equal(0.0, store.getMonthSalesTotals("2024-04")[0], "deleted sale gone");
+            store.deleteSale(april.get(0).saleId); // Already deleted
+            check.equal(50, store.getItem("d4").quantity, "second delete is a no-op");
+            store.resetRevenue();
+            check.near(0.0, store.getTotalRevenue(), "revenue after reset");
+            store.recordSale("A1", 1, 100.0, "2024-05-05");
+            List<SaleRecord> may = new ArrayList<>();
+            store.getIndividualSalesForMonth("2024-05", may::add);
+            check.equal(true, may.get(0).saleId > april.get(0).saleId, "sale IDs not reused after reset");
+        });
+        cases.put("promotions", (store, check) -> {
+            addItems(store);
+            LocalDate today = LocalDate.now();
+            Promotion added = store.addPromotion(Promotion.percentOff("Clothing", 20, today, today));
+            check.equal(true, added != null && added.promotionId > 0, "promotion ID assigned");
+            List<SaleLine> lines = store.priceBasket(List.of(store.getItem("B2"), store.getItem("A1")), List.of(2, 1));
+            check.near(2 * 15.5 * 0.8 + 100.0, PricingRules.total(lines), "discounted basket");
+            check.equal(true, store.deletePromotion(added.promotionId), "delete promotion");
+            check.equal(false, store.deletePromotion(added.promotionId), "delete again");
+            check.near(2 * 15.5 + 100.0, PricingRules.total(store.priceBasket(List.of(store.getItem("B2"),
+                    store.getItem("A1")), List.of(2, 1))), "full price after delete");
+        });
+        cases.put("checked sales", (store, check) -> {
+            addItems(store);
+            check.equal("C3", store.recordSalesIfInStock(List.of(new SaleLine("A1", 1, 100.0, "2024-05-01"),
+                    new SaleLine("C3", 2, 80.0, "2024-05-01"), new SaleLine("C3", 2, 0.0, "2024-05-01"))),
+                    "lines of one item counted together");
+            check.equal(10, store.getItem("A1").quantity, "nothing recorded from a short basket");
+            check.equal("missing", store.recordSalesIfInStock(List.of(new SaleLine("missing", 1, 1.0, "2024-05-01"))),
+                    "missing item");
+            check.equal(null, store.recordSalesIfInStock(List.of(new SaleLine("C3", 3, 80.0, "2024-05-01"))),
+                    "last units");
+            check.equal(0, store.getItem("C3").quantity, "sold out");
+            check.near(240.0, store.getTotalRevenue(), "revenue of the checked sale");
+        });
+        cases.put("stock ledger", (store, check) -> {
+            addItems(store);
+            addSales(store);
+            store.restockItems(List.of("B2"), 10);
+            store.takeStockSnapshot();
+            Map<String, Integer> asOf = new TreeMap<>();
+            for (StockPosition position : store.getStockAsOf(LocalDate.now())) {
+                asOf.put(position.itemId, position.quantity);
+            }
+            List<InventoryItem> all = new ArrayList<>();
+            store.getAllItems(all::add);
+            Map<String, Integer> current = new TreeMap<>();
+            all.forEach(item -> current.put(item.id, item.quantity));
+            check.equal(current, asOf, "stock as of today");
+            check.equal(List.of(), store.checkStockConsistency(), "no drift");
+        });
+        cases.put("ledger snapshots", (store, check) -> {
+            addItems(store);
+            store.restockItems(List.of("d4"), 3 * AbstractInventoryStore.SNAPSHOT_INTERVAL);
+            LocalDate today = LocalDate.now();
+            String yesterday = today.minusDays(1).toString();
+            // Two snapshots' worth of sales, every tenth back-dated, then more back-dated after the last one
+            for (int round = 0; round < 2; round++) {
+                List<SaleLine> sales = new ArrayList<>();
+                for (int i = 0; i < AbstractInventoryStore.SNAPSHOT_INTERVAL; i++) {
+                    sales.add(new SaleLine("d4", 1, 2.25, i % 10 == 0 ? yesterday : today.toString()));
+                }
+                store.recordSales(sales);
+                store.takeStockSnapshot();
+            }
+            store.recordSales(List.of(new SaleLine("d4", 5, 2.25, yesterday), new SaleLine("B2", 2, 15.5,
+                    today.toString())));
+            List<InventoryItem> all = new ArrayList<>();
+            store.getAllItems(all::add);
+            Map<String, Integer> current = new TreeMap<>();
+            all.forEach(item -> current.put(item.id, item.quantity));
+            check.equal(current, stockAsOf(store, today), "stock as of today");
+            // The items were added today, so yesterday only has the sales dated then
+            check.equal(Map.of("d4", -205), stockAsOf(store, today.minusDays(1)), "stock as of yesterday");
+            check.equal(List.of(), store.checkStockConsistency(), "no drift");
+        });
+        cases.put("authentication", (store, check) -> {
+            check.equal("admin", store.authenticate("admin", "admin123"), "admin");
+            check.equal("viewer", store.authenticate("viewer", "viewer123"), "viewer");
+            check.equal(null, store.authenticate("admin", "wrong"), "wrong password");
+            check.equal(null, store.authenticate("nobody", "admin123"), "unknown user");
+        });
+        return cases;
+    }
+}